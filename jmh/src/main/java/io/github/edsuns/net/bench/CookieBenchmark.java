@@ -0,0 +1,39 @@
+package io.github.edsuns.net.bench;
+
+import io.github.edsuns.net.HttpRequest;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of parsing response cookies.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CookieBenchmark {
+    @Param({"1", "10", "50"})
+    int count;
+
+    private List<String> setCookies;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        setCookies = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            setCookies.add("cookie" + i + "=value" + i
+                    + "; Path=/; Domain=.example.com; Expires=Wed, 21 Oct 2037 07:28:00 GMT; Secure; HttpOnly");
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> getCookiesFrom() {
+        return HttpRequest.getCookiesFrom(setCookies);
+    }
+}
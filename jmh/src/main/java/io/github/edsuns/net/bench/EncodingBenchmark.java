@@ -0,0 +1,63 @@
+package io.github.edsuns.net.bench;
+
+import io.github.edsuns.net.HttpRequest;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the charset helpers, {@code guessEncoding} in particular.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EncodingBenchmark {
+    @Param({"1024", "65536", "1048576"})
+    int size;
+
+    private byte[] utf8;
+    private byte[] gbk;
+    private byte[] latin1;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String text = new String(LocalServer.createBody(size), StandardCharsets.UTF_8);
+        utf8 = text.getBytes(StandardCharsets.UTF_8);
+        gbk = text.getBytes(Charset.forName("GBK"));
+        StringBuilder builder = new StringBuilder(size);
+        while (builder.length() < size) {
+            builder.append("<p>Größenordnung für naïve café façade.</p>\n");
+        }
+        latin1 = builder.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Benchmark
+    public Charset guessUtf8() {
+        return HttpRequest.guessEncoding(utf8);
+    }
+
+    @Benchmark
+    public Charset guessGbk() {
+        return HttpRequest.guessEncoding(gbk);
+    }
+
+    @Benchmark
+    public Charset guessLatin1() {
+        return HttpRequest.guessEncoding(latin1);
+    }
+
+    @Benchmark
+    public Charset encodingFromContentType() {
+        return HttpRequest.getEncodingFromContentType("text/html; charset=UTF-8");
+    }
+
+    @Benchmark
+    public boolean textContentType() {
+        return HttpRequest.isTextContentType("application/xhtml+xml; charset=UTF-8");
+    }
+}
@@ -0,0 +1,93 @@
+package io.github.edsuns.net.bench;
+
+import io.github.edsuns.net.HttpRequest;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end request benchmarks against {@link LocalServer}, covering
+ * {@code exec}, {@code loadResponse} and the post body writer.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecBenchmark {
+    @Param({"4096", "262144"})
+    int bodySize;
+
+    private LocalServer server;
+    private String fixedUrl;
+    private String textUrl;
+    private String gzipUrl;
+    private String deflateUrl;
+    private String redirectUrl;
+    private String cookiesUrl;
+    private String echoUrl;
+    private HttpRequest.Data form;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new LocalServer(bodySize);
+        fixedUrl = server.url(LocalServer.FIXED);
+        textUrl = server.url(LocalServer.TEXT);
+        gzipUrl = server.url(LocalServer.GZIP);
+        deflateUrl = server.url(LocalServer.DEFLATE);
+        redirectUrl = server.url(LocalServer.REDIRECT + 5);
+        cookiesUrl = server.url(LocalServer.COOKIES);
+        echoUrl = server.url(LocalServer.ECHO);
+        form = HttpRequest.data("name", "HttpRequest");
+        for (int i = 0; i < 16; i++) {
+            form.data("key" + i, "value " + i + " 值");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public String fixed() throws IOException {
+        return new HttpRequest(fixedUrl).exec().getBody();
+    }
+
+    @Benchmark
+    public String guessedCharset() throws IOException {
+        return new HttpRequest(textUrl).exec().getBody();
+    }
+
+    @Benchmark
+    public String gzip() throws IOException {
+        return new HttpRequest(gzipUrl).exec().getBody();
+    }
+
+    @Benchmark
+    public String deflate() throws IOException {
+        return new HttpRequest(deflateUrl).exec().getBody();
+    }
+
+    @Benchmark
+    public String redirectChain() throws IOException {
+        return new HttpRequest(redirectUrl).followRedirects(true).exec().getBody();
+    }
+
+    @Benchmark
+    public Object setCookies() throws IOException {
+        return new HttpRequest(cookiesUrl).exec().getCookies();
+    }
+
+    @Benchmark
+    public byte[] head() throws IOException {
+        return new HttpRequest(fixedUrl).exec(HttpRequest.Method.HEAD).getBodyBytes();
+    }
+
+    @Benchmark
+    public String post() throws IOException {
+        return new HttpRequest(echoUrl).exec(HttpRequest.Method.POST, form).getBody();
+    }
+}
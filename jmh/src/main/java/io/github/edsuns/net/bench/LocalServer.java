@@ -0,0 +1,143 @@
+package io.github.edsuns.net.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An embedded loopback http server serving fixed responses for the benchmarks.
+ * <p>All response bodies are built once on startup, so the server side costs as little as possible.</p>
+ */
+public final class LocalServer implements AutoCloseable {
+    public static final String FIXED = "/fixed";
+    public static final String TEXT = "/text";// text body without charset, makes the client guess the encoding
+    public static final String GZIP = "/gzip";
+    public static final String DEFLATE = "/deflate";
+    public static final String REDIRECT = "/redirect/";// followed by the number of hops left
+    public static final String COOKIES = "/cookies";
+    public static final String ECHO = "/echo";
+
+    public static final int COOKIE_COUNT = 10;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final byte[] body;
+    private final byte[] gzipBody;
+    private final byte[] deflateBody;
+
+    public LocalServer(int bodySize) throws IOException {
+        body = createBody(bodySize);
+        gzipBody = gzip(body);
+        deflateBody = deflate(body);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        server.setExecutor(executor);
+        server.createContext(FIXED, exchange -> send(exchange, 200, "text/html; charset=utf-8", null, body));
+        server.createContext(TEXT, exchange -> send(exchange, 200, "text/plain", null, body));
+        server.createContext(GZIP, exchange -> send(exchange, 200, "text/html; charset=utf-8", "gzip", gzipBody));
+        server.createContext(DEFLATE, exchange -> send(exchange, 200, "text/html; charset=utf-8", "deflate", deflateBody));
+        server.createContext(REDIRECT, new RedirectHandler());
+        server.createContext(COOKIES, exchange -> {
+            for (int i = 0; i < COOKIE_COUNT; i++) {
+                exchange.getResponseHeaders().add("Set-Cookie",
+                        "cookie" + i + "=value" + i + "; Path=/; Domain=127.0.0.1; Max-Age=3600; HttpOnly");
+            }
+            send(exchange, 200, "text/html; charset=utf-8", null, body);
+        });
+        server.createContext(ECHO, exchange -> {
+            byte[] received = readAll(exchange.getRequestBody());
+            send(exchange, 200, "text/plain; charset=utf-8", null, received);
+        });
+        server.start();
+    }
+
+    public String url(String path) {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getHostString() + ":" + address.getPort() + path;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static final class RedirectHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            int hops = Integer.parseInt(path.substring(REDIRECT.length()));
+            String location = hops > 1 ? REDIRECT + (hops - 1) : FIXED;
+            exchange.getResponseHeaders().set("Location", location);
+            exchange.sendResponseHeaders(302, -1);
+            exchange.close();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String contentEncoding,
+                             byte[] bytes) throws IOException {
+        // drain the request so that the connection can be kept alive
+        readAll(exchange.getRequestBody());
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        if (contentEncoding != null)
+            exchange.getResponseHeaders().set("Content-Encoding", contentEncoding);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            bo.write(buffer, 0, count);
+        }
+        return bo.toByteArray();
+    }
+
+    // html-like text with some non-ASCII characters, so that decoding isn't trivial
+    static byte[] createBody(int size) {
+        final String line = "<p>HttpRequest benchmark 基准测试 body line.</p>\n";
+        StringBuilder builder = new StringBuilder(size + line.length());
+        while (builder.length() < size) {
+            builder.append(line);
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bo)) {
+            out.write(bytes);
+        }
+        return bo.toByteArray();
+    }
+
+    // raw deflate without zlib wrapper, the client inflates with nowrap=true
+    private static byte[] deflate(byte[] bytes) throws IOException {
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(bo, new Deflater(Deflater.DEFAULT_COMPRESSION, true))) {
+            out.write(bytes);
+        }
+        return bo.toByteArray();
+    }
+}
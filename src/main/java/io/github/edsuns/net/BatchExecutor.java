@@ -0,0 +1,391 @@
+package io.github.edsuns.net;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * <p>Execute many requests with a limit of requests in flight, in total and per host.</p>
+ * <p>Requests wait in a queue per host, the hosts take turns when a slot is free,
+ * so a host with thousands of requests doesn't delay the others.
+ * A failed request is reported in its {@link Result}, the other requests go on.</p>
+ * <pre>{@code
+ * BatchExecutor.Results results = new BatchExecutor().maxInFlight(64).maxPerHost(8).executeAll(requests);
+ * for (BatchExecutor.Result result : results) {// in completion order
+ *     if (result.isSuccess())
+ *         process(result.getRequest().getBody());
+ * }
+ * }</pre>
+ */
+public class BatchExecutor {
+    private static final int DEFAULT_MAX_IN_FLIGHT = 64;
+    private static final int DEFAULT_MAX_PER_HOST = 8;
+
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private int maxPerHost = DEFAULT_MAX_PER_HOST;
+    private Executor executor;
+    private HttpRequest.Method method = HttpRequest.Method.GET;
+    private boolean loadResponse = true;
+
+    /**
+     * @param maxInFlight max requests executed at the same time
+     * @return this
+     */
+    public BatchExecutor maxInFlight(int maxInFlight) {
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * @param maxPerHost max requests executed at the same time for a host and port
+     * @return this
+     */
+    public BatchExecutor maxPerHost(int maxPerHost) {
+        if (maxPerHost < 1)
+            throw new IllegalArgumentException("maxPerHost must be positive");
+        this.maxPerHost = maxPerHost;
+        return this;
+    }
+
+    /**
+     * @param executor nullable, the default executor of {@link HttpRequest.Async} if null
+     * @return this
+     */
+    public BatchExecutor executor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * @param method method of the requests, GET by default
+     * @return this
+     */
+    public BatchExecutor method(HttpRequest.Method method) {
+        this.method = Objects.requireNonNull(method, "method must not be null");
+        return this;
+    }
+
+    /**
+     * @param loadResponse load the bodies on the executor, true by default
+     * @return this
+     */
+    public BatchExecutor loadResponse(boolean loadResponse) {
+        this.loadResponse = loadResponse;
+        return this;
+    }
+
+    /**
+     * Start executing the requests, it returns without waiting for them.
+     *
+     * @param requests requests not executed yet, none of them may be shared with other threads
+     * @return results of the requests
+     */
+    public Results executeAll(Collection<HttpRequest> requests) {
+        return executeAll(requests, null);
+    }
+
+    /**
+     * Start executing the requests, it returns without waiting for them.
+     *
+     * @param requests requests not executed yet, none of them may be shared with other threads
+     * @param callback nullable, called with every result on the thread which executed the request
+     * @return results of the requests
+     */
+    public Results executeAll(Collection<HttpRequest> requests, Consumer<Result> callback) {
+        final Results results = new Results(requests, callback,
+                executor != null ? executor : HttpRequest.Async.getExecutor());
+        results.dispatch();
+        return results;
+    }
+
+    /**
+     * The outcome of a request of the batch.
+     */
+    public static final class Result {
+        private final int index;
+        private final HttpRequest request;
+        private final Throwable error;
+
+        Result(int index, HttpRequest request, Throwable error) {
+            this.index = index;
+            this.request = request;
+            this.error = error;
+        }
+
+        /**
+         * @return index of the request in the collection submitted
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public HttpRequest getRequest() {
+            return request;
+        }
+
+        /**
+         * @return nullable, the exception or error if the request failed or was cancelled
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    // the requests waiting for a host, the hosts with a free slot take turns
+    private static final class HostQueue {
+        final String host;
+        final ArrayDeque<Integer> waiting = new ArrayDeque<>();
+        int inFlight;
+        boolean ready;// in the ready queue
+
+        HostQueue(String host) {
+            this.host = host;
+        }
+    }
+
+    /**
+     * The results of a batch, iterating it blocks until the next result is available.
+     * <p>It iterates in completion order, see {@link #inSubmissionOrder()} for the other order.</p>
+     */
+    public final class Results implements Iterable<Result> {
+        private final HttpRequest[] requests;
+        private final HostQueue[] hostOf;
+        private final List<CompletableFuture<Result>> futures;
+        private final BlockingQueue<Result> completed = new LinkedBlockingQueue<>();
+        private final Consumer<Result> callback;
+        private final Executor executor;
+        private final ArrayDeque<HostQueue> ready = new ArrayDeque<>();// guarded by this
+        private int inFlight;// guarded by this
+        private boolean cancelled;// guarded by this
+
+        Results(Collection<HttpRequest> requests, Consumer<Result> callback, Executor executor) {
+            this.requests = requests.toArray(new HttpRequest[0]);
+            this.hostOf = new HostQueue[this.requests.length];
+            this.futures = new ArrayList<>(this.requests.length);
+            this.callback = callback;
+            this.executor = executor;
+            final Map<String, HostQueue> hosts = new HashMap<>();
+            for (int i = 0; i < this.requests.length; i++) {
+                futures.add(new CompletableFuture<>());
+                final String host;
+                try {
+                    host = hostKey(new URL(this.requests[i].getOriginUrl()));
+                } catch (MalformedURLException e) {
+                    complete(i, e);
+                    continue;
+                }
+                HostQueue queue = hosts.get(host);
+                if (queue == null) {
+                    queue = new HostQueue(host);
+                    hosts.put(host, queue);
+                    queue.ready = true;
+                    ready.add(queue);
+                }
+                queue.waiting.add(i);
+                hostOf[i] = queue;
+            }
+        }
+
+        private String hostKey(URL url) {
+            final int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+            return url.getHost().toLowerCase(Locale.ENGLISH) + ":" + port;
+        }
+
+        // start requests until a limit is reached, the hosts are served round-robin
+        private void dispatch() {
+            boolean rejected = true;
+            while (rejected) {
+                // the slots of rejected requests are given to the next ones by this loop, not by recursion
+                rejected = false;
+                final List<Integer> starting = new ArrayList<>();
+                synchronized (this) {
+                    while (inFlight < maxInFlight && !ready.isEmpty()) {
+                        final HostQueue queue = ready.poll();
+                        starting.add(queue.waiting.poll());
+                        queue.inFlight++;
+                        inFlight++;
+                        if (!queue.waiting.isEmpty() && queue.inFlight < maxPerHost)
+                            ready.add(queue);
+                        else
+                            queue.ready = false;
+                    }
+                }
+                for (int index : starting) {
+                    try {
+                        executor.execute(() -> run(index));
+                    } catch (RejectedExecutionException e) {
+                        release(index);
+                        complete(index, e);
+                        rejected = true;
+                    }
+                }
+            }
+        }
+
+        private void run(int index) {
+            Throwable error = null;
+            try {
+                final HttpRequest request = requests[index].exec(method);
+                if (loadResponse)
+                    request.loadResponse();
+            } catch (Throwable e) {
+                error = e;// an Error too, the slots must be released
+            } finally {
+                finish(index, error);
+            }
+        }
+
+        private void finish(int index, Throwable error) {
+            release(index);
+            complete(index, error);
+            dispatch();
+        }
+
+        // give back the slots of a request, its host is ready again if it has requests waiting
+        private synchronized void release(int index) {
+            final HostQueue queue = hostOf[index];
+            inFlight--;
+            queue.inFlight--;
+            if (!cancelled && !queue.waiting.isEmpty() && !queue.ready) {
+                queue.ready = true;
+                ready.add(queue);
+            }
+        }
+
+        private void complete(int index, Throwable error) {
+            final Result result = new Result(index, requests[index], error);
+            if (callback != null) {
+                try {
+                    callback.accept(result);
+                } catch (RuntimeException ignored) {
+                    // a failing callback must not stall the batch
+                }
+            }
+            completed.add(result);
+            futures.get(index).complete(result);
+        }
+
+        /**
+         * Don't start the requests still waiting, they complete with a {@link CancellationException}.
+         * The requests in flight go on.
+         */
+        public void cancel() {
+            final List<Integer> dropped = new ArrayList<>();
+            synchronized (this) {
+                cancelled = true;
+                for (HostQueue queue : ready) {
+                    queue.ready = false;
+                }
+                ready.clear();
+                for (int i = 0; i < requests.length; i++) {
+                    final HostQueue queue = hostOf[i];
+                    if (queue != null && !queue.waiting.isEmpty()) {
+                        dropped.addAll(queue.waiting);
+                        queue.waiting.clear();
+                    }
+                }
+            }
+            for (int index : dropped) {
+                complete(index, new CancellationException("Batch cancelled"));
+            }
+        }
+
+        /**
+         * @return number of requests in the batch
+         */
+        public int size() {
+            return requests.length;
+        }
+
+        /**
+         * @return completes when all the requests have completed, it never completes exceptionally
+         */
+        public CompletableFuture<List<Result>> whenComplete() {
+            return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+                final List<Result> results = new ArrayList<>(futures.size());
+                for (CompletableFuture<Result> future : futures) {
+                    results.add(future.join());
+                }
+                return results;
+            });
+        }
+
+        /**
+         * Wait for all the requests.
+         *
+         * @return the results in submission order
+         * @throws InterruptedException if interrupted while waiting
+         */
+        public List<Result> awaitAll() throws InterruptedException {
+            try {
+                return whenComplete().get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());// never completes exceptionally
+            }
+        }
+
+        /**
+         * @return iterator in completion order, every result is returned once by all the iterators together
+         */
+        @Override
+        public Iterator<Result> iterator() {
+            return new Iterator<Result>() {
+                private int returned;
+
+                @Override
+                public boolean hasNext() {
+                    return returned < requests.length;
+                }
+
+                @Override
+                public Result next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    returned++;
+                    try {
+                        return completed.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new CancellationException("Interrupted while waiting for a result");
+                    }
+                }
+            };
+        }
+
+        /**
+         * @return iterable in the order of the collection submitted, blocking until the next one completes
+         */
+        public Iterable<Result> inSubmissionOrder() {
+            return () -> new Iterator<Result>() {
+                private int index;
+
+                @Override
+                public boolean hasNext() {
+                    return index < futures.size();
+                }
+
+                @Override
+                public Result next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    try {
+                        return futures.get(index++).get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new CancellationException("Interrupted while waiting for a result");
+                    } catch (ExecutionException e) {
+                        throw new IllegalStateException(e.getCause());// never completes exceptionally
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package io.github.edsuns.net;
+
+import java.io.IOException;
+
+/**
+ * Decides where the response body goes, once the status and response headers are known.
+ *
+ * @see BodyHandlers
+ */
+@FunctionalInterface
+public interface BodyHandler {
+    /**
+     * Create the sink for the body of a response.
+     *
+     * @param response the executed request, status and response headers are available
+     * @return the sink receiving the body
+     * @throws IOException if the sink can't be created
+     */
+    BodySink apply(HttpRequest response) throws IOException;
+}
@@ -0,0 +1,196 @@
+package io.github.edsuns.net;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Built-in {@link BodyHandler}s, only the representation asked for gets materialized.
+ */
+public final class BodyHandlers {
+    private static final int DEFAULT_CAPACITY = 1024 * 16;
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    private static final int MAX_INITIAL_CAPACITY = 1024 * 1024;
+
+    private static final BodySink DISCARDING = (buffer, offset, length) -> {
+    };
+
+    private BodyHandlers() {
+    }
+
+    /**
+     * Buffer the body into bytes, and also decode it into a String if the content type is text.
+     * <p>The String is decoded on the first {@link HttpRequest#getBody()}, not at all if only the bytes are used.
+     * This is the default of {@link HttpRequest}.</p>
+     *
+     * @return body handler
+     */
+    public static BodyHandler ofBytesAndText() {
+        return response -> new BufferingSink(response, true, true, false);
+    }
+
+    /**
+     * Buffer the body into bytes only, the buffer is pre-sized from Content-Length.
+     *
+     * @return body handler
+     * @see HttpRequest#getBodyBytes()
+     */
+    public static BodyHandler ofByteArray() {
+        return response -> new BufferingSink(response, true, false, false);
+    }
+
+    /**
+     * Decode the body into a String whatever the content type is, the bytes are dropped after decoding.
+     *
+     * @return body handler
+     * @see HttpRequest#getBody()
+     */
+    public static BodyHandler ofString() {
+        return response -> new BufferingSink(response, false, true, true);
+    }
+
+    /**
+     * Read and drop the body.
+     *
+     * @return body handler
+     */
+    public static BodyHandler discarding() {
+        return response -> DISCARDING;
+    }
+
+    /**
+     * Write the body to a channel, the channel is left open.
+     *
+     * @param channel channel
+     * @return body handler
+     */
+    public static BodyHandler ofChannel(WritableByteChannel channel) {
+        Objects.requireNonNull(channel, "channel must not be null");
+        return response -> new ChannelSink(channel, false);
+    }
+
+    /**
+     * Write the body to a file, the file is created or truncated.
+     *
+     * @param file file
+     * @return body handler
+     */
+    public static BodyHandler ofFile(Path file) {
+        Objects.requireNonNull(file, "file must not be null");
+        return response -> new ChannelSink(FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), true);
+    }
+
+    /**
+     * Hand every chunk of the body to a callback.
+     *
+     * @param callback called with each chunk
+     * @return body handler
+     */
+    public static BodyHandler ofChunks(BodySink callback) {
+        Objects.requireNonNull(callback, "callback must not be null");
+        return response -> callback;
+    }
+
+    static final class ChannelSink implements BodySink {
+        private final WritableByteChannel channel;
+        private final boolean closeChannel;
+
+        ChannelSink(WritableByteChannel channel, boolean closeChannel) {
+            this.channel = channel;
+            this.closeChannel = closeChannel;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            ByteBuffer src = ByteBuffer.wrap(buffer, offset, length);
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closeChannel)
+                channel.close();
+        }
+    }
+
+    static final class BufferingSink implements BodySink {
+        private final HttpRequest response;
+        private final boolean keepBytes;
+        private final boolean decodeText;
+        private final boolean anyContentType;// decode even if the content type isn't text
+        private byte[] buf;
+        private int count;
+
+        BufferingSink(HttpRequest response, boolean keepBytes, boolean decodeText, boolean anyContentType) {
+            this.response = response;
+            this.keepBytes = keepBytes;
+            this.decodeText = decodeText;
+            this.anyContentType = anyContentType;
+            this.buf = new byte[initialCapacity(response)];
+        }
+
+        private static int initialCapacity(HttpRequest response) {
+            if (!hasBody(response.getMethod(), response.getStatus()))
+                return 0;// whatever Content-Length says
+            return initialCapacity(response.getContentLength(),
+                    response.getHeader(HttpRequest.CONTENT_ENCODING) != null);
+        }
+
+        static boolean hasBody(HttpRequest.Method method, int status) {
+            return method != HttpRequest.Method.HEAD && status != HttpURLConnection.HTTP_NO_CONTENT
+                    && status != HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        // exact size if Content-Length is the length of the decoded body,
+        // capped because the header isn't trusted before the bytes arrive, the buffer grows past it
+        static int initialCapacity(long contentLength, boolean encoded) {
+            if (contentLength < 0)
+                return DEFAULT_CAPACITY;
+            if (encoded)
+                contentLength = Math.max(contentLength, DEFAULT_CAPACITY);
+            return (int) Math.min(contentLength, MAX_INITIAL_CAPACITY);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            final int minCapacity = count + length;
+            if (minCapacity < 0 || minCapacity > MAX_ARRAY_SIZE)
+                throw new OutOfMemoryError("Response body is too large to be buffered");
+            if (minCapacity > buf.length) {
+                int newCapacity = (int) Math.min(Math.max((long) buf.length << 1, minCapacity), MAX_ARRAY_SIZE);
+                buf = Arrays.copyOf(buf, newCapacity);
+            }
+            System.arraycopy(buffer, offset, buf, count, length);
+            count = minCapacity;
+        }
+
+        @Override
+        public void close() {
+            // no copy if Content-Length was right
+            final byte[] bytes = count == buf.length ? buf : Arrays.copyOf(buf, count);
+            buf = null;
+            Charset encoding = null;
+            String text = null;
+            if (decodeText) {
+                encoding = response.detectEncoding(bytes, anyContentType);
+                if (keepBytes) {
+                    response.setLazyBody(bytes, encoding);// decoded from the kept bytes when asked for
+                    return;
+                }
+                if (encoding != null && bytes.length > 0)
+                    text = new String(bytes, encoding);
+            }
+            response.setBody(keepBytes ? bytes : null, text, encoding);
+        }
+    }
+}
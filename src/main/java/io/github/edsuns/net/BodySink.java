@@ -0,0 +1,34 @@
+package io.github.edsuns.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives the response body chunk by chunk while it's being read.
+ * <p>A lambda can be used as a per chunk callback.</p>
+ *
+ * @see BodyHandler
+ * @see BodyHandlers
+ */
+@FunctionalInterface
+public interface BodySink extends Closeable {
+    /**
+     * Receive a chunk of the body.
+     * <p>The buffer is reused for the next chunk, copy the bytes if they are needed later.</p>
+     *
+     * @param buffer buffer holding the chunk
+     * @param offset start of the chunk in the buffer
+     * @param length length of the chunk
+     * @throws IOException if the chunk can't be consumed, reading the body stops then
+     */
+    void write(byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * Called once the body ends, also when reading the body fails.
+     *
+     * @throws IOException if the sink can't be finished
+     */
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,102 @@
+package io.github.edsuns.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.*;
+
+/**
+ * A response of {@link ResponseCache} served as an {@link HttpURLConnection}, without any network I/O.
+ */
+final class CachedConnection extends HttpURLConnection {
+    private final ResponseCache.Entry entry;
+    private Map<String, List<String>> headerFields;
+
+    CachedConnection(ResponseCache.Entry entry) throws MalformedURLException {
+        super(new URL(entry.url));
+        this.entry = entry;
+        this.responseCode = entry.status;
+        this.connected = true;
+    }
+
+    @Override
+    public void connect() {
+    }
+
+    @Override
+    public int getResponseCode() {
+        return entry.status;
+    }
+
+    @Override
+    public String getResponseMessage() {
+        final String statusLine = entry.statusLine;
+        int start = statusLine.indexOf(' ');
+        int end = start < 0 ? -1 : statusLine.indexOf(' ', start + 1);
+        return end < 0 ? null : statusLine.substring(end + 1);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(entry.body);
+    }
+
+    // like the connection of the JDK, the body of an error response is its error stream
+    @Override
+    public InputStream getErrorStream() {
+        return entry.status >= HTTP_BAD_REQUEST ? new ByteArrayInputStream(entry.body) : null;
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        if (n == 0)
+            return entry.statusLine;
+        return n <= entry.headers.size() ? entry.headers.get(n - 1)[1] : null;
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        return n > 0 && n <= entry.headers.size() ? entry.headers.get(n - 1)[0] : null;
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        if (name == null)
+            return null;
+        // the last one like the connection of the JDK
+        for (int i = entry.headers.size() - 1; i >= 0; i--) {
+            String[] header = entry.headers.get(i);
+            if (header[0].equalsIgnoreCase(name))
+                return header[1];
+        }
+        return null;
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        if (headerFields == null) {
+            // case-insensitive names, the status line has the null key
+            Map<String, List<String>> fields = new TreeMap<>(Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER));
+            fields.put(null, Collections.singletonList(entry.statusLine));
+            for (String[] header : entry.headers) {
+                fields.computeIfAbsent(header[0], k -> new ArrayList<>(1)).add(header[1]);
+            }
+            for (Map.Entry<String, List<String>> field : fields.entrySet()) {
+                field.setValue(Collections.unmodifiableList(field.getValue()));
+            }
+            headerFields = Collections.unmodifiableMap(fields);
+        }
+        return headerFields;
+    }
+
+    @Override
+    public void disconnect() {
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return false;
+    }
+}
@@ -0,0 +1,241 @@
+package io.github.edsuns.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Caches the addresses of another {@link Resolver} with a TTL,
+ * unlike the JVM wide cache of {@link InetAddress} it can be tuned, observed and warmed up per transport.</p>
+ * <p>Failures are cached for a shorter TTL so an unknown host doesn't stall every request.
+ * An entry used close to its expiry is refreshed in the background,
+ * requests keep the old addresses meanwhile. The least recently used entries are evicted beyond the max size.</p>
+ */
+public class CachingResolver implements Resolver {
+    private static final long DEFAULT_TTL = 60_000;// milliseconds
+    private static final long DEFAULT_NEGATIVE_TTL = 10_000;// milliseconds
+    private static final int DEFAULT_MAX_SIZE = 256;
+    private static final int REFRESH_AHEAD_PERCENT = 20;// refresh in the last 20% of the TTL
+
+    private final Resolver delegate;
+    private volatile long ttl = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TTL);
+    private volatile long negativeTtl = TimeUnit.MILLISECONDS.toNanos(DEFAULT_NEGATIVE_TTL);
+    private volatile int maxSize = DEFAULT_MAX_SIZE;
+    private volatile Executor executor;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);// guarded by itself
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong refreshCount = new AtomicLong();
+
+    public CachingResolver() {
+        this(SYSTEM);
+    }
+
+    /**
+     * @param delegate resolves the hosts not in the cache
+     */
+    public CachingResolver(Resolver delegate) {
+        if (delegate == null)
+            throw new NullPointerException("delegate");
+        this.delegate = delegate;
+    }
+
+    /**
+     * @param ttl milliseconds resolved addresses are kept
+     * @return this
+     */
+    public CachingResolver ttl(long ttl) {
+        if (ttl < 0)
+            throw new IllegalArgumentException("ttl must not be negative");
+        this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+        return this;
+    }
+
+    /**
+     * @param negativeTtl milliseconds a failed resolution is kept, 0 to not cache failures
+     * @return this
+     */
+    public CachingResolver negativeTtl(long negativeTtl) {
+        if (negativeTtl < 0)
+            throw new IllegalArgumentException("negativeTtl must not be negative");
+        this.negativeTtl = TimeUnit.MILLISECONDS.toNanos(negativeTtl);
+        return this;
+    }
+
+    /**
+     * @param maxSize max number of hosts kept
+     * @return this
+     */
+    public CachingResolver maxSize(int maxSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("maxSize must be positive");
+        this.maxSize = maxSize;
+        synchronized (entries) {
+            trim();
+        }
+        return this;
+    }
+
+    /**
+     * Set the executor of the background refreshes.
+     *
+     * @param executor nullable, the default executor of {@link HttpRequest.Async} if null
+     * @return this
+     */
+    public CachingResolver executor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Resolve the hosts now so the first requests to them don't wait.
+     *
+     * @param hosts host names
+     */
+    public void prefetch(String... hosts) {
+        for (String host : hosts) {
+            try {
+                load(normalize(host));
+            } catch (UnknownHostException ignored) {
+                // cached as a failure
+            }
+        }
+    }
+
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        final String key = normalize(host);
+        final Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        final long now = System.nanoTime();
+        if (entry == null || now - entry.expiry >= 0) {
+            missCount.incrementAndGet();
+            return load(key).get(host);
+        }
+        hitCount.incrementAndGet();
+        if (entry.addresses != null && now - entry.refreshAt >= 0)
+            refresh(key, entry);
+        return entry.get(host);
+    }
+
+    private Entry load(String key) throws UnknownHostException {
+        Entry entry;
+        try {
+            entry = new Entry(delegate.resolve(key), ttl);
+        } catch (UnknownHostException e) {
+            entry = new Entry(null, negativeTtl);
+        }
+        if (entry.addresses != null || negativeTtl > 0)
+            put(key, entry);
+        return entry;
+    }
+
+    private void refresh(String key, Entry entry) {
+        synchronized (entries) {
+            if (entry.refreshing)
+                return;
+            entry.refreshing = true;
+        }
+        final Executor e = executor;
+        try {
+            (e != null ? e : HttpRequest.Async.getExecutor()).execute(() -> {
+                try {
+                    // keep the addresses still valid if the refresh fails
+                    put(key, new Entry(delegate.resolve(key), ttl));
+                    refreshCount.incrementAndGet();
+                } catch (UnknownHostException | RuntimeException ignored) {
+                }
+            });
+        } catch (RejectedExecutionException ignored) {
+            // resolved again when it expires
+        }
+    }
+
+    private void put(String key, Entry entry) {
+        synchronized (entries) {
+            entries.put(key, entry);
+            trim();
+        }
+    }
+
+    // guarded by entries
+    private void trim() {
+        final Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (entries.size() > maxSize && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static String normalize(String host) {
+        return host.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Remove all the cached hosts.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return number of hosts cached now, including expired and failed ones
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return number of resolutions served from the cache, including cached failures
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return number of resolutions that waited for the delegate
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return number of background refreshes done
+     */
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    private static final class Entry {
+        final InetAddress[] addresses;// null if the host is unknown
+        final long expiry;
+        final long refreshAt;
+        boolean refreshing;// guarded by entries
+
+        Entry(InetAddress[] addresses, long ttl) {
+            this.addresses = addresses;
+            final long now = System.nanoTime();
+            expiry = now + ttl;
+            refreshAt = now + ttl - ttl * REFRESH_AHEAD_PERCENT / 100;
+        }
+
+        InetAddress[] get(String host) throws UnknownHostException {
+            if (addresses == null)
+                throw new UnknownHostException(host);
+            return addresses.clone();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package io.github.edsuns.net;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Guess the encoding of text bytes by exclusion.
+ * <p>UTF-8 and GBK validity are checked together in a single pass over the bytes, on the calling thread and
+ * without allocating. ISO-8859-1 decodes any byte sequence, so it's the one remaining after exclusion.
+ * US-ASCII is a subset of UTF-8, pure ASCII bytes are reported as UTF-8.</p>
+ */
+final class CharsetDetector {
+    static final Charset GBK = Charset.forName("GBK");
+
+    private CharsetDetector() {
+    }
+
+    /**
+     * Guess the encoding of {@code length} bytes starting at {@code offset}.
+     *
+     * @param bytes     bytes
+     * @param offset    first byte to check
+     * @param length    number of bytes to check
+     * @param truncated true if the checked bytes are only a prefix of the text,
+     *                  an incomplete character at the end is not treated as invalid then
+     * @return UTF-8, GBK or ISO-8859-1, in order of preference
+     */
+    static Charset detect(byte[] bytes, int offset, int length, boolean truncated) {
+        final int end = offset + length;
+        boolean utf8 = true;
+        boolean gbk = true;
+        int utf8Remaining = 0;// continuation bytes still expected
+        int utf8Lower = 0x80, utf8Upper = 0xBF;// valid range of the next continuation byte
+        boolean gbkTrail = false;// expecting the second byte of a double-byte character
+        for (int i = offset; i < end; i++) {
+            final int b = bytes[i] & 0xFF;
+            if (utf8) {
+                if (utf8Remaining > 0) {
+                    if (b < utf8Lower || b > utf8Upper) {
+                        utf8 = false;
+                    } else {
+                        utf8Lower = 0x80;
+                        utf8Upper = 0xBF;
+                        utf8Remaining--;
+                    }
+                } else if (b >= 0x80) {
+                    // lead byte, see the well-formed byte sequences table of the Unicode standard
+                    if (b >= 0xC2 && b <= 0xDF) {
+                        utf8Remaining = 1;
+                    } else if (b >= 0xE0 && b <= 0xEF) {
+                        utf8Remaining = 2;
+                        if (b == 0xE0)
+                            utf8Lower = 0xA0;// overlong
+                        else if (b == 0xED)
+                            utf8Upper = 0x9F;// surrogates
+                    } else if (b >= 0xF0 && b <= 0xF4) {
+                        utf8Remaining = 3;
+                        if (b == 0xF0)
+                            utf8Lower = 0x90;// overlong
+                        else if (b == 0xF4)
+                            utf8Upper = 0x8F;// above U+10FFFF
+                    } else {
+                        utf8 = false;
+                    }
+                }
+            }
+            if (gbk) {
+                if (gbkTrail) {
+                    gbkTrail = false;
+                    if (b < 0x40 || b == 0x7F || b == 0xFF)
+                        gbk = false;
+                } else if (b >= 0x81 && b <= 0xFE) {
+                    gbkTrail = true;
+                } else if (b >= 0x80) {
+                    gbk = false;
+                }
+            }
+            if (!utf8 && !gbk)
+                return StandardCharsets.ISO_8859_1;// certain, no need to look further
+        }
+        if (!truncated) {
+            if (utf8Remaining > 0)
+                utf8 = false;
+            if (gbkTrail)
+                gbk = false;
+        }
+        if (utf8)
+            return StandardCharsets.UTF_8;
+        if (gbk)
+            return GBK;
+        return StandardCharsets.ISO_8859_1;
+    }
+}
@@ -0,0 +1,21 @@
+package io.github.edsuns.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes a response body of a {@code Content-Encoding}.
+ *
+ * @see ContentDecoders#register(String, ContentDecoder)
+ */
+@FunctionalInterface
+public interface ContentDecoder {
+    /**
+     * Wrap the encoded body, it must not block reading from it.
+     *
+     * @param in encoded body
+     * @return decoded body, closing it closes the encoded body and releases what the decoder holds
+     * @throws IOException if the decoder can't be created
+     */
+    InputStream decode(InputStream in) throws IOException;
+}
@@ -0,0 +1,256 @@
+package io.github.edsuns.net;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.*;
+
+/**
+ * <p>The registry of the {@link ContentDecoder}s used by {@link HttpRequest}, keyed by {@code Content-Encoding}.
+ * gzip, x-gzip, deflate and identity are registered by default.</p>
+ * <p>The built-in decoders inflate with pooled {@link Inflater}s, an inflater is reset and returned
+ * to the pool when the body is closed instead of holding native memory until it's garbage collected.</p>
+ */
+public final class ContentDecoders {
+    private static final int BUFFER_SIZE = 1024 * 8;
+    private static final int MAX_POOLED_INFLATERS = 64;
+
+    private static final Map<String, ContentDecoder> decoders = new ConcurrentHashMap<>();
+    private static final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    static {
+        register(HttpRequest.GZIP, in -> new InflatingInputStream(in, true));
+        register("x-gzip", in -> new InflatingInputStream(in, true));
+        register(HttpRequest.DEFLATE, in -> new InflatingInputStream(in, false));
+        register("identity", in -> in);
+    }
+
+    private ContentDecoders() {
+    }
+
+    /**
+     * Register a decoder, it replaces the one of the same encoding.
+     *
+     * @param encoding content coding like br, case-insensitive
+     * @param decoder  decoder
+     */
+    public static void register(String encoding, ContentDecoder decoder) {
+        decoders.put(encoding.trim().toLowerCase(Locale.ENGLISH), Objects.requireNonNull(decoder, "decoder"));
+    }
+
+    /**
+     * @param encoding content coding, case-insensitive
+     * @return null if there's no decoder of the encoding
+     */
+    public static ContentDecoder get(String encoding) {
+        return decoders.get(encoding.trim().toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Decode a body of the {@code Content-Encoding} headers, stacked encodings are decoded in reverse order.
+     * <p>Decoding stops at an encoding without a decoder, the rest of the body is left encoded.</p>
+     *
+     * @param in        encoded body
+     * @param encodings values of the {@code Content-Encoding} headers, nullable
+     * @return decoded body
+     * @throws IOException if a decoder can't be created
+     */
+    public static InputStream decode(InputStream in, List<String> encodings) throws IOException {
+        if (encodings == null || encodings.isEmpty())
+            return in;
+        final List<String> codings = new ArrayList<>();
+        for (String value : encodings) {
+            for (String coding : value.split(",")) {
+                if (!coding.trim().isEmpty())
+                    codings.add(coding);
+            }
+        }
+        for (int i = codings.size() - 1; i >= 0; i--) {
+            final ContentDecoder decoder = get(codings.get(i));
+            if (decoder == null)
+                break;
+            in = decoder.decode(in);
+        }
+        return in;
+    }
+
+    // number of idle inflaters in the pool
+    static int pooledInflaters() {
+        return pooled.get();
+    }
+
+    private static Inflater acquire() {
+        final Inflater inflater = inflaters.poll();
+        if (inflater == null)
+            return new Inflater(true);// raw deflate, the gzip and zlib wrappers are read by the stream
+        pooled.decrementAndGet();
+        return inflater;
+    }
+
+    private static void release(Inflater inflater) {
+        inflater.reset();
+        if (pooled.incrementAndGet() <= MAX_POOLED_INFLATERS) {
+            inflaters.offer(inflater);
+        } else {
+            pooled.decrementAndGet();
+            inflater.end();
+        }
+    }
+
+    /**
+     * Inflates a gzip body, or a deflate body in the zlib format or raw like some servers send it.
+     * The header is read lazily, so creating the stream never blocks.
+     */
+    private static final class InflatingInputStream extends InflaterInputStream {
+        private static final int GZIP_MAGIC = 0x8b1f;
+        private static final int FHCRC = 2;
+        private static final int FEXTRA = 4;
+        private static final int FNAME = 8;
+        private static final int FCOMMENT = 16;
+
+        private final boolean gzip;
+        private final CRC32 crc = new CRC32();
+        private boolean started;
+        private boolean eos;
+        private boolean released;
+
+        InflatingInputStream(InputStream in, boolean gzip) {
+            super(in, acquire(), BUFFER_SIZE);
+            this.gzip = gzip;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (released)
+                throw new IOException("Stream closed");
+            if (eos)
+                return -1;
+            if (!started) {
+                started = true;
+                if (gzip ? !readGzipHeader(in) : !readZlibHeader()) {
+                    eos = true;// empty body
+                    return -1;
+                }
+            }
+            final int n = super.read(b, off, len);
+            if (n == -1) {
+                if (!gzip || readGzipTrailer())
+                    eos = true;
+                return eos ? -1 : read(b, off, len);
+            }
+            if (gzip)
+                crc.update(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return eos || released ? 0 : super.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (released)
+                return;
+            released = true;
+            try {
+                super.close();// closes the encoded body, the inflater isn't ended since it's not the default one
+            } finally {
+                release(inf);
+            }
+        }
+
+        // false if the body is empty
+        private boolean readZlibHeader() throws IOException {
+            final int b0 = in.read();
+            if (b0 == -1)
+                return false;
+            final int b1 = in.read();
+            if (b1 != -1 && (b0 & 0x0f) == 8 && ((b0 << 8) | b1) % 31 == 0) {
+                if ((b1 & 0x20) != 0)
+                    throw new ZipException("Preset dictionary isn't supported");
+                return true;// the adler32 trailer is left unread
+            }
+            // a raw deflate body, inflate the bytes already read
+            inf.setInput(b1 == -1 ? new byte[]{(byte) b0} : new byte[]{(byte) b0, (byte) b1});
+            return true;
+        }
+
+        // the header of a gzip member, false at the end of the body
+        private boolean readGzipHeader(InputStream in) throws IOException {
+            final int first = in.read();
+            if (first == -1)
+                return false;
+            if ((readUByte(in) << 8 | first) != GZIP_MAGIC)
+                throw new ZipException("Not in GZIP format");
+            if (readUByte(in) != 8)
+                throw new ZipException("Unsupported compression method");
+            final int flags = readUByte(in);
+            skipBytes(in, 6);// MTIME, XFL and OS
+            if ((flags & FEXTRA) == FEXTRA)
+                skipBytes(in, readUByte(in) | readUByte(in) << 8);
+            if ((flags & FNAME) == FNAME)
+                while (readUByte(in) != 0) ;
+            if ((flags & FCOMMENT) == FCOMMENT)
+                while (readUByte(in) != 0) ;
+            if ((flags & FHCRC) == FHCRC)
+                skipBytes(in, 2);
+            crc.reset();
+            return true;
+        }
+
+        // true at the end of the body, false if another gzip member follows
+        private boolean readGzipTrailer() throws IOException {
+            final int remaining = inf.getRemaining();
+            final ByteArrayInputStream rest = remaining > 0 ? new ByteArrayInputStream(buf, len - remaining, remaining) : null;
+            final InputStream trailer = rest == null ? in : new SequenceInputStream(rest, new FilterInputStream(in) {
+                @Override
+                public void close() {
+                }
+            });
+            if (readUInt(trailer) != crc.getValue() || readUInt(trailer) != (inf.getBytesWritten() & 0xffffffffL))
+                throw new ZipException("Corrupt GZIP trailer");
+            // concatenated members, like GZIPInputStream
+            if (remaining > 8 || in.available() > 0) {
+                try {
+                    if (!readGzipHeader(trailer))
+                        return true;
+                } catch (IOException e) {
+                    return true;// trailing garbage is ignored
+                }
+                inf.reset();
+                final int left = rest == null ? 0 : rest.available();
+                if (left > 0)
+                    inf.setInput(buf, len - left, left);
+                return false;
+            }
+            return true;
+        }
+
+        private static long readUInt(InputStream in) throws IOException {
+            final long low = readUShort(in);
+            return (long) readUShort(in) << 16 | low;
+        }
+
+        private static int readUShort(InputStream in) throws IOException {
+            final int b = readUByte(in);
+            return readUByte(in) << 8 | b;
+        }
+
+        private static int readUByte(InputStream in) throws IOException {
+            final int b = in.read();
+            if (b == -1)
+                throw new EOFException("Unexpected end of GZIP stream");
+            return b;
+        }
+
+        private static void skipBytes(InputStream in, int n) throws IOException {
+            while (n-- > 0) {
+                readUByte(in);
+            }
+        }
+    }
+}
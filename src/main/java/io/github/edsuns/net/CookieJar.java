@@ -0,0 +1,398 @@
+package io.github.edsuns.net;
+
+import java.net.URL;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Keeps the cookies of responses and sends them back like a browser does,
+ * honoring {@code Domain}, {@code Path}, {@code Secure}, {@code Expires} and {@code Max-Age}.</p>
+ * <p>Every {@code Set-Cookie} is parsed once and indexed by domain, so a request only looks at the cookies
+ * of its host and parent domains. The {@code Cookie} header of a host and path is cached until the jar changes
+ * or one of its cookies expires. Expired cookies are dropped when they're looked up.</p>
+ * <p>The jar is thread-safe and can be shared by concurrent requests, the domains are guarded by striped locks.</p>
+ *
+ * @see HttpRequest#cookieJar(CookieJar)
+ */
+public class CookieJar {
+    private static final int STRIPES = 16;
+    private static final int MAX_CACHED_HEADERS = 1024;
+
+    private final Map<String, List<Cookie>> domains = new ConcurrentHashMap<>();// list guarded by its stripe
+    private final Object[] locks = new Object[STRIPES];
+    private final AtomicLong version = new AtomicLong();
+    private final Map<String, CachedHeader> headers = new ConcurrentHashMap<>();
+
+    public CookieJar() {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    private Object lock(String domain) {
+        return locks[(domain.hashCode() & Integer.MAX_VALUE) % STRIPES];
+    }
+
+    /**
+     * Store the cookies of a response.
+     *
+     * @param url        url of the response
+     * @param setCookies values of the {@code Set-Cookie} headers, nullable
+     */
+    public void store(URL url, List<String> setCookies) {
+        if (setCookies == null)
+            return;
+        for (String setCookie : setCookies) {
+            final Cookie cookie = Cookie.parse(url, setCookie);
+            if (cookie != null)
+                add(cookie);
+        }
+    }
+
+    /**
+     * Add or replace a cookie, a cookie already expired removes the one with the same name, domain and path.
+     *
+     * @param cookie cookie
+     */
+    public void add(Cookie cookie) {
+        final boolean expired = cookie.isExpired(System.currentTimeMillis());
+        synchronized (lock(cookie.domain)) {
+            List<Cookie> cookies = domains.get(cookie.domain);
+            if (cookies == null) {
+                if (expired)
+                    return;
+                cookies = new ArrayList<>();
+                domains.put(cookie.domain, cookies);
+            }
+            cookies.removeIf(cookie::isSameAs);
+            if (!expired)
+                cookies.add(cookie);
+            if (cookies.isEmpty())
+                domains.remove(cookie.domain);
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param url request url
+     * @return the cookies to send to the url
+     */
+    public List<Cookie> get(URL url) {
+        final String host = url.getHost().toLowerCase(Locale.ENGLISH);
+        final String path = url.getPath().isEmpty() ? "/" : url.getPath();
+        final boolean secure = "https".equals(url.getProtocol());
+        final long now = System.currentTimeMillis();
+        final List<Cookie> matched = new ArrayList<>();
+        // the host and its parent domains
+        String domain = host;
+        while (true) {
+            if (domains.containsKey(domain))
+                match(domain, host, path, secure, now, matched);
+            final int dot = domain.indexOf('.');
+            if (dot < 0)
+                break;
+            domain = domain.substring(dot + 1);
+        }
+        // longer paths first across the domains too, the order is stable otherwise
+        matched.sort((a, b) -> b.path.length() - a.path.length());
+        return matched;
+    }
+
+    private void match(String domain, String host, String path, boolean secure, long now, List<Cookie> matched) {
+        synchronized (lock(domain)) {
+            final List<Cookie> cookies = domains.get(domain);
+            if (cookies == null)
+                return;
+            for (Iterator<Cookie> it = cookies.iterator(); it.hasNext(); ) {
+                final Cookie cookie = it.next();
+                if (cookie.isExpired(now)) {
+                    it.remove();
+                    version.incrementAndGet();
+                } else if ((!cookie.hostOnly || host.equals(domain)) && (secure || !cookie.secure)
+                        && pathMatches(path, cookie.path)) {
+                    matched.add(cookie);
+                }
+            }
+            if (cookies.isEmpty())
+                domains.remove(domain);
+        }
+    }
+
+    /**
+     * @param url request url
+     * @return value of the {@code Cookie} request header, null if there's no cookie to send
+     */
+    public String header(URL url) {
+        final String key = url.getProtocol() + "://" + url.getHost().toLowerCase(Locale.ENGLISH) + url.getPath();
+        final long now = System.currentTimeMillis();
+        final CachedHeader cached = headers.get(key);
+        if (cached != null && cached.version == version.get() && now < cached.expiry)
+            return cached.value;
+        final long currentVersion = version.get();
+        final List<Cookie> cookies = get(url);
+        final StringBuilder builder = new StringBuilder();
+        long expiry = Long.MAX_VALUE;
+        for (Cookie cookie : cookies) {
+            if (builder.length() > 0)
+                builder.append("; ");
+            builder.append(cookie.name).append('=').append(cookie.value);
+            expiry = Math.min(expiry, cookie.expiresAt);
+        }
+        final String value = builder.length() > 0 ? builder.toString() : null;
+        if (headers.size() >= MAX_CACHED_HEADERS)
+            headers.clear();
+        // expired cookies removed by get() changed the version, the next lookup builds the header again
+        headers.put(key, new CachedHeader(currentVersion, expiry, value));
+        return value;
+    }
+
+    /**
+     * @return all the cookies not expired
+     */
+    public List<Cookie> getCookies() {
+        final long now = System.currentTimeMillis();
+        final List<Cookie> all = new ArrayList<>();
+        for (String domain : domains.keySet()) {
+            synchronized (lock(domain)) {
+                final List<Cookie> cookies = domains.get(domain);
+                if (cookies == null)
+                    continue;
+                for (Cookie cookie : cookies) {
+                    if (!cookie.isExpired(now))
+                        all.add(cookie);
+                }
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Remove the expired cookies now instead of when they're looked up.
+     */
+    public void evictExpired() {
+        final long now = System.currentTimeMillis();
+        for (String domain : domains.keySet()) {
+            synchronized (lock(domain)) {
+                final List<Cookie> cookies = domains.get(domain);
+                if (cookies != null && cookies.removeIf(cookie -> cookie.isExpired(now))) {
+                    if (cookies.isEmpty())
+                        domains.remove(domain);
+                    version.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all the cookies.
+     */
+    public void clear() {
+        for (Object lock : locks) {
+            synchronized (lock) {
+                domains.keySet().removeIf(domain -> lock(domain) == lock);
+            }
+        }
+        version.incrementAndGet();
+        headers.clear();
+    }
+
+    /**
+     * @return number of cookies kept, including the expired ones not evicted yet
+     */
+    public int size() {
+        int size = 0;
+        for (String domain : domains.keySet()) {
+            synchronized (lock(domain)) {
+                final List<Cookie> cookies = domains.get(domain);
+                if (cookies != null)
+                    size += cookies.size();
+            }
+        }
+        return size;
+    }
+
+    // RFC 6265 5.1.4
+    private static boolean pathMatches(String requestPath, String cookiePath) {
+        if (!requestPath.startsWith(cookiePath))
+            return false;
+        return requestPath.length() == cookiePath.length() || cookiePath.endsWith("/")
+                || requestPath.charAt(cookiePath.length()) == '/';
+    }
+
+    private static final class CachedHeader {
+        final long version;
+        final long expiry;
+        final String value;
+
+        CachedHeader(long version, long expiry, String value) {
+            this.version = version;
+            this.expiry = expiry;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A parsed cookie, immutable.
+     */
+    public static final class Cookie {
+        private final String name;
+        private final String value;
+        private final String domain;
+        private final String path;
+        private final long expiresAt;// Long.MAX_VALUE for a session cookie
+        private final boolean hostOnly;
+        private final boolean secure;
+        private final boolean httpOnly;
+
+        public Cookie(String name, String value, String domain, String path, long expiresAt,
+                      boolean hostOnly, boolean secure, boolean httpOnly) {
+            this.name = name;
+            this.value = value;
+            this.domain = domain.toLowerCase(Locale.ENGLISH);
+            this.path = path;
+            this.expiresAt = expiresAt;
+            this.hostOnly = hostOnly;
+            this.secure = secure;
+            this.httpOnly = httpOnly;
+        }
+
+        /**
+         * Parse a {@code Set-Cookie} header.
+         *
+         * @param url       url of the response
+         * @param setCookie header value
+         * @return null if the cookie is invalid or not allowed for the url
+         */
+        public static Cookie parse(URL url, String setCookie) {
+            if (setCookie == null)
+                return null;
+            final String[] parts = setCookie.split(";");
+            final int eq = parts[0].indexOf('=');
+            if (eq <= 0)
+                return null;
+            final String name = parts[0].substring(0, eq).trim();
+            final String value = parts[0].substring(eq + 1).trim();
+            if (name.isEmpty())
+                return null;
+            final String host = url.getHost().toLowerCase(Locale.ENGLISH);
+            String domain = null;
+            String path = null;
+            long expiresAt = Long.MAX_VALUE;
+            boolean maxAge = false;
+            boolean secure = false;
+            boolean httpOnly = false;
+            for (int i = 1; i < parts.length; i++) {
+                final String attribute = parts[i].trim();
+                final int index = attribute.indexOf('=');
+                final String key = (index < 0 ? attribute : attribute.substring(0, index)).trim();
+                final String val = index < 0 ? "" : attribute.substring(index + 1).trim();
+                if ("Max-Age".equalsIgnoreCase(key)) {
+                    try {
+                        final long seconds = Long.parseLong(val);
+                        expiresAt = seconds <= 0 ? Long.MIN_VALUE
+                                : System.currentTimeMillis() + Math.min(seconds, Long.MAX_VALUE / 2000) * 1000;
+                        maxAge = true;
+                    } catch (NumberFormatException ignored) {
+                    }
+                } else if ("Expires".equalsIgnoreCase(key)) {
+                    if (!maxAge) {// Max-Age has precedence
+                        final long time = parseExpires(val);
+                        if (time != -1)
+                            expiresAt = time;
+                    }
+                } else if ("Domain".equalsIgnoreCase(key)) {
+                    if (!val.isEmpty())
+                        domain = (val.startsWith(".") ? val.substring(1) : val).toLowerCase(Locale.ENGLISH);
+                } else if ("Path".equalsIgnoreCase(key)) {
+                    if (val.startsWith("/"))
+                        path = val;
+                } else if ("Secure".equalsIgnoreCase(key)) {
+                    secure = true;
+                } else if ("HttpOnly".equalsIgnoreCase(key)) {
+                    httpOnly = true;
+                }
+            }
+            final boolean hostOnly = domain == null;
+            if (hostOnly)
+                domain = host;
+            else if (!host.equals(domain) && !host.endsWith('.' + domain) || domain.indexOf('.') < 0 && !host.equals(domain))
+                return null;// a cookie for another domain or a top level domain
+            if (path == null)
+                path = defaultPath(url.getPath());
+            return new Cookie(name, value, domain, path, expiresAt, hostOnly, secure, httpOnly);
+        }
+
+        // RFC 6265 5.1.4, the directory of the request path
+        private static String defaultPath(String requestPath) {
+            final int slash = requestPath.lastIndexOf('/');
+            if (!requestPath.startsWith("/") || slash == 0)
+                return "/";
+            return requestPath.substring(0, slash);
+        }
+
+        private static long parseExpires(String value) {
+            try {
+                // also accept the dashes of the old Netscape format: Wed, 21-Oct-2026 07:28:00 GMT
+                return ZonedDateTime.parse(value.replace('-', ' '), DateTimeFormatter.RFC_1123_DATE_TIME)
+                        .toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                return -1;
+            }
+        }
+
+        boolean isExpired(long now) {
+            return expiresAt <= now;
+        }
+
+        boolean isSameAs(Cookie other) {
+            return name.equals(other.name) && domain.equals(other.domain) && path.equals(other.path);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public String getDomain() {
+            return domain;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return expiry in epoch milliseconds, {@link Long#MAX_VALUE} for a session cookie
+         */
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+
+        /**
+         * @return true if the cookie has no {@code Domain} attribute and is only sent to its host
+         */
+        public boolean isHostOnly() {
+            return hostOnly;
+        }
+
+        public boolean isSecure() {
+            return secure;
+        }
+
+        public boolean isHttpOnly() {
+            return httpOnly;
+        }
+
+        @Override
+        public String toString() {
+            return name + '=' + value + "; Domain=" + domain + "; Path=" + path;
+        }
+    }
+}
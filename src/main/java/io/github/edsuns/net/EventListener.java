@@ -0,0 +1,78 @@
+package io.github.edsuns.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URL;
+
+/**
+ * <p>Receives the phases of the executions of {@link HttpRequest}s, durations are in nanoseconds.</p>
+ * <p>A request with redirects goes through the hop phases once per hop. Callbacks run on the thread
+ * executing the request, or on the executor of {@link HttpRequest#execAsync(HttpRequest.Method, HttpRequest.Data,
+ * java.util.concurrent.Executor)} between the hops sent by {@link NioTransport}.
+ * They must be fast and thread-safe if the listener is shared.
+ * A response served by {@link ResponseCache} without network I/O only has the call phases.</p>
+ *
+ * @see HttpRequest#eventListener(EventListener)
+ * @see EventRecorder
+ */
+public interface EventListener {
+    /**
+     * A listener ignoring all the events.
+     */
+    EventListener NONE = new EventListener() {
+    };
+
+    default void callStart(HttpRequest request) {
+    }
+
+    /**
+     * Host name resolved for a new connection of {@link NioTransport}, by its {@link Resolver}.
+     * The connections of {@link Transport#DEFAULT} resolve inside the JDK and don't report it.
+     */
+    default void dnsEnd(HttpRequest request, String host, InetAddress[] addresses, long nanos) {
+    }
+
+    /**
+     * Connection ready to send the request, including the TLS handshake.
+     * It's fast for a connection reused from the keep-alive pool.
+     */
+    default void connectEnd(HttpRequest request, URL url, long nanos) {
+    }
+
+    /**
+     * @param bytes bytes written, after compression
+     */
+    default void requestBodyEnd(HttpRequest request, URL url, long bytes, long nanos) {
+    }
+
+    /**
+     * Status and headers received, nanos is the time to first byte since the request was sent.
+     */
+    default void responseHeadersEnd(HttpRequest request, URL url, int status, long nanos) {
+    }
+
+    default void redirect(HttpRequest request, URL from, URL to, int status) {
+    }
+
+    /**
+     * @param bytes bytes of the body after decompression
+     * @param nanos time of reading and decompressing the body
+     */
+    default void responseBodyEnd(HttpRequest request, long bytes, long nanos) {
+    }
+
+    /**
+     * The {@link BodyHandler} finished with the body, like decoding text after guessing its charset.
+     */
+    default void bodyHandled(HttpRequest request, long nanos) {
+    }
+
+    /**
+     * The response body has been loaded or downloaded.
+     */
+    default void callEnd(HttpRequest request, long nanos) {
+    }
+
+    default void callFailed(HttpRequest request, IOException e, long nanos) {
+    }
+}
@@ -0,0 +1,240 @@
+package io.github.edsuns.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>An {@link EventListener} keeping latency histograms and byte counters per host,
+ * share one recorder between requests and export it with {@link #snapshot()}.</p>
+ * <p>Recording is lock-free, it costs a map lookup and a few atomic increments per event.</p>
+ */
+public class EventRecorder implements EventListener {
+    private final Map<String, HostMetrics> hosts = new ConcurrentHashMap<>();
+
+    private HostMetrics host(String host) {
+        final String key = host.toLowerCase(Locale.ENGLISH);
+        final HostMetrics metrics = hosts.get(key);
+        return metrics != null ? metrics : hosts.computeIfAbsent(key, k -> new HostMetrics());
+    }
+
+    private HostMetrics host(URL url) {
+        return host(url.getHost());
+    }
+
+    @Override
+    public void callStart(HttpRequest request) {
+        host(request.getURL()).calls.increment();
+    }
+
+    @Override
+    public void dnsEnd(HttpRequest request, String host, InetAddress[] addresses, long nanos) {
+        host(host).dns.record(nanos);
+    }
+
+    @Override
+    public void connectEnd(HttpRequest request, URL url, long nanos) {
+        host(url).connect.record(nanos);
+    }
+
+    @Override
+    public void requestBodyEnd(HttpRequest request, URL url, long bytes, long nanos) {
+        host(url).bytesSent.add(bytes);
+    }
+
+    @Override
+    public void responseHeadersEnd(HttpRequest request, URL url, int status, long nanos) {
+        host(url).firstByte.record(nanos);
+    }
+
+    @Override
+    public void redirect(HttpRequest request, URL from, URL to, int status) {
+        host(from).redirects.increment();
+    }
+
+    @Override
+    public void responseBodyEnd(HttpRequest request, long bytes, long nanos) {
+        final HostMetrics metrics = host(request.getURL());
+        metrics.bytesReceived.add(bytes);
+        metrics.body.record(nanos);
+    }
+
+    @Override
+    public void callEnd(HttpRequest request, long nanos) {
+        host(request.getURL()).total.record(nanos);
+    }
+
+    @Override
+    public void callFailed(HttpRequest request, IOException e, long nanos) {
+        host(request.getURL()).failures.increment();
+    }
+
+    /**
+     * @return the metrics of every host recorded so far
+     */
+    public Snapshot snapshot() {
+        final Map<String, HostSnapshot> snapshots = new TreeMap<>();
+        for (Map.Entry<String, HostMetrics> entry : hosts.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return new Snapshot(Collections.unmodifiableMap(snapshots));
+    }
+
+    /**
+     * Forget all the metrics.
+     */
+    public void reset() {
+        hosts.clear();
+    }
+
+    private static final class HostMetrics {
+        final LongAdder calls = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder redirects = new LongAdder();
+        final LongAdder bytesSent = new LongAdder();
+        final LongAdder bytesReceived = new LongAdder();
+        final LatencyHistogram dns = new LatencyHistogram();
+        final LatencyHistogram connect = new LatencyHistogram();
+        final LatencyHistogram firstByte = new LatencyHistogram();
+        final LatencyHistogram body = new LatencyHistogram();
+        final LatencyHistogram total = new LatencyHistogram();
+
+        HostSnapshot snapshot() {
+            return new HostSnapshot(calls.sum(), failures.sum(), redirects.sum(), bytesSent.sum(), bytesReceived.sum(),
+                    dns.snapshot(), connect.snapshot(), firstByte.snapshot(), body.snapshot(), total.snapshot());
+        }
+    }
+
+    /**
+     * Metrics of all the hosts at a point in time.
+     */
+    public static final class Snapshot {
+        private final Map<String, HostSnapshot> hosts;
+
+        Snapshot(Map<String, HostSnapshot> hosts) {
+            this.hosts = hosts;
+        }
+
+        /**
+         * @return metrics by lowercase host name
+         */
+        public Map<String, HostSnapshot> getHosts() {
+            return hosts;
+        }
+
+        /**
+         * @param host host name
+         * @return null if nothing has been recorded for the host
+         */
+        public HostSnapshot getHost(String host) {
+            return hosts.get(host.toLowerCase(Locale.ENGLISH));
+        }
+
+        /**
+         * @return one line per host and phase
+         */
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder();
+            for (Map.Entry<String, HostSnapshot> entry : hosts.entrySet()) {
+                builder.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Metrics of a host, the latencies are in microseconds.
+     */
+    public static final class HostSnapshot {
+        private final long calls;
+        private final long failures;
+        private final long redirects;
+        private final long bytesSent;
+        private final long bytesReceived;
+        private final LatencyHistogram.Snapshot dns;
+        private final LatencyHistogram.Snapshot connect;
+        private final LatencyHistogram.Snapshot firstByte;
+        private final LatencyHistogram.Snapshot body;
+        private final LatencyHistogram.Snapshot total;
+
+        HostSnapshot(long calls, long failures, long redirects, long bytesSent, long bytesReceived,
+                     LatencyHistogram.Snapshot dns, LatencyHistogram.Snapshot connect,
+                     LatencyHistogram.Snapshot firstByte, LatencyHistogram.Snapshot body,
+                     LatencyHistogram.Snapshot total) {
+            this.calls = calls;
+            this.failures = failures;
+            this.redirects = redirects;
+            this.bytesSent = bytesSent;
+            this.bytesReceived = bytesReceived;
+            this.dns = dns;
+            this.connect = connect;
+            this.firstByte = firstByte;
+            this.body = body;
+            this.total = total;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getRedirects() {
+            return redirects;
+        }
+
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        /**
+         * @return bytes of the response bodies after decompression
+         */
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        public LatencyHistogram.Snapshot getDns() {
+            return dns;
+        }
+
+        public LatencyHistogram.Snapshot getConnect() {
+            return connect;
+        }
+
+        /**
+         * @return time to first byte of every hop
+         */
+        public LatencyHistogram.Snapshot getFirstByte() {
+            return firstByte;
+        }
+
+        public LatencyHistogram.Snapshot getBody() {
+            return body;
+        }
+
+        /**
+         * @return from the start of the calls to their bodies loaded, recorded for the host of the final urls
+         */
+        public LatencyHistogram.Snapshot getTotal() {
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            return "calls=" + calls + " failures=" + failures + " redirects=" + redirects
+                    + " sent=" + bytesSent + "B received=" + bytesReceived + "B"
+                    + " | dns " + dns + " | connect " + connect + " | firstByte " + firstByte
+                    + " | body " + body + " | total " + total;
+        }
+    }
+}
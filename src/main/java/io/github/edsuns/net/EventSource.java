@@ -0,0 +1,390 @@
+package io.github.edsuns.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * <p>A consumer of Server-Sent Events ({@code text/event-stream}) executed by a request.</p>
+ * <p>The stream is parsed as it arrives, in a buffer reused for every line, an event is delivered
+ * as soon as its terminating blank line is read. When the stream ends or fails, the request is executed again
+ * after the {@code retry} interval, with a {@code Last-Event-ID} header if the server gave an id.
+ * A status other than 200, or a content type other than {@code text/event-stream}, ends it with an exception,
+ * a 204 ends it normally.</p>
+ * <p>The read timeout of the request should be longer than the interval between the messages of the server,
+ * a timeout is handled like a dropped connection.</p>
+ * <pre>{@code
+ * try (EventSource source = new EventSource(new HttpRequest(url))) {
+ *     EventSource.Event event;
+ *     while ((event = source.next()) != null) {
+ *         ...
+ *     }
+ * }
+ * }</pre>
+ */
+public class EventSource implements Closeable {
+    static final String EVENT_STREAM = "text/event-stream";
+    static final String LAST_EVENT_ID = "Last-Event-ID";
+    private static final long DEFAULT_RETRY = 3000;
+    private static final int DEFAULT_BUFFER_SIZE = 1024 * 8;
+    private static final String[][] HEADERS = {
+            {"Accept", EVENT_STREAM},
+            {"Cache-Control", "no-cache"},
+            {HttpRequest.ACCEPT_ENCODING, "identity"},// no compression holding back the events
+    };
+
+    private final HttpRequest request;
+    private volatile long retry = DEFAULT_RETRY;// milliseconds, updated by the server
+    private int maxRetries = Integer.MAX_VALUE;
+    private volatile String lastEventId = "";
+    private volatile boolean closed;
+    private volatile InputStream stream;// of the current connection, null if not connected
+
+    // parser state, only used by the thread reading the events
+    private final byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private byte[] line = new byte[256];// reused, grown for long lines
+    private int lineLength;
+    private boolean skipLineFeed;// the last line ended with CR, a following LF belongs to it
+    private boolean firstLine;
+    private final StringBuilder data = new StringBuilder();
+    private String eventType;
+    private int failures;// connections failed in a row
+
+    /**
+     * @param request executed on every connection, its response headers and state are replaced each time
+     */
+    public EventSource(HttpRequest request) {
+        this.request = request;
+    }
+
+    /**
+     * @param millis wait before reconnecting, until the server sends its own {@code retry} field
+     * @return this
+     */
+    public EventSource retry(long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("retry must not be negative");
+        this.retry = millis;
+        return this;
+    }
+
+    /**
+     * @param maxRetries max reconnections failing in a row before giving up, unlimited by default
+     * @return this
+     */
+    public EventSource maxRetries(int maxRetries) {
+        if (maxRetries < 0)
+            throw new IllegalArgumentException("maxRetries must not be negative");
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    /**
+     * @return wait before reconnecting in milliseconds
+     */
+    public long getRetry() {
+        return retry;
+    }
+
+    /**
+     * @return id of the last event, sent as {@code Last-Event-ID} when reconnecting, empty if none
+     */
+    public String getLastEventId() {
+        return lastEventId;
+    }
+
+    /**
+     * @param lastEventId the id to resume from, like one saved by a previous run
+     * @return this
+     */
+    public EventSource lastEventId(String lastEventId) {
+        this.lastEventId = lastEventId == null ? "" : lastEventId;
+        return this;
+    }
+
+    public HttpRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * Wait for the next event, connecting and reconnecting as needed.
+     *
+     * @return the event, null if closed or the server answered 204
+     * @throws IOException if the response isn't an event stream, if the reconnections failed,
+     *                     or if interrupted while waiting to reconnect
+     */
+    public Event next() throws IOException {
+        while (!closed) {
+            if (stream == null && !connect())
+                return null;
+            try {
+                final Event event = readEvent();
+                if (event != null)
+                    return event;
+                // end of the stream, an incomplete event is dropped
+            } catch (IOException e) {
+                if (closed)
+                    return null;
+                if (failures >= maxRetries)
+                    throw e;
+                failures++;
+            }
+            disconnect();
+            if (!closed)
+                sleep(retry);
+        }
+        return null;
+    }
+
+    /**
+     * Deliver the events to the handler on the calling thread, until closed or ended.
+     *
+     * @param handler called with each event as soon as it arrives
+     * @throws IOException like {@link #next()}
+     */
+    public void forEach(Consumer<? super Event> handler) throws IOException {
+        Event event;
+        while ((event = next()) != null) {
+            handler.accept(event);
+        }
+    }
+
+    /**
+     * Stop reading, a thread waiting in {@link #next()} returns null.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (stream != null) {
+            final HttpURLConnection conn = request.getConnection();
+            if (conn != null)
+                conn.disconnect();// unblocks the reading thread
+        }
+    }
+
+    // false if there is nothing to read any more
+    private boolean connect() throws IOException {
+        while (true) {
+            try {
+                final String id = lastEventId;
+                request.exec(HttpRequest.Method.GET, null, id.isEmpty() ? HEADERS
+                        : HttpRequest.concat(HEADERS, new String[][]{{LAST_EVENT_ID, id}}));
+                break;
+            } catch (IOException e) {
+                if (closed)
+                    return false;
+                if (failures >= maxRetries)
+                    throw e;
+                failures++;
+            }
+            sleep(retry);
+            if (closed)
+                return false;
+        }
+        final int status = request.getStatus();
+        if (status == HttpURLConnection.HTTP_NO_CONTENT) {
+            request.discard();
+            return false;
+        }
+        if (status != HttpURLConnection.HTTP_OK) {
+            request.discard();
+            throw new IOException("Unexpected status of event stream: " + status);
+        }
+        final String mediaType = request.getHeaders().getMediaType();
+        if (!EVENT_STREAM.equals(mediaType)) {
+            request.discard();
+            throw new IOException("Unexpected content type of event stream: " + mediaType);
+        }
+        failures = 0;
+        position = limit = 0;
+        skipLineFeed = false;
+        firstLine = true;
+        data.setLength(0);
+        eventType = null;
+        stream = request.getInputStream();
+        if (closed) {
+            disconnect();
+            return false;
+        }
+        return true;
+    }
+
+    private void disconnect() {
+        final InputStream in = stream;
+        stream = null;
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+            final HttpURLConnection conn = request.getConnection();
+            if (conn != null)
+                conn.disconnect();// the rest of an endless stream isn't worth draining
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to reconnect");
+        }
+    }
+
+    // the next complete event of the stream, null at the end of the stream
+    private Event readEvent() throws IOException {
+        while (readLine()) {
+            if (lineLength == 0) {
+                if (data.length() == 0) {
+                    eventType = null;
+                    continue;
+                }
+                data.setLength(data.length() - 1);// the last line feed
+                final Event event = new Event(lastEventId, eventType == null ? "message" : eventType,
+                        data.toString());
+                data.setLength(0);
+                eventType = null;
+                return event;
+            }
+            processField();
+        }
+        return null;
+    }
+
+    private void processField() {
+        if (line[0] == ':')
+            return;// comment, like a keep-alive
+        int colon = 0;
+        while (colon < lineLength && line[colon] != ':') {
+            colon++;
+        }
+        final String field = new String(line, 0, colon, StandardCharsets.UTF_8);
+        int valueStart = colon + 1;
+        if (valueStart < lineLength && line[valueStart] == ' ')
+            valueStart++;
+        final int valueLength = Math.max(0, lineLength - valueStart);
+        switch (field) {
+            case "data":
+                data.append(new String(line, valueStart, valueLength, StandardCharsets.UTF_8)).append('\n');
+                break;
+            case "event":
+                eventType = new String(line, valueStart, valueLength, StandardCharsets.UTF_8);
+                break;
+            case "id":
+                final String id = new String(line, valueStart, valueLength, StandardCharsets.UTF_8);
+                if (id.indexOf('\0') < 0)
+                    lastEventId = id;
+                break;
+            case "retry":
+                if (valueLength == 0 || valueLength > 18)
+                    return;
+                long millis = 0;
+                for (int i = valueStart; i < lineLength; i++) {
+                    if (line[i] < '0' || line[i] > '9')
+                        return;// ignored if not only digits
+                    millis = millis * 10 + (line[i] - '0');
+                }
+                retry = millis;
+                break;
+            default:
+                break;// unknown fields are ignored
+        }
+    }
+
+    // read a line terminated by CR, LF or CRLF into the line buffer, false at the end of the stream
+    private boolean readLine() throws IOException {
+        lineLength = 0;
+        while (true) {
+            if (position == limit) {
+                final int count = stream.read(buffer);// returns what has arrived, doesn't wait for a full buffer
+                if (count == -1)
+                    return false;
+                position = 0;
+                limit = count;
+            }
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (buffer[position] == '\n') {
+                    position++;
+                    continue;
+                }
+            }
+            int end = position;
+            while (end < limit && buffer[end] != '\n' && buffer[end] != '\r') {
+                end++;
+            }
+            append(position, end - position);
+            if (end == limit) {
+                position = limit;
+                continue;
+            }
+            skipLineFeed = buffer[end] == '\r';
+            position = end + 1;
+            if (firstLine) {
+                firstLine = false;
+                if (lineLength >= 3 && (line[0] & 0xFF) == 0xEF && (line[1] & 0xFF) == 0xBB
+                        && (line[2] & 0xFF) == 0xBF) {
+                    System.arraycopy(line, 3, line, 0, lineLength - 3);// byte order mark
+                    lineLength -= 3;
+                }
+            }
+            return true;
+        }
+    }
+
+    private void append(int offset, int length) {
+        if (lineLength + length > line.length)
+            line = Arrays.copyOf(line, Math.max(line.length << 1, lineLength + length));
+        System.arraycopy(buffer, offset, line, lineLength, length);
+        lineLength += length;
+    }
+
+    /**
+     * A message of the event stream.
+     */
+    public static final class Event {
+        private final String id;
+        private final String type;
+        private final String data;
+
+        Event(String id, String type, String data) {
+            this.id = id;
+            this.type = type;
+            this.data = data;
+        }
+
+        /**
+         * @return the last event id at the time of this event, empty if none
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return the event field, {@code message} by default
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * @return the data lines joined by line feeds
+         */
+        public String getData() {
+            return data;
+        }
+
+        @Override
+        public String toString() {
+            return "Event{id='" + id + "', type='" + type + "', data='" + data + "'}";
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package io.github.edsuns.net;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@code application/x-www-form-urlencoded} encoding in UTF-8 straight to bytes,
+ * the same output as {@link java.net.URLEncoder} without its writer and charset lookups.
+ */
+final class FormEncoder {
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    private static final boolean[] UNRESERVED = new boolean[128];
+
+    static {
+        for (int c = 'a'; c <= 'z'; c++) {
+            UNRESERVED[c] = true;
+            UNRESERVED[c - 'a' + 'A'] = true;
+        }
+        for (int c = '0'; c <= '9'; c++) {
+            UNRESERVED[c] = true;
+        }
+        UNRESERVED['.'] = UNRESERVED['-'] = UNRESERVED['*'] = UNRESERVED['_'] = true;
+    }
+
+    private byte[] buf;
+    private int count;
+
+    private FormEncoder(int capacity) {
+        buf = new byte[capacity];
+    }
+
+    /**
+     * @param fields name and value pairs
+     * @return like {@code a=1&b=x+y}
+     */
+    static byte[] encode(List<String[]> fields) {
+        int estimate = 0;
+        for (String[] field : fields) {
+            estimate += field[0].length() + field[1].length() + 2;
+        }
+        final FormEncoder encoder = new FormEncoder(Math.max(16, estimate + (estimate >> 2)));
+        for (int i = 0; i < fields.size(); i++) {
+            if (i > 0)
+                encoder.write('&');
+            encoder.append(fields.get(i)[0]);
+            encoder.write('=');
+            encoder.append(fields.get(i)[1]);
+        }
+        return encoder.count == encoder.buf.length ? encoder.buf : Arrays.copyOf(encoder.buf, encoder.count);
+    }
+
+    private void append(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                if (UNRESERVED[c])
+                    write(c);
+                else if (c == ' ')
+                    write('+');
+                else
+                    escape(c);
+            } else if (c < 0x800) {
+                escape(0xC0 | (c >> 6));
+                escape(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                escape(0xF0 | (codePoint >> 18));
+                escape(0x80 | ((codePoint >> 12) & 0x3F));
+                escape(0x80 | ((codePoint >> 6) & 0x3F));
+                escape(0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                escape('?');// unpaired, replaced like the UTF-8 encoder does
+            } else {
+                escape(0xE0 | (c >> 12));
+                escape(0x80 | ((c >> 6) & 0x3F));
+                escape(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void escape(int b) {
+        write('%');
+        write(HEX[(b >> 4) & 0xF]);
+        write(HEX[b & 0xF]);
+    }
+
+    private void write(int b) {
+        if (count == buf.length)
+            buf = Arrays.copyOf(buf, buf.length << 1);
+        buf[count++] = (byte) b;
+    }
+}
@@ -0,0 +1,269 @@
+package io.github.edsuns.net;
+
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * <p>The response headers indexed by case-insensitive name, built once per response.</p>
+ * <p>Lookups hash the name with ASCII case folding, they don't allocate.
+ * Names with different cases are merged, common names are replaced by shared constants.
+ * The typed accessors are parsed on first use and memoized.</p>
+ *
+ * @see HttpRequest#getHeaders()
+ */
+public final class Headers {
+    private static final String[] COMMON_NAMES = {
+            "Accept-Ranges", "Age", "Cache-Control", "Connection", "Content-Disposition", "Content-Encoding",
+            "Content-Language", "Content-Length", "Content-Range", "Content-Type", "Date", "ETag", "Expires",
+            "Keep-Alive", "Last-Modified", "Location", "Retry-After", "Server", "Set-Cookie",
+            "Strict-Transport-Security", "Transfer-Encoding", "Vary", "Via", "WWW-Authenticate",
+            "X-Content-Type-Options", "X-Frame-Options",
+    };
+    private static final Headers COMMON = new Headers(COMMON_NAMES, null);
+    private static final Headers EMPTY = new Headers(new String[0], null);
+
+    private final String[] names;
+    private final List<String>[] values;
+    private final int[] table;// index + 1 of the names by hash, 0 if empty
+
+    // memoized, computed again if threads race, the values are the same on every thread
+    private volatile long contentLength = -2;
+    private volatile ContentType contentType;
+
+    private Headers(String[] names, List<String>[] values) {
+        this.names = names;
+        this.values = values == null ? newValues(names.length) : values;
+        this.table = new int[tableSize(names.length)];
+        for (int i = 0; i < names.length; i++) {
+            table[slot(names[i])] = i + 1;
+        }
+    }
+
+    /**
+     * @param fields like {@link java.net.HttpURLConnection#getHeaderFields()}, the null key of the status line is skipped
+     * @return the indexed headers
+     */
+    public static Headers of(Map<String, List<String>> fields) {
+        if (fields == null || fields.isEmpty())
+            return EMPTY;
+        final String[] names = new String[fields.size()];
+        final List<String>[] values = newValues(fields.size());
+        final int[] table = new int[tableSize(fields.size())];
+        int size = 0;
+        for (Map.Entry<String, List<String>> field : fields.entrySet()) {
+            final String name = field.getKey();
+            if (name == null || field.getValue() == null)
+                continue;
+            final int index = find(names, table, name);
+            if (index >= 0) {
+                // the same name with another case
+                final List<String> merged = new ArrayList<>(values[index]);
+                merged.addAll(field.getValue());
+                values[index] = Collections.unmodifiableList(merged);
+                continue;
+            }
+            final String common = COMMON.canonical(name);
+            names[size] = common != null ? common : name;
+            values[size] = field.getValue();
+            table[freeSlot(table, name)] = ++size;
+        }
+        return new Headers(Arrays.copyOf(names, size), Arrays.copyOf(values, size));
+    }
+
+    @SuppressWarnings("unchecked")// an array of a generic type can't be created directly
+    private static List<String>[] newValues(int length) {
+        return (List<String>[]) new List<?>[length];
+    }
+
+    private static int tableSize(int count) {
+        int size = 4;
+        while (size < count * 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    private static int hash(String name) {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 'A' && c <= 'Z')
+                c += 'a' - 'A';
+            h = 31 * h + c;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    // linear probing
+    private static int find(String[] names, int[] table, String name) {
+        final int mask = table.length - 1;
+        for (int i = hash(name) & mask; table[i] != 0; i = (i + 1) & mask) {
+            if (names[table[i] - 1].equalsIgnoreCase(name))
+                return table[i] - 1;
+        }
+        return -1;
+    }
+
+    private static int freeSlot(int[] table, String name) {
+        final int mask = table.length - 1;
+        int i = hash(name) & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private int slot(String name) {
+        return freeSlot(table, name);
+    }
+
+    private String canonical(String name) {
+        final int index = find(names, table, name);
+        return index < 0 ? null : names[index];
+    }
+
+    /**
+     * @param name case-insensitive, nullable
+     * @return values of the header, null if absent
+     */
+    public List<String> get(String name) {
+        if (name == null)
+            return null;
+        final int index = find(names, table, name);
+        return index < 0 ? null : values[index];
+    }
+
+    /**
+     * @param name case-insensitive, nullable
+     * @return first value of the header, null if absent
+     */
+    public String getFirst(String name) {
+        final List<String> list = get(name);
+        return list == null || list.isEmpty() ? null : list.get(0);
+    }
+
+    /**
+     * @param name  case-insensitive
+     * @param value case-insensitive
+     * @return true if one of the values of the header is the value
+     */
+    public boolean contains(String name, String value) {
+        final List<String> list = get(name);
+        if (list != null) {
+            for (String candidate : list) {
+                if (value.equalsIgnoreCase(candidate))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return header names, in the order of the response
+     */
+    public List<String> names() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @return Content-Length, -1 if absent or invalid
+     */
+    public long getContentLength() {
+        if (contentLength == -2) {
+            long length = -1;
+            final String value = getFirst(HttpRequest.CONTENT_LENGTH);
+            if (value != null) {
+                try {
+                    length = Long.parseLong(value.trim());
+                } catch (NumberFormatException ignored) {
+                }
+            }
+            contentLength = length < 0 ? -1 : length;
+        }
+        return contentLength;
+    }
+
+    /**
+     * @return lowercase media type of Content-Type like {@code text/html}, null if absent
+     */
+    public String getMediaType() {
+        return contentType().mediaType;
+    }
+
+    /**
+     * @param name case-insensitive parameter name like {@code charset}
+     * @return the parameter of Content-Type without quotes, null if absent
+     */
+    public String getContentTypeParameter(String name) {
+        return contentType().parameters.get(name.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * @return charset of Content-Type, null if absent or unsupported
+     */
+    public Charset getCharset() {
+        final String charset = getContentTypeParameter("charset");
+        if (charset == null)
+            return null;
+        try {
+            return Charset.forName(charset);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private ContentType contentType() {
+        ContentType parsed = contentType;
+        if (parsed == null)
+            contentType = parsed = ContentType.parse(getFirst(HttpRequest.CONTENT_TYPE));
+        return parsed;
+    }
+
+    private static final class ContentType {
+        final String mediaType;
+        final Map<String, String> parameters;
+
+        private ContentType(String mediaType, Map<String, String> parameters) {
+            this.mediaType = mediaType;
+            this.parameters = parameters;
+        }
+
+        static ContentType parse(String contentType) {
+            if (contentType == null)
+                return new ContentType(null, Collections.emptyMap());
+            final String[] parts = contentType.split(";");
+            final Map<String, String> parameters = new HashMap<>(4);
+            for (int i = 1; i < parts.length; i++) {
+                final int eq = parts[i].indexOf('=');
+                if (eq < 0)
+                    continue;
+                String value = parts[i].substring(eq + 1).trim();
+                if (value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"')
+                    value = value.substring(1, value.length() - 1);
+                parameters.put(parts[i].substring(0, eq).trim().toLowerCase(Locale.ENGLISH), value);
+            }
+            return new ContentType(parts[0].trim().toLowerCase(Locale.ENGLISH), parameters);
+        }
+    }
+
+    /**
+     * @return values of Set-Cookie, empty if none
+     */
+    public List<String> getSetCookies() {
+        final List<String> list = get(HttpRequest.SET_COOKIE);
+        return list == null ? Collections.emptyList() : list;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            builder.append(names[i]).append(": ").append(values[i]).append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,419 @@
+package io.github.edsuns.net;
+
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Admission control of requests by host: a token bucket limits the rate,
+ * and the requests executed at the same time are limited too.</p>
+ * <p>A response with status 429 or 503 and a {@code Retry-After} header pauses the queue of its host
+ * until the time given by the server. The response itself is still returned.
+ * Queued requests don't hold threads, a timer wakes the scheduler when a host can go on.
+ * The state of a host is dropped once it's idle and its bucket is full again.</p>
+ * <pre>{@code
+ * HostScheduler scheduler = new HostScheduler().rate(10, 20).maxConcurrent(4)
+ *         .rate("api.partner.com", 2, 1);
+ * scheduler.submit(new HttpRequest(url)).thenAccept(request -> ...);
+ * }</pre>
+ */
+public class HostScheduler {
+    private static final double DEFAULT_RATE = 10;// permits per second
+    private static final int DEFAULT_BURST = 10;
+    private static final int DEFAULT_MAX_CONCURRENT = 6;
+    private static final int MIN_SWEEP = 64;// hosts kept before idle ones are looked for
+    static final String RETRY_AFTER = "Retry-After";
+    private static volatile ScheduledExecutorService defaultTimer;
+
+    private double rate = DEFAULT_RATE;
+    private int burst = DEFAULT_BURST;
+    private int maxConcurrent = DEFAULT_MAX_CONCURRENT;
+    private final Map<String, double[]> hostRates = new ConcurrentHashMap<>();// {rate, burst}
+    private Executor executor;
+    private ScheduledExecutorService timer;
+    private Ticker ticker = System::nanoTime;
+
+    private final Map<String, Host> hosts = new HashMap<>();// guarded by this
+    private final Set<Host> waiting = new LinkedHashSet<>();// hosts with queued requests, guarded by this
+    private long wakeAt = Long.MAX_VALUE;// ticker time of the timer scheduled, guarded by this
+    private int sweepAt = MIN_SWEEP;// size of hosts evicting the idle ones, guarded by this
+
+    /**
+     * A source of nanoTime, replaced by a fake clock in tests.
+     */
+    @FunctionalInterface
+    public interface Ticker {
+        long nanoTime();
+    }
+
+    /**
+     * @param permitsPerSecond default rate of every host
+     * @param burst            requests allowed at once after a quiet period
+     * @return this
+     */
+    public HostScheduler rate(double permitsPerSecond, int burst) {
+        checkRate(permitsPerSecond, burst);
+        this.rate = permitsPerSecond;
+        this.burst = burst;
+        return this;
+    }
+
+    /**
+     * Override the rate of a host, before its first request.
+     *
+     * @param host             host name
+     * @param permitsPerSecond rate of the host
+     * @param burst            requests allowed at once after a quiet period
+     * @return this
+     */
+    public HostScheduler rate(String host, double permitsPerSecond, int burst) {
+        checkRate(permitsPerSecond, burst);
+        hostRates.put(host.toLowerCase(Locale.ENGLISH), new double[]{permitsPerSecond, burst});
+        return this;
+    }
+
+    private static void checkRate(double permitsPerSecond, int burst) {
+        if (!(permitsPerSecond > 0))
+            throw new IllegalArgumentException("permitsPerSecond must be positive");
+        if (burst < 1)
+            throw new IllegalArgumentException("burst must be positive");
+    }
+
+    /**
+     * @param maxConcurrent max requests of a host executed at the same time
+     * @return this
+     */
+    public HostScheduler maxConcurrent(int maxConcurrent) {
+        if (maxConcurrent < 1)
+            throw new IllegalArgumentException("maxConcurrent must be positive");
+        this.maxConcurrent = maxConcurrent;
+        return this;
+    }
+
+    /**
+     * @param executor nullable, the default executor of {@link HttpRequest.Async} if null
+     * @return this
+     */
+    public HostScheduler executor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * @param timer nullable, wakes the scheduler when a host can go on, a shared daemon timer if null
+     * @return this
+     */
+    public HostScheduler timer(ScheduledExecutorService timer) {
+        this.timer = timer;
+        return this;
+    }
+
+    public HostScheduler ticker(Ticker ticker) {
+        this.ticker = Objects.requireNonNull(ticker, "ticker must not be null");
+        return this;
+    }
+
+    public CompletableFuture<HttpRequest> submit(HttpRequest request) {
+        return submit(request, HttpRequest.Method.GET, null);
+    }
+
+    /**
+     * Queue the request, it's executed and its body is loaded once its host admits it.
+     * Cancelling the future removes the request from the queue.
+     *
+     * @param request not executed yet
+     * @param method  request method
+     * @param data    nullable
+     * @return completes with the request, or exceptionally if it failed
+     */
+    public CompletableFuture<HttpRequest> submit(HttpRequest request, HttpRequest.Method method, HttpRequest.Data data) {
+        final CompletableFuture<HttpRequest> future = new CompletableFuture<>();
+        final String host;
+        try {
+            host = new URL(request.getOriginUrl()).getHost().toLowerCase(Locale.ENGLISH);
+        } catch (MalformedURLException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        synchronized (this) {
+            final Host state = host(host);
+            state.queue.add(new Task(state, request, method, data, future));
+            waiting.add(state);
+        }
+        dispatch();
+        return future;
+    }
+
+    // guarded by this
+    private Host host(String name) {
+        Host host = hosts.get(name);
+        if (host == null) {
+            final double[] limit = hostRates.get(name);
+            host = limit != null ? new Host(name, limit[0], (int) limit[1]) : new Host(name, rate, burst);
+            hosts.put(name, host);
+        }
+        return host;
+    }
+
+    /**
+     * @param host host name
+     * @return requests of the host waiting for admission
+     */
+    public synchronized int getQueued(String host) {
+        final Host state = hosts.get(host.toLowerCase(Locale.ENGLISH));
+        return state == null ? 0 : state.queue.size();
+    }
+
+    /**
+     * @param host host name
+     * @return requests of the host being executed
+     */
+    public synchronized int getInFlight(String host) {
+        final Host state = hosts.get(host.toLowerCase(Locale.ENGLISH));
+        return state == null ? 0 : state.inFlight;
+    }
+
+    /**
+     * @param host host name
+     * @return nanoseconds until the host is resumed, 0 if it isn't paused
+     */
+    public synchronized long getPause(String host) {
+        final Host state = hosts.get(host.toLowerCase(Locale.ENGLISH));
+        final long now = ticker.nanoTime();
+        return state == null || now >= state.pausedUntil ? 0 : state.pausedUntil - now;
+    }
+
+    /**
+     * Pause a host, like a {@code Retry-After} received from it.
+     *
+     * @param host  host name
+     * @param nanos duration of the pause
+     */
+    public void pause(String host, long nanos) {
+        synchronized (this) {
+            final Host state = host(host.toLowerCase(Locale.ENGLISH));
+            state.pausedUntil = Math.max(state.pausedUntil, ticker.nanoTime() + nanos);
+        }
+        dispatch();
+    }
+
+    /**
+     * Admit the requests allowed at the current time of the ticker,
+     * then schedule the timer for the next host able to go on.
+     * It's called on submissions, completions and by the timer, tests with a fake ticker call it directly.
+     */
+    void dispatch() {
+        final Executor executor = this.executor != null ? this.executor : HttpRequest.Async.getExecutor();
+        boolean rejected = true;
+        while (rejected) {
+            // the slots of rejected tasks are given to the next ones by this loop, not by recursion
+            rejected = false;
+            final List<Task> starting = admit();
+            for (Task task : starting) {
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    task.future.completeExceptionally(e);
+                    synchronized (this) {
+                        release(task.host);
+                    }
+                    rejected = true;
+                }
+            }
+        }
+    }
+
+    private synchronized List<Task> admit() {
+        final List<Task> starting = new ArrayList<>();
+        final long now = ticker.nanoTime();
+        long wait = Long.MAX_VALUE;
+        for (Iterator<Host> it = waiting.iterator(); it.hasNext(); ) {
+            final Host host = it.next();
+            while (!host.queue.isEmpty()) {
+                if (host.queue.peek().future.isDone()) {
+                    host.queue.poll();// cancelled
+                    continue;
+                }
+                if (host.inFlight >= maxConcurrent)
+                    break;// woken by a completion
+                if (now < host.pausedUntil) {
+                    wait = Math.min(wait, host.pausedUntil - now);
+                    break;
+                }
+                final long tokenWait = host.tryAcquire(now);
+                if (tokenWait > 0) {
+                    wait = Math.min(wait, tokenWait);
+                    break;
+                }
+                host.inFlight++;
+                starting.add(host.queue.poll());
+            }
+            if (host.queue.isEmpty())
+                it.remove();
+        }
+        if (wait != Long.MAX_VALUE && now + wait < wakeAt) {
+            wakeAt = now + wait;
+            getTimer().schedule(this::wake, wait, TimeUnit.NANOSECONDS);
+        }
+        if (hosts.size() >= sweepAt) {
+            // a crawler meets many hosts, the ones a new state would replace exactly are dropped
+            hosts.values().removeIf(host -> host.isIdle(now));
+            sweepAt = Math.max(MIN_SWEEP, hosts.size() * 2);
+        }
+        return starting;
+    }
+
+    // guarded by this
+    private void release(Host host) {
+        host.inFlight--;
+        if (!host.queue.isEmpty())
+            waiting.add(host);
+    }
+
+    /**
+     * @return hosts with a state kept, idle ones included until they are swept
+     */
+    synchronized int getHostCount() {
+        return hosts.size();
+    }
+
+    private void wake() {
+        synchronized (this) {
+            wakeAt = Long.MAX_VALUE;
+        }
+        dispatch();
+    }
+
+    private ScheduledExecutorService getTimer() {
+        if (timer != null)
+            return timer;
+        if (defaultTimer == null) {
+            synchronized (HostScheduler.class) {
+                if (defaultTimer == null) {
+                    final AtomicInteger count = new AtomicInteger();
+                    defaultTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "HostScheduler-timer-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return defaultTimer;
+    }
+
+    // release the slot, pause the host if the server asks to
+    private void finish(Host host, HttpRequest response) {
+        synchronized (this) {
+            if (response != null) {
+                final int status = response.getStatus();
+                if (status == 429 || status == HttpURLConnection.HTTP_UNAVAILABLE) {
+                    final List<String> retryAfter = response.getHeader(RETRY_AFTER);
+                    final long delay = retryAfter == null || retryAfter.isEmpty() ? -1
+                            : parseRetryAfter(retryAfter.get(0), System.currentTimeMillis());
+                    if (delay >= 0)
+                        host.pausedUntil = Math.max(host.pausedUntil,
+                                ticker.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay));
+                }
+            }
+            release(host);
+        }
+        dispatch();
+    }
+
+    /**
+     * Parse Retry-After, either seconds or an HTTP date.
+     *
+     * @param value     nullable
+     * @param nowMillis current time, for dates
+     * @return delay in milliseconds, -1 if absent or invalid
+     */
+    static long parseRetryAfter(String value, long nowMillis) {
+        if (value == null)
+            return -1;
+        value = value.trim();
+        try {
+            final long seconds = Long.parseLong(value);
+            return seconds < 0 ? -1 : TimeUnit.SECONDS.toMillis(seconds);
+        } catch (NumberFormatException ignored) {
+        }
+        final long date = ResponseCache.parseDate(value);
+        return date < 0 ? -1 : Math.max(0, date - nowMillis);
+    }
+
+    private final class Task implements Runnable {
+        final Host host;
+        final HttpRequest request;
+        final HttpRequest.Method method;
+        final HttpRequest.Data data;
+        final CompletableFuture<HttpRequest> future;
+
+        Task(Host host, HttpRequest request, HttpRequest.Method method, HttpRequest.Data data,
+             CompletableFuture<HttpRequest> future) {
+            this.host = host;
+            this.request = request;
+            this.method = method;
+            this.data = data;
+            this.future = future;
+        }
+
+        @Override
+        public void run() {
+            HttpRequest response = null;
+            try {
+                response = request.exec(method, data).loadResponse();
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                finish(host, response);
+            }
+            if (response != null)
+                future.complete(response);
+        }
+    }
+
+    // the state of a host, guarded by the scheduler
+    private static final class Host {
+        final String name;
+        final double permitsPerNano;
+        final double capacity;
+        final ArrayDeque<Task> queue = new ArrayDeque<>();
+        double tokens;
+        long refilledAt = Long.MIN_VALUE;
+        long pausedUntil = Long.MIN_VALUE;
+        int inFlight;
+
+        Host(String name, double permitsPerSecond, int burst) {
+            this.name = name;
+            this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = burst;
+            this.tokens = burst;
+        }
+
+        // nothing queued or running, not paused and the bucket full again, like a new state
+        boolean isIdle(long now) {
+            return queue.isEmpty() && inFlight == 0 && now >= pausedUntil
+                    && (refilledAt == Long.MIN_VALUE || tokens + (now - refilledAt) * permitsPerNano >= capacity);
+        }
+
+        // take a token, or return the nanoseconds until one is available
+        long tryAcquire(long now) {
+            if (refilledAt != Long.MIN_VALUE)
+                tokens = Math.min(capacity, tokens + (now - refilledAt) * permitsPerNano);
+            refilledAt = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - tokens) / permitsPerNano));
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
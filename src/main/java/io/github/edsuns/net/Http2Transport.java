@@ -0,0 +1,30 @@
+package io.github.edsuns.net;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+
+/**
+ * <p>An HTTP/2 transport on top of {@code java.net.http.HttpClient}, requests to the same origin share
+ * one multiplexed connection.</p>
+ * <p>This is the Java 8 version of the multi-release jar, it has no HTTP/2 support and falls back to
+ * {@link Transport#DEFAULT}. The Java 11 version in {@code META-INF/versions/11} replaces it at runtime.</p>
+ */
+public class Http2Transport implements Transport {
+
+    public Http2Transport() {
+    }
+
+    /**
+     * @return true if requests go through HTTP/2, false if they fall back to {@link Transport#DEFAULT}
+     */
+    public static boolean isSupported() {
+        return false;
+    }
+
+    @Override
+    public HttpURLConnection open(URL url, Proxy proxy) throws IOException {
+        return DEFAULT.open(url, proxy);
+    }
+}
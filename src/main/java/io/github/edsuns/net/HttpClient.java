@@ -0,0 +1,389 @@
+package io.github.edsuns.net;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>An immutable template of {@link HttpRequest}s, built once and shared by any number of threads.</p>
+ * <p>The request headers are merged with the default ones when the client is built,
+ * the requests it creates reuse the merged headers instead of concatenating them on every execution.
+ * Every request is a new {@link HttpRequest} and must not be shared, but it's cheap to create.</p>
+ * <pre>{@code
+ * HttpClient client = HttpClient.builder().baseUrl("https://api.example.com/v1/")
+ *         .header("Authorization", token).timeout(5000).build();
+ * HttpRequest request = client.get("users/1");
+ * }</pre>
+ */
+public final class HttpClient {
+    private final URL baseUrl;
+    private final String[][] headers;// merged with the defaults, never modified
+    private final Proxy proxy;
+    private final int timeout;
+    private final boolean followRedirects;
+    private final boolean keepAlive;
+    private final Transport transport;
+    private final CookieJar cookieJar;
+    private final ResponseCache cache;
+    private final Executor executor;
+    private final EventListener eventListener;
+    private final RetryPolicy retryPolicy;
+    private final RequestCoalescer coalescer;
+
+    private HttpClient(Builder builder) {
+        baseUrl = builder.baseUrl;
+        headers = mergeHeaders(builder.headers);
+        proxy = builder.proxy;
+        timeout = builder.timeout;
+        followRedirects = builder.followRedirects;
+        keepAlive = builder.keepAlive;
+        transport = builder.transport;
+        cookieJar = builder.cookieJar;
+        cache = builder.cache;
+        executor = builder.executor;
+        eventListener = builder.eventListener;
+        retryPolicy = builder.retryPolicy;
+        coalescer = builder.coalescer;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a builder with the settings of this client
+     */
+    public Builder newBuilder() {
+        return new Builder(this);
+    }
+
+    // the headers of the builder replace the default ones with the same name
+    private static String[][] mergeHeaders(List<String[]> headers) {
+        final Map<String, String[]> merged = new LinkedHashMap<>();
+        for (String[] header : HttpRequest.DEFAULT_REQUEST_HEADERS) {
+            merged.put(header[0].toLowerCase(Locale.ENGLISH), header);
+        }
+        for (String[] header : headers) {
+            merged.put(header[0].toLowerCase(Locale.ENGLISH), header);
+        }
+        return merged.values().toArray(new String[0][]);
+    }
+
+    /**
+     * Create a request configured by this client, it isn't executed yet.
+     *
+     * @param url absolute url, or relative to the base url
+     * @return a new request
+     * @throws MalformedURLException if the url is invalid
+     */
+    public HttpRequest request(String url) throws MalformedURLException {
+        final String resolved = baseUrl == null ? url : new URL(baseUrl, url).toString();
+        final HttpRequest request = new HttpRequest(resolved, proxy)
+                .defaultHeaders(headers)
+                .timeout(timeout)
+                .followRedirects(followRedirects)
+                .keepAlive(keepAlive)
+                .transport(transport)
+                .cookieJar(cookieJar)
+                .cache(cache)
+                .eventListener(eventListener)
+                .retryPolicy(retryPolicy)
+                .coalescer(coalescer);
+        return executor == null ? request : request.executor(executor);
+    }
+
+    public HttpRequest get(String url) throws IOException {
+        return exec(HttpRequest.Method.GET, url, null);
+    }
+
+    public HttpRequest get(String url, HttpRequest.Data params) throws IOException {
+        return exec(HttpRequest.Method.GET, url, params);
+    }
+
+    /**
+     * Execute a request, hedged if the retry policy of the client hedges and the method is idempotent.
+     * The hedged requests bypass the coalescer, a duplicate joining the call it duplicates would never race it.
+     *
+     * @param method request method
+     * @param url    absolute url, or relative to the base url
+     * @param data   nullable
+     * @return the executed request
+     * @throws IOException if the request fails
+     */
+    public HttpRequest exec(HttpRequest.Method method, String url, HttpRequest.Data data) throws IOException {
+        if (retryPolicy != null && retryPolicy.isHedging() && method.isIdempotent()) {
+            request(url);// fail fast on a malformed url
+            return retryPolicy.hedge(() -> request(url).coalescer(null), method, data,
+                    executor != null ? executor : HttpRequest.Async.getExecutor());
+        }
+        return request(url).exec(method, data);
+    }
+
+    public CompletableFuture<HttpRequest> execAsync(HttpRequest.Method method, String url, HttpRequest.Data data) {
+        final HttpRequest request;
+        try {
+            request = request(url);
+        } catch (MalformedURLException e) {
+            final CompletableFuture<HttpRequest> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return request.execAsync(method, data);
+    }
+
+    /**
+     * @return nullable
+     */
+    public URL getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * @return the request headers, including the default ones
+     */
+    public List<String[]> getHeaders() {
+        final List<String[]> copy = new ArrayList<>(headers.length);
+        for (String[] header : headers) {
+            copy.add(header.clone());
+        }
+        return copy;
+    }
+
+    /**
+     * @return nullable
+     */
+    public Proxy getProxy() {
+        return proxy;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    public boolean isFollowRedirects() {
+        return followRedirects;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * @return nullable
+     */
+    public CookieJar getCookieJar() {
+        return cookieJar;
+    }
+
+    /**
+     * @return nullable
+     */
+    public ResponseCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return nullable
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return nullable
+     */
+    public EventListener getEventListener() {
+        return eventListener;
+    }
+
+    /**
+     * @return nullable
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @return nullable
+     */
+    public RequestCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    /**
+     * Builds {@link HttpClient}s, it isn't thread-safe.
+     */
+    public static final class Builder {
+        private URL baseUrl;
+        private final List<String[]> headers = new ArrayList<>();
+        private Proxy proxy;
+        private int timeout = HttpRequest.DEFAULT_TIMEOUT;
+        private boolean followRedirects = HttpURLConnection.getFollowRedirects();
+        private boolean keepAlive;
+        private Transport transport = Transport.DEFAULT;
+        private CookieJar cookieJar;
+        private ResponseCache cache;
+        private Executor executor;
+        private EventListener eventListener;
+        private RetryPolicy retryPolicy;
+        private RequestCoalescer coalescer;
+
+        Builder() {
+        }
+
+        Builder(HttpClient client) {
+            baseUrl = client.baseUrl;
+            Collections.addAll(headers, client.headers);
+            proxy = client.proxy;
+            timeout = client.timeout;
+            followRedirects = client.followRedirects;
+            keepAlive = client.keepAlive;
+            transport = client.transport;
+            cookieJar = client.cookieJar;
+            cache = client.cache;
+            executor = client.executor;
+            eventListener = client.eventListener;
+            retryPolicy = client.retryPolicy;
+            coalescer = client.coalescer;
+        }
+
+        /**
+         * @param baseUrl nullable, the urls of the requests are resolved against it
+         * @return this
+         * @throws IllegalArgumentException if the url is invalid
+         */
+        public Builder baseUrl(String baseUrl) {
+            try {
+                this.baseUrl = baseUrl == null ? null : new URL(baseUrl);
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException(e);
+            }
+            return this;
+        }
+
+        /**
+         * Add a request header, it replaces the default one with the same name.
+         *
+         * @param name  header name
+         * @param value header value
+         * @return this
+         */
+        public Builder header(String name, String value) {
+            headers.add(new String[]{Objects.requireNonNull(name, "name must not be null"),
+                    Objects.requireNonNull(value, "value must not be null")});
+            return this;
+        }
+
+        public Builder headers(HttpRequest.Data headers) {
+            for (String[] header : headers.dataList) {
+                header(header[0], header[1]);
+            }
+            return this;
+        }
+
+        /**
+         * @param proxy nullable
+         * @return this
+         */
+        public Builder proxy(Proxy proxy) {
+            this.proxy = proxy;
+            return this;
+        }
+
+        /**
+         * @param timeout connect and read timeout in milliseconds
+         * @return this
+         */
+        public Builder timeout(int timeout) {
+            if (timeout < 0)
+                throw new IllegalArgumentException("timeout must not be negative");
+            this.timeout = timeout;
+            return this;
+        }
+
+        public Builder followRedirects(boolean followRedirects) {
+            this.followRedirects = followRedirects;
+            return this;
+        }
+
+        /**
+         * @see HttpRequest#keepAlive(boolean)
+         */
+        public Builder keepAlive(boolean keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        public Builder transport(Transport transport) {
+            this.transport = Objects.requireNonNull(transport, "transport must not be null");
+            return this;
+        }
+
+        /**
+         * @param cookieJar nullable, shared by all the requests of the client
+         * @return this
+         */
+        public Builder cookieJar(CookieJar cookieJar) {
+            this.cookieJar = cookieJar;
+            return this;
+        }
+
+        /**
+         * @param cache nullable, shared by all the requests of the client
+         * @return this
+         */
+        public Builder cache(ResponseCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * @param executor nullable, the executor of the async requests
+         * @return this
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * @param eventListener nullable, shared by all the requests of the client
+         * @return this
+         */
+        public Builder eventListener(EventListener eventListener) {
+            this.eventListener = eventListener;
+            return this;
+        }
+
+        /**
+         * @param retryPolicy nullable, shared by all the requests of the client, with its budget
+         * @return this
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * @param coalescer nullable, shared by all the requests of the client
+         * @return this
+         */
+        public Builder coalescer(RequestCoalescer coalescer) {
+            this.coalescer = coalescer;
+            return this;
+        }
+
+        public HttpClient build() {
+            return new HttpClient(this);
+        }
+    }
+}
@@ -2,19 +2,22 @@ package io.github.edsuns.net;
 
 import java.io.*;
 import java.net.*;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
-import java.nio.charset.CharacterCodingException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.util.*;
-import java.util.concurrent.Callable;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.Inflater;
-import java.util.zip.InflaterInputStream;
+import java.util.stream.Stream;
+import java.util.zip.*;
 
 import static java.net.HttpURLConnection.*;
 
@@ -23,13 +26,17 @@ import static java.net.HttpURLConnection.*;
  */
 public class HttpRequest {
     private static final int DEFAULT_BUFFER_SIZE = 1024 * 16;
-    private static final int DEFAULT_TIMEOUT = 10000;// 10 seconds
+    private static final int MAX_DRAIN_SIZE = 1024 * 64;// bodies of redirects longer than this aren't worth reusing for
+    static final int DEFAULT_TIMEOUT = 10000;// 10 seconds
     private static final int REDIRECTS_MAX = 10;
+    private static final long DEFAULT_COMPRESSION_THRESHOLD = 1024;
     private static final Charset DEFAULT_ENCODING = StandardCharsets.UTF_8;
+    private static final int ENCODING_SAMPLE_SIZE = 1024 * 8;// prefix of the body to guess the charset of a reader
     private static final String DEFAULT_USER_AGENT =
             "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/87.0.4280.88 Safari/537.36";
 
     private static final int HTTP_TEMP_REDIRECT = 307;// http/1.1 temporary redirect, not in Java's set.
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;// not in Java's set.
 
     // request & response header names
     public static final String USER_AGENT = "User-Agent";
@@ -38,8 +45,10 @@ public class HttpRequest {
     public static final String COOKIE = "Cookie";
     public static final String LOCATION = "Location";
     public static final String CONTENT_TYPE = "Content-Type";
+    public static final String CONTENT_LENGTH = "Content-Length";
     public static final String CONTENT_ENCODING = "Content-Encoding";
     public static final String SET_COOKIE = "Set-Cookie";
+    public static final String EXPECT = "Expect";
     /**
      * <p>请求下载范围：{@value}</p>
      * <p>返回数据范围：Content-Range=bytes 0-100/100</p>
@@ -97,7 +106,11 @@ public class HttpRequest {
     public static final String MULTIPART_FORM_DATA = "multipart/form-data";
     public static final String FORM_URL_ENCODED = "application/x-www-form-urlencoded";
 
-    private static final String[][] DEFAULT_REQUEST_HEADERS = new String[][]{
+    // Content-Encoding
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    static final String[][] DEFAULT_REQUEST_HEADERS = new String[][]{
             {USER_AGENT, DEFAULT_USER_AGENT},
             {ACCEPT_ENCODING, "gzip, deflate"},
     };
@@ -112,13 +125,15 @@ public class HttpRequest {
      * http request methods
      */
     public enum Method {
-        GET(false), POST(true), HEAD(false), OPTIONS(false),
-        PUT(true), DELETE(false), PATCH(true), TRACE(false);
+        GET(false, true), POST(true, false), HEAD(false, true), OPTIONS(false, true),
+        PUT(true, true), DELETE(false, true), PATCH(true, false), TRACE(false, true);
 
         private final boolean hasBody;
+        private final boolean idempotent;
 
-        Method(boolean hasBody) {
+        Method(boolean hasBody, boolean idempotent) {
             this.hasBody = hasBody;
+            this.idempotent = idempotent;
         }
 
         /**
@@ -129,26 +144,56 @@ public class HttpRequest {
         public final boolean hasBody() {
             return hasBody;
         }
+
+        /**
+         * Check if sending the request again has the same effect, only these requests are retried
+         *
+         * @return if idempotent
+         * @see RetryPolicy
+         */
+        public final boolean isIdempotent() {
+            return idempotent;
+        }
     }
 
     private URL url;
     private final String _url;// origin url
     private final Proxy proxy;
+    private String[][] defaultHeaders = DEFAULT_REQUEST_HEADERS;// shared, never modified
     private String[][] headers;// has setter, no getter
     private String[][] headersFinal;
     private boolean followRedirects = HttpURLConnection.getFollowRedirects();
+    private boolean keepAlive;
+    private boolean expectContinue;
+    private String bodyEncoding;
+    private long bodyEncodingThreshold;
     private int timeout = DEFAULT_TIMEOUT;
-    private HttpURLConnection connection;
+    private BodyHandler bodyHandler = BodyHandlers.ofBytesAndText();
+    private Executor executor;
+    private Transport transport = Transport.DEFAULT;
+    private ResponseCache cache;
+    private volatile HttpURLConnection connection;// read by cancelling threads
+    private volatile CompletableFuture<HttpRequest> asyncFuture;// of the execAsync executing this request
     private List<String> redirects;
     private Map<String, String> cookies;
+    private CookieJar cookieJar;
+    private EventListener eventListener = EventListener.NONE;
+    private RetryPolicy retryPolicy;
+    private boolean hedgeAttempt;// RetryPolicy#hedge deposits to the budget once for all its attempts
+    private RequestCoalescer coalescer;
+    private Method method;// of the current execution
+    private long callStart;// nanoTime of the current execution
     private int status;
     private Map<String, List<String>> responseHeaders;
+    private Headers headerIndex;// built from responseHeaders on first lookup
     private InputStream inputStream;
     private boolean inputStreamHasBeenObtained;
     private boolean responseLoaded = true;
     private Charset encoding;
+    private long bodyLength;
     private byte[] bodyBytes;
     private String body;
+    private boolean textPending;// the body is decoded from bodyBytes on first use
 
     public HttpRequest(String url) {
         this(url, null);
@@ -174,29 +219,194 @@ public class HttpRequest {
         return this;
     }
 
+    // the merged headers of a client, headers set later are sent after them
+    HttpRequest defaultHeaders(String[][] defaultHeaders) {
+        this.defaultHeaders = defaultHeaders;
+        headersFinal = null;
+        return this;
+    }
+
     // private getter
     private String[][] getRequestHeaders() {
         if (headers == null) {// check if there are headers set by user
             if (headersFinal == null)
-                headersFinal = DEFAULT_REQUEST_HEADERS;
+                headersFinal = defaultHeaders;
         } else {
-            headersFinal = concat(DEFAULT_REQUEST_HEADERS, headers);
+            headersFinal = concat(defaultHeaders, headers);
             headers = null;// drop it, already added to headersFinal
         }
         return headersFinal;
     }
 
+    /**
+     * Set where the response body goes when it's loaded
+     *
+     * @param bodyHandler body handler
+     * @return this
+     * @see BodyHandlers
+     */
+    public HttpRequest bodyHandler(BodyHandler bodyHandler) {
+        this.bodyHandler = Objects.requireNonNull(bodyHandler, "bodyHandler must not be null");
+        return this;
+    }
+
+    /**
+     * Set the executor of {@link #execAsync(Method, Data)}
+     *
+     * @param executor nullable, the default executor of {@link Async} if null
+     * @return this
+     */
+    public HttpRequest executor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Set the transport carrying the requests
+     *
+     * @param transport transport
+     * @return this
+     * @see NioTransport
+     */
+    public HttpRequest transport(Transport transport) {
+        this.transport = Objects.requireNonNull(transport, "transport must not be null");
+        return this;
+    }
+
+    /**
+     * Serve GET requests from the cache when possible, and store their responses in it.
+     *
+     * @param cache nullable, shared by requests
+     * @return this
+     * @see ResponseCache
+     */
+    public HttpRequest cache(ResponseCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
     public HttpRequest followRedirects(boolean followRedirects) {
         this.followRedirects = followRedirects;
         return this;
     }
 
+    /**
+     * <p>Keep the connection alive for later requests to the same host.</p>
+     * <p>When it's enabled, a finished response closes its body stream instead of calling
+     * {@link HttpURLConnection#disconnect()}, so the socket goes back to the keep-alive cache of the JDK
+     * or the pool of {@link NioTransport}. The bodies of redirects are drained for the same reason.</p>
+     *
+     * @param keepAlive false by default
+     * @return this
+     */
+    public HttpRequest keepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    /**
+     * Send {@code Expect: 100-continue} with request bodies, the body isn't sent if the server rejects
+     * the request by its headers.
+     *
+     * @param expectContinue false by default
+     * @return this
+     */
+    public HttpRequest expectContinue(boolean expectContinue) {
+        this.expectContinue = expectContinue;
+        return this;
+    }
+
+    /**
+     * Compress the request bodies of at least 1KB.
+     *
+     * @param encoding nullable, gzip or deflate, null to send the bodies as they are
+     * @return this
+     * @see #compressBody(String, long)
+     */
+    public HttpRequest compressBody(String encoding) {
+        return compressBody(encoding, DEFAULT_COMPRESSION_THRESHOLD);
+    }
+
+    /**
+     * Compress the request bodies with {@code Content-Encoding} while they're sent, the server must support it.
+     * <p>A body of unknown length is always compressed, a compressed multipart body is sent chunked.</p>
+     *
+     * @param encoding  nullable, gzip or deflate, null to send the bodies as they are
+     * @param threshold smaller bodies aren't worth compressing
+     * @return this
+     */
+    public HttpRequest compressBody(String encoding, long threshold) {
+        if (encoding != null && !GZIP.equalsIgnoreCase(encoding) && !DEFLATE.equalsIgnoreCase(encoding))
+            throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+        if (threshold < 0)
+            throw new IllegalArgumentException("threshold must not be negative");
+        this.bodyEncoding = encoding == null ? null : encoding.toLowerCase(Locale.ENGLISH);
+        this.bodyEncodingThreshold = threshold;
+        return this;
+    }
+
     // replace all cookies
     public HttpRequest cookies(Map<String, String> cookies) {
         this.cookies = cookies;
         return this;
     }
 
+    /**
+     * Keep the response cookies in a jar that honors their domain, path and expiry,
+     * the jar can be shared by many requests.
+     * <p>{@link #getCookies()} then only has the cookies set by {@link #cookies(Map)},
+     * they're sent along with the ones of the jar.</p>
+     *
+     * @param cookieJar nullable, the cookies are kept in the map of {@link #getCookies()} if null
+     * @return this
+     */
+    public HttpRequest cookieJar(CookieJar cookieJar) {
+        this.cookieJar = cookieJar;
+        return this;
+    }
+
+    /**
+     * Report the phases of the executions to a listener, like {@link EventRecorder}.
+     *
+     * @param eventListener nullable, no events are reported if null
+     * @return this
+     */
+    public HttpRequest eventListener(EventListener eventListener) {
+        this.eventListener = eventListener == null ? EventListener.NONE : eventListener;
+        return this;
+    }
+
+    /**
+     * Retry the idempotent requests which fail to connect, time out or get a retryable status.
+     *
+     * @param retryPolicy nullable, no retries if null
+     * @return this
+     * @see Method#isIdempotent()
+     */
+    public HttpRequest retryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    // one of the requests of a hedged call
+    HttpRequest hedgeAttempt() {
+        this.hedgeAttempt = true;
+        return this;
+    }
+
+    /**
+     * Share the response of identical GET and HEAD requests executed at the same time.
+     * <p>The requests sharing a response get the cookies set by the final response,
+     * not those set by its redirects.</p>
+     *
+     * @param coalescer nullable, shared by the requests to coalesce
+     * @return this
+     */
+    public HttpRequest coalescer(RequestCoalescer coalescer) {
+        this.coalescer = coalescer;
+        return this;
+    }
+
     public HttpRequest get() throws IOException {
         return exec(Method.GET);
     }
@@ -217,29 +427,340 @@ public class HttpRequest {
         return exec(method, null);
     }
 
+    public HttpRequest exec(Method method, Data data, BodyHandler bodyHandler) throws IOException {
+        return bodyHandler(bodyHandler).exec(method, data);
+    }
+
     public HttpRequest exec(Method method, Data data) throws IOException {
-        reset();
+        return exec(method, data, (String[][]) null);
+    }
+
+    // extraHeaders are only sent by this execution, they override the other request headers
+    HttpRequest exec(Method method, Data data, String[][] extraHeaders) throws IOException {
+        final RetryPolicy policy = method.isIdempotent() ? retryPolicy : null;
+        if (policy != null && !hedgeAttempt)
+            policy.deposit();
+        for (int attempt = 0; ; attempt++) {
+            reset();
+            callStart = System.nanoTime();
+            eventListener.callStart(this);
+            long delay;
+            try {
+                execute(method, data, extraHeaders);
+                if (policy == null)
+                    return this;
+                if (!policy.isRetryable(status)) {
+                    policy.recordLatency(System.nanoTime() - callStart);
+                    return this;
+                }
+                final List<String> retryAfter = getHeader(HostScheduler.RETRY_AFTER);
+                delay = policy.retryDelay(attempt, retryAfter == null || retryAfter.isEmpty() ? -1
+                        : HostScheduler.parseRetryAfter(retryAfter.get(0), System.currentTimeMillis()));
+                if (delay < 0)
+                    return this;// out of retries, the response is returned as is
+                discard();
+            } catch (IOException e) {
+                eventListener.callFailed(this, e, System.nanoTime() - callStart);
+                delay = policy == null || isCancelled() || !policy.isRetryable(e) ? -1
+                        : policy.retryDelay(attempt, -1);
+                if (delay < 0)
+                    throw e;
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to retry");
+            }
+        }
+    }
+
+    private HttpRequest execute(Method method, Data data, String[][] extraHeaders) throws IOException {
+        this.method = method;
         if (cookies == null)
             cookies = new HashMap<>();
-        connection = openConnectionWithRedirects(url, proxy, method, timeout,
-                followRedirects ? REDIRECTS_MAX : 0,
-                getRequestHeaders(), data, cookies, redirects
+        String[][] requestHeaders = concat(getRequestHeaders(), extraHeaders);
+        URL requestUrl = url;// the url of this request is left as is, it may be retried
+        if (!method.hasBody() && data != null) {
+            if (!data.dataList.isEmpty())
+                requestUrl = serialiseRequestUrl(url, data);
+            data = null;// moved into the url, not appended again by redirects
+        }
+        // only plain GET requests are cached, not the range requests of downloads
+        final ResponseCache cache = method == Method.GET && extraHeaders == null
+                && !ResponseCache.isNoStoreRequest(requestHeaders) ? this.cache : null;
+        String cacheKey = null;
+        ResponseCache.Entry cached = null;
+        if (cache != null) {
+            cacheKey = requestUrl.toString();
+            cached = cache.get(cacheKey, requestHeaders);
+            if (cached != null && !ResponseCache.isNoCacheRequest(requestHeaders)
+                    && cached.isFresh(System.currentTimeMillis())) {
+                cache.recordHit();
+                return readResponse(new CachedConnection(cached), cached.redirects);
+            }
+            if (cached != null && cached.validators() != null)
+                requestHeaders = concat(requestHeaders, cached.validators());
+        }
+        // stale responses are revalidated by every request, they aren't coalesced
+        final RequestCoalescer coalescer = (method == Method.GET || method == Method.HEAD)
+                && extraHeaders == null && cached == null ? this.coalescer : null;
+        if (coalescer != null) {
+            final RequestCoalescer.Call call = coalescer.join(RequestCoalescer.key(method, requestUrl,
+                    requestHeaders, cookieHeader(requestUrl, cookies, cookieJar)));
+            if (call != null) {
+                final ResponseCache.Entry shared;
+                final boolean leader = call.tryLead();
+                if (leader) {
+                    try {
+                        shared = fetchShared(requestUrl, method, data, requestHeaders);
+                    } catch (Throwable e) {
+                        call.fail(e);// errors too, the followers must never wait forever
+                        throw e;
+                    }
+                    call.complete(shared);
+                    if (cache != null) {
+                        cache.recordMiss();
+                        if (shared.status == HTTP_OK && ResponseCache.isStorable(responseHeaders, requestHeaders))
+                            cache.put(cacheKey, shared);
+                    }
+                } else {
+                    shared = call.await();
+                }
+                readResponse(new CachedConnection(shared), shared.redirects);
+                if (!leader) {
+                    // the cookies set by the final response, the leader has stored them for its own
+                    final List<String> setCookies = getHeaders().getSetCookies();
+                    if (!setCookies.isEmpty()) {
+                        if (cookieJar != null)
+                            cookieJar.store(url, setCookies);
+                        else
+                            cookies.putAll(getCookiesFrom(setCookies));
+                    }
+                }
+                return this;
+            }
+        }
+        final long requestTime = System.currentTimeMillis();
+        final HttpURLConnection conn = openConnectionWithRedirects(transport, requestUrl, proxy, method, timeout,
+                followRedirects ? REDIRECTS_MAX : 0, keepAlive, expectContinue, bodyEncoding, bodyEncodingThreshold,
+                requestHeaders, data, cookies, cookieJar, redirects, this
         );
-        url = connection.getURL();
-        redirects = Collections.unmodifiableList(redirects);
+        connection = conn;
+        if (cache == null)
+            return readResponse(conn, redirects);
+        final int responseCode = conn.getResponseCode();
+        final long responseTime = System.currentTimeMillis();
+        if (cached != null && responseCode == HTTP_NOT_MODIFIED) {
+            // serve the stored body with the updated headers
+            cached = cached.revalidated(conn.getHeaderFields(), requestTime, responseTime);
+            cache.put(cacheKey, cached);
+            cache.recordConditionalHit();
+            if (keepAlive)
+                drain(conn);
+            else
+                conn.disconnect();
+            return readResponse(new CachedConnection(cached), cached.redirects);
+        }
+        cache.recordMiss();
+        readRawResponse(conn, redirects);
+        if (responseCode == HTTP_OK && ResponseCache.isStorable(responseHeaders, requestHeaders)) {
+            // stored when the raw body has been read to the end
+            inputStream = cache.tee(inputStream, cacheKey, ResponseCache.Entry.of(conn,
+                    Collections.unmodifiableList(new ArrayList<>(redirects)), requestHeaders, requestTime, responseTime));
+        }
+        decodeContent();
+        return this;
+    }
+
+    // read the raw response to the end, for the requests coalesced with this one
+    private ResponseCache.Entry fetchShared(URL url, Method method, Data data, String[][] requestHeaders)
+            throws IOException {
+        final long requestTime = System.currentTimeMillis();
+        final HttpURLConnection conn = openConnectionWithRedirects(transport, url, proxy, method, timeout,
+                followRedirects ? REDIRECTS_MAX : 0, keepAlive, expectContinue, bodyEncoding, bodyEncodingThreshold,
+                requestHeaders, data, cookies, cookieJar, redirects, this
+        );
+        readRawResponse(conn, redirects);
+        final ResponseCache.Entry entry = ResponseCache.Entry.of(conn, this.redirects, requestHeaders,
+                requestTime, System.currentTimeMillis());
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            final byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                body.write(buffer, 0, count);
+            }
+        } finally {
+            releaseConnection();
+        }
+        return entry.withBody(body.toByteArray());
+    }
+
+    private HttpRequest readResponse(HttpURLConnection conn, List<String> redirects) throws IOException {
+        readRawResponse(conn, redirects);
+        decodeContent();
+        return this;
+    }
+
+    private void readRawResponse(HttpURLConnection conn, List<String> redirects) throws IOException {
+        connection = conn;
+        url = conn.getURL();
+        this.redirects = Collections.unmodifiableList(redirects);
         // get status
-        status = connection.getResponseCode();
+        status = conn.getResponseCode();
         // response headers
-        responseHeaders = connection.getHeaderFields();
+        responseHeaders = conn.getHeaderFields();
+        headerIndex = null;
         // looking for input stream
-        inputStream = connection.getErrorStream();
-        if (inputStream == null)
-            inputStream = connection.getInputStream();
-        if (hasHeaderWithValue(CONTENT_ENCODING, "gzip"))
-            inputStream = new GZIPInputStream(inputStream);
-        else if (hasHeaderWithValue(CONTENT_ENCODING, "deflate"))
-            inputStream = new InflaterInputStream(inputStream, new Inflater(true));
-        return this;
+        inputStream = conn.getErrorStream();
+        if (inputStream == null)// getInputStream() throws if the error response has no body
+            inputStream = status >= HTTP_BAD_REQUEST ? new ByteArrayInputStream(new byte[0]) : conn.getInputStream();
+    }
+
+    private void decodeContent() throws IOException {
+        inputStream = ContentDecoders.decode(inputStream, getHeader(CONTENT_ENCODING));
+    }
+
+    public CompletableFuture<HttpRequest> execAsync() {
+        return execAsync(Method.GET, null);
+    }
+
+    public CompletableFuture<HttpRequest> execAsync(Method method) {
+        return execAsync(method, null);
+    }
+
+    public CompletableFuture<HttpRequest> execAsync(Method method, Data data) {
+        return execAsync(method, data, executor != null ? executor : Async.getExecutor());
+    }
+
+    /**
+     * Execute on the executor, cancelling the future disconnects the request.
+     * <p>The body isn't loaded, getters like {@link #getBody()} still load it on the calling thread.</p>
+     * <p>With a {@link NioTransport}, no thread waits for the response: the event loops send the hops,
+     * the executor only runs the work between them. A request with a retry policy, a cache or a coalescer
+     * is executed by a thread of the executor like with the other transports.</p>
+     *
+     * @param method   request method
+     * @param data     nullable
+     * @param executor runs the request
+     * @return completes with this request when the response headers are received
+     */
+    public CompletableFuture<HttpRequest> execAsync(Method method, Data data, Executor executor) {
+        final CompletableFuture<HttpRequest> future = new CompletableFuture<HttpRequest>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                final boolean cancelled = super.cancel(mayInterruptIfRunning);
+                final HttpURLConnection conn = connection;
+                if (cancelled && conn != null)
+                    conn.disconnect();
+                return cancelled;
+            }
+        };
+        try {
+            executor.execute(() -> {
+                if (future.isDone())
+                    return;// cancelled before running
+                asyncFuture = future;
+                if (transport instanceof NioTransport && retryPolicy == null && cache == null && coalescer == null) {
+                    execNonBlocking(method, data, executor).whenComplete((response, e) -> {
+                        asyncFuture = null;
+                        if (e != null)
+                            future.completeExceptionally(e);
+                        else if (!future.complete(response))
+                            discard();// cancelled meanwhile, nobody else releases the response
+                    });
+                    return;
+                }
+                try {
+                    final HttpRequest response = exec(method, data);
+                    if (!future.complete(response))
+                        discard();// cancelled meanwhile, nobody else releases the response
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    asyncFuture = null;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    // the hops are completed by the event loops of NioTransport, and followed on the executor
+    private CompletableFuture<HttpRequest> execNonBlocking(Method method, Data data, Executor executor) {
+        final CompletableFuture<HttpRequest> result = new CompletableFuture<>();
+        try {
+            reset();
+            callStart = System.nanoTime();
+            eventListener.callStart(this);
+            this.method = method;
+            if (cookies == null)
+                cookies = new HashMap<>();
+            final URL requestUrl = !method.hasBody() && data != null && !data.dataList.isEmpty()
+                    ? serialiseRequestUrl(url, data) : url;
+            final Hops hops = new Hops(transport, requestUrl, proxy, method, timeout,
+                    followRedirects ? REDIRECTS_MAX : 0, keepAlive, expectContinue, bodyEncoding,
+                    bodyEncodingThreshold, getRequestHeaders(), method.hasBody() ? data : null, cookies, cookieJar,
+                    redirects, this);
+            nextHop(hops, executor, result);
+        } catch (Throwable e) {
+            failCall(result, e);
+        }
+        return result;
+    }
+
+    private void nextHop(Hops hops, Executor executor, CompletableFuture<HttpRequest> result) {
+        try {
+            HttpURLConnection conn = hops.open();
+            while (!(conn instanceof NioConnection)) {
+                // like https urls, sent by the connection of the JDK on this thread
+                if (!hops.follow(conn, hops.send(conn))) {
+                    result.complete(readResponse(conn, redirects));
+                    return;
+                }
+                conn = hops.open();
+            }
+            final NioConnection nio = (NioConnection) conn;
+            hops.writeBody(nio);
+            final long time = System.nanoTime();
+            nio.sendAsync().whenCompleteAsync((ignored, e) -> {
+                if (e != null) {
+                    failCall(result, e);
+                    return;
+                }
+                try {
+                    if (hops.follow(nio, hops.received(nio, time)))
+                        nextHop(hops, executor, result);
+                    else
+                        result.complete(readResponse(nio, redirects));
+                } catch (Throwable t) {
+                    failCall(result, t);
+                }
+            }, executor);
+        } catch (Throwable e) {
+            failCall(result, e);
+        }
+    }
+
+    private void failCall(CompletableFuture<HttpRequest> result, Throwable e) {
+        if (e instanceof IOException)
+            eventListener.callFailed(this, (IOException) e, System.nanoTime() - callStart);
+        result.completeExceptionally(e);
+    }
+
+    // abort an execution on another thread, a response it still gets must be discarded by that thread
+    void disconnect() {
+        final HttpURLConnection conn = connection;
+        if (conn != null)
+            conn.disconnect();
+    }
+
+    // true if the execAsync executing this request has been cancelled
+    private boolean isCancelled() {
+        final CompletableFuture<HttpRequest> future = asyncFuture;
+        return future != null && future.isCancelled();
     }
 
     public HttpRequest loadResponse() throws IOException {
@@ -253,26 +774,224 @@ public class HttpRequest {
             return this;
         }
         try {
-            // read body bytes
-            ByteArrayOutputStream bo = new ByteArrayOutputStream();
-            crossStreams(inputStream, bo);
-            bodyBytes = bo.toByteArray();
-            // get encoding
-            String contentType = connection.getContentType();
-            encoding = getEncodingFromContentType(contentType);
-            if (encoding == null && isTextContentType(contentType))
-                encoding = guessEncoding(bodyBytes);
-            // create body string if has text body
-            if (encoding != null && bodyBytes.length > 0)
-                body = new String(bodyBytes, 0, bodyBytes.length, encoding.name());
+            // stream the body into the sink, only the sink decides what to keep
+            final BodySink sink = bodyHandler.apply(this);
+            long time = System.nanoTime();
+            try {
+                final byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+                int count;
+                while ((count = inputStream.read(buffer)) != -1) {
+                    sink.write(buffer, 0, count);
+                    bodyLength += count;
+                }
+                eventListener.responseBodyEnd(this, bodyLength, System.nanoTime() - time);
+            } finally {
+                time = System.nanoTime();
+                sink.close();
+            }
+            eventListener.bodyHandled(this, System.nanoTime() - time);
+        } catch (IOException e) {
+            eventListener.callFailed(this, e, System.nanoTime() - callStart);
+            throw e;
         } finally {
             responseLoaded = true;
             // finish the request
+            releaseConnection();
+        }
+        eventListener.callEnd(this, System.nanoTime() - callStart);
+        return this;
+    }
+
+    // give up a response without loading it
+    void discard() {
+        if (inputStream != null && !responseLoaded) {
+            responseLoaded = true;
+            releaseConnection();
+        }
+    }
+
+    private void releaseConnection() {
+        boolean closed;
+        try {
+            inputStream.close();// the socket is reusable if the body has been read to the end
+            closed = true;
+        } catch (IOException e) {
+            closed = false;
+        }
+        if (!keepAlive || !closed)
             connection.disconnect();
+    }
+
+    /**
+     * Download the body to a file.
+     *
+     * @param file target file
+     * @return this
+     * @throws IOException if the download fails, the bytes already written are kept for resuming
+     * @see #download(Path, MessageDigest)
+     */
+    public HttpRequest download(Path file) throws IOException {
+        return download(file, null);
+    }
+
+    /**
+     * <p>Download the body to a file, the body is transferred to the file channel directly instead of being loaded.</p>
+     * <p>If the file isn't empty, the download resumes from the file length with a range request.
+     * The download restarts from zero if the server doesn't support breakpoint transfer.
+     * Nothing is written if the status is bad, check {@link #getStatus()} after downloading.
+     * Status 416 is kept if the file was already complete, with nothing written either.</p>
+     *
+     * @param file   target file
+     * @param digest nullable, updated with the whole file content including the resumed part
+     * @return this
+     * @throws IOException if the download fails, the bytes already written are kept for resuming
+     * @see #HEADER_RANGE
+     * @see #HEADER_CONTENT_RANGE
+     */
+    public HttpRequest download(Path file, MessageDigest digest) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long position = channel.size();
+            if (position > 0) {
+                exec(Method.GET, null, new String[][]{
+                        {ACCEPT_ENCODING, "identity"},// ranges of an encoded body can't be decoded
+                        {HEADER_RANGE, HEADER_VALUE_BYTES + "=" + position + "-"}
+                });
+                if (status == HTTP_RANGE_NOT_SATISFIABLE
+                        && parseContentRange(connection.getHeaderField(HEADER_CONTENT_RANGE))[2] == position) {
+                    // already completed
+                    if (digest != null)
+                        digestFile(channel, position, digest);
+                    finishDownload(0);
+                    return this;
+                }
+                if (status == HTTP_PARTIAL) {
+                    long start = parseContentRange(connection.getHeaderField(HEADER_CONTENT_RANGE))[0];
+                    if (start != position) {
+                        finishDownload(0);
+                        throw new ProtocolException("Unexpected " + HEADER_CONTENT_RANGE + ": "
+                                + connection.getHeaderField(HEADER_CONTENT_RANGE) + ", expected from " + position);
+                    }
+                } else if (!isBadStatus() || status == HTTP_RANGE_NOT_SATISFIABLE) {
+                    // the range is ignored or the file changed, start over
+                    if (status == HTTP_RANGE_NOT_SATISFIABLE) {
+                        discard();// release the connection of the 416 before executing again
+                        exec(Method.GET, null, new String[][]{{ACCEPT_ENCODING, "identity"}});
+                    }
+                    position = 0;
+                }
+            } else {
+                exec(Method.GET, null, new String[][]{{ACCEPT_ENCODING, "identity"}});
+            }
+            if (isBadStatus()) {
+                return this;// leave the body to be loaded as usual
+            }
+            if (position == 0)
+                channel.truncate(0);
+            else if (digest != null)
+                digestFile(channel, position, digest);
+            final long start = position;
+            try {
+                ReadableByteChannel source = Channels.newChannel(inputStream);
+                if (digest != null)
+                    source = new DigestChannel(source, digest);
+                long count;
+                while ((count = channel.transferFrom(source, position, DEFAULT_BUFFER_SIZE)) > 0) {
+                    position += count;
+                }
+            } finally {
+                finishDownload(position - start);
+            }
         }
         return this;
     }
 
+    private void finishDownload(long bodyLength) {
+        this.bodyLength = bodyLength;
+        responseLoaded = true;
+        releaseConnection();
+        eventListener.callEnd(this, System.nanoTime() - callStart);
+    }
+
+    // digest the bytes already in the file, through a direct buffer
+    private static void digestFile(FileChannel channel, long length, MessageDigest digest) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(DEFAULT_BUFFER_SIZE);
+        long position = 0;
+        while (position < length) {
+            // cast to Buffer, ByteBuffer overrides these methods since Java 9
+            ((Buffer) buffer).clear();
+            if (length - position < buffer.capacity())
+                ((Buffer) buffer).limit((int) (length - position));
+            int count = channel.read(buffer, position);
+            if (count < 0)
+                throw new EOFException("File shrank while resuming");
+            ((Buffer) buffer).flip();
+            digest.update(buffer);
+            position += count;
+        }
+    }
+
+    /**
+     * Parse Content-Range like {@code bytes 0-499/1234} or {@code bytes *}{@code /1234}.
+     *
+     * @param contentRange nullable
+     * @return {first byte, last byte, complete length}, -1 if unknown
+     */
+    static long[] parseContentRange(String contentRange) {
+        final long[] range = {-1, -1, -1};
+        if (contentRange == null)
+            return range;
+        TokenQueue cd = new TokenQueue(contentRange.trim());
+        if (!cd.matchChomp(HEADER_VALUE_BYTES))
+            return range;
+        String spec = cd.chompTo("/").trim();
+        String complete = cd.remainder().trim();
+        try {
+            int dash = spec.indexOf('-');
+            if (dash > 0) {
+                range[0] = Long.parseLong(spec.substring(0, dash).trim());
+                range[1] = Long.parseLong(spec.substring(dash + 1).trim());
+            }
+            if (!complete.equals("*") && !complete.isEmpty())
+                range[2] = Long.parseLong(complete);
+        } catch (NumberFormatException ignored) {
+        }
+        return range;
+    }
+
+    // updates the digest with every byte read through it
+    private static final class DigestChannel implements ReadableByteChannel {
+        private final ReadableByteChannel channel;
+        private final MessageDigest digest;
+
+        DigestChannel(ReadableByteChannel channel, MessageDigest digest) {
+            this.channel = channel;
+            this.digest = digest;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            final int start = dst.position();
+            final int count = channel.read(dst);
+            if (count > 0) {
+                ByteBuffer read = dst.duplicate();
+                ((Buffer) read).position(start).limit(start + count);
+                digest.update(read);
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
     // restore to initial state
     private void reset() throws MalformedURLException {
         url = new URL(_url);// always drops the old url
@@ -280,12 +999,15 @@ public class HttpRequest {
         connection = null;
         status = -1;
         responseHeaders = null;
+        headerIndex = null;
         inputStream = null;
         inputStreamHasBeenObtained = false;
         responseLoaded = false;
         encoding = null;
+        bodyLength = 0;
         bodyBytes = null;
         body = null;
+        textPending = false;
     }
 
     public URL getURL() {
@@ -312,6 +1034,10 @@ public class HttpRequest {
         return cookies;
     }
 
+    public Method getMethod() {
+        return method;
+    }
+
     public int getStatus() {
         return status;
     }
@@ -325,6 +1051,17 @@ public class HttpRequest {
         return inputStream;
     }
 
+    /**
+     * Get the response headers indexed by case-insensitive name.
+     *
+     * @return the headers, empty if not executed
+     */
+    public Headers getHeaders() {
+        if (headerIndex == null)
+            headerIndex = Headers.of(responseHeaders);
+        return headerIndex;
+    }
+
     /**
      * Get response headers by name.
      *
@@ -332,28 +1069,11 @@ public class HttpRequest {
      * @return response headers
      */
     public List<String> getHeader(String name) {
-        if (responseHeaders == null)
-            return null;
-        List<String> header = responseHeaders.get(name);
-        if (header == null && name != null) {
-            // find target headers ignore case
-            for (Map.Entry<String, List<String>> item : responseHeaders.entrySet()) {
-                if (name.equalsIgnoreCase(item.getKey())) {
-                    return item.getValue();
-                }
-            }
-        }
-        return header;
+        return getHeaders().get(name);
     }
 
     public boolean hasHeaderWithValue(String name, String value) {
-        List<String> values = getHeader(name);
-        if (values != null)
-            for (String candidate : values) {
-                if (value.equalsIgnoreCase(candidate))
-                    return true;
-            }
-        return false;
+        return getHeaders().contains(name, value);
     }
 
     /**
@@ -370,11 +1090,58 @@ public class HttpRequest {
         return getHeader(HEADER_CONTENT_RANGE) != null;
     }
 
+    /**
+     * Get the length declared by the Content-Length response header.
+     *
+     * @return content length, -1 if unknown
+     */
+    public long getContentLength() {
+        return getHeaders().getContentLength();
+    }
+
+    // text encoding of the body, null if the body isn't text
+    Charset detectEncoding(byte[] bytes, boolean anyContentType) {
+        final String contentType = getHeaders().getFirst(CONTENT_TYPE);
+        Charset charset = getEncodingFromContentType(contentType);
+        if (charset == null && (anyContentType || isTextContentType(contentType)))
+            charset = guessEncoding(bytes);
+        return charset;
+    }
+
+    // called by the buffering body sinks
+    void setBody(byte[] bodyBytes, String body, Charset encoding) {
+        this.bodyBytes = bodyBytes;
+        this.body = body;
+        this.encoding = encoding;
+        this.textPending = false;
+    }
+
+    // called by the buffering body sinks, the text is decoded by getBody() if it's ever asked for
+    void setLazyBody(byte[] bodyBytes, Charset encoding) {
+        this.bodyBytes = bodyBytes;
+        this.body = null;
+        this.encoding = encoding;
+        this.textPending = encoding != null && bodyBytes.length > 0;
+    }
+
+    /**
+     * Get the text encoding of the body.
+     *
+     * @return encoding, null if the body isn't text
+     * @throws IOException if the body can't be loaded
+     */
     public Charset getEncoding() throws IOException {
-        loadResponse();
+        if (!inputStreamHasBeenObtained)
+            loadResponse();// known without loading once a reader has been created
         return encoding;
     }
 
+    /**
+     * Get the body bytes.
+     *
+     * @return body bytes, null if the body handler doesn't keep them
+     * @see #bodyHandler(BodyHandler)
+     */
     public byte[] getBodyBytes() throws IOException {
         loadResponse();
         return bodyBytes;
@@ -382,19 +1149,76 @@ public class HttpRequest {
 
     public String getBody() throws IOException {
         loadResponse();
-        if (hasTextBody())
+        if (textPending) {
+            body = new String(bodyBytes, encoding);
+            textPending = false;
+        }
+        if (body != null)
             return body;
         return "";
     }
 
+    /**
+     * <p>Get a reader decoding the body incrementally, the body isn't loaded.</p>
+     * <p>The charset is the one of Content-Type, or guessed from a prefix of the body.
+     * Closing the reader finishes the request like closing {@link #getInputStream()}.
+     * If the response has already been loaded, the reader reads {@link #getBody()}.</p>
+     *
+     * @return buffered reader of the body
+     * @throws IOException if the prefix of the body can't be read
+     */
+    public BufferedReader getReader() throws IOException {
+        if (inputStream == null)
+            throw new IllegalStateException("Request not yet executed!");
+        if (responseLoaded)
+            return new BufferedReader(new StringReader(getBody()));
+        InputStream in = getInputStream();
+        Charset charset = getHeaders().getCharset();
+        if (charset == null) {
+            // peek at a prefix for the guess, the reader starts from the first byte anyway
+            final byte[] prefix = new byte[ENCODING_SAMPLE_SIZE];
+            int length = 0;
+            int count;
+            while (length < prefix.length && (count = in.read(prefix, length, prefix.length - length)) != -1) {
+                length += count;
+            }
+            charset = length == 0 ? DEFAULT_ENCODING
+                    : CharsetDetector.detect(prefix, 0, length, length == prefix.length);
+            final PushbackInputStream pushback = new PushbackInputStream(in, prefix.length);
+            pushback.unread(prefix, 0, length);
+            in = pushback;
+        }
+        encoding = charset;
+        return new BufferedReader(new InputStreamReader(in, charset), DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * <p>Get the lines of the body, decoded incrementally in constant memory.</p>
+     * <p>The stream must be closed, like in a try-with-resources, to finish the request.</p>
+     *
+     * @return lines without the line terminators
+     * @throws IOException if the prefix of the body can't be read
+     * @see #getReader()
+     */
+    public Stream<String> lines() throws IOException {
+        final BufferedReader reader = getReader();
+        return reader.lines().onClose(() -> {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
     public boolean isBodyEmpty() throws IOException {
         loadResponse();
-        return bodyBytes == null || bodyBytes.length == 0;
+        return bodyLength == 0;
     }
 
     public boolean hasTextBody() throws IOException {
         loadResponse();
-        return body != null;
+        return body != null || textPending;
     }
 
     public boolean isBadStatus() {
@@ -418,7 +1242,7 @@ public class HttpRequest {
     }
 
     /**
-     * Combine multi-threading and exclusion to guess the encoding
+     * Guess the encoding by exclusion, checking the bytes in a single pass
      *
      * @param bytes bytes
      * @return encoding
@@ -426,54 +1250,22 @@ public class HttpRequest {
     public static Charset guessEncoding(final byte[] bytes) {
         if (bytes == null || bytes.length == 0)
             return DEFAULT_ENCODING;
-        final CountDownLatch latch = new CountDownLatch(3);// count = validates.length - 1
-        final class Validate extends Thread {
-            private final Charset charset;
-            private byte matches = 2;// 2 means no result yet
-
-            Validate(Charset charset) {
-                this.charset = charset;
-            }
+        return CharsetDetector.detect(bytes, 0, bytes.length, false);
+    }
 
-            @Override
-            public void run() {
-                try {
-                    charset.newDecoder().decode(ByteBuffer.wrap(bytes));
-                    matches = 1;// matches
-                } catch (CharacterCodingException e) {
-                    matches = 0;// doesn't match
-                }
-                if (matches == 1)
-                    while (latch.getCount() > 0)
-                        latch.countDown();
-                else
-                    latch.countDown();
-            }
-        }
-        final Validate[] validates = {
-                // these encodings are chosen considering the use of the exclusion
-                new Validate(StandardCharsets.UTF_8),
-                new Validate(StandardCharsets.ISO_8859_1),
-                new Validate(StandardCharsets.US_ASCII),
-                new Validate(Charset.forName("GBK"))
-        };
-        for (Validate validate : validates) {
-            validate.start();
-        }
-        try {
-            latch.await();
-            for (Validate validate : validates) {
-                final byte matches = validate.matches;
-                if (matches == 1) {
-                    return validate.charset;
-                } else if (matches == 2) {
-                    // the one remaining after exclusion
-                    return validate.charset;
-                }
-            }
-        } catch (InterruptedException ignored) {
-        }
-        return DEFAULT_ENCODING;
+    /**
+     * Guess the encoding from a prefix of the bytes, for very large bodies
+     *
+     * @param bytes        bytes
+     * @param sampleLength max number of bytes to check
+     * @return encoding
+     */
+    public static Charset guessEncoding(final byte[] bytes, int sampleLength) {
+        if (bytes == null || bytes.length == 0 || sampleLength <= 0)
+            return DEFAULT_ENCODING;
+        if (sampleLength >= bytes.length)
+            return guessEncoding(bytes);
+        return CharsetDetector.detect(bytes, 0, sampleLength, true);
     }
 
     public static <T> T[] concat(T[] a, T[] b) {
@@ -493,9 +1285,10 @@ public class HttpRequest {
     }
 
     // create HttpURLConnection but don't trigger any connections
-    private static HttpURLConnection createConnection(URL url, Proxy proxy, Method method, int timeout,
-                                                      Map<String, String> cookies) throws IOException {
-        HttpURLConnection conn = (HttpURLConnection) (proxy == null ? url.openConnection() : url.openConnection(proxy));
+    private static HttpURLConnection createConnection(Transport transport, URL url, Proxy proxy, Method method,
+                                                      int timeout, Map<String, String> cookies,
+                                                      CookieJar cookieJar) throws IOException {
+        HttpURLConnection conn = transport.open(url, proxy);
         conn.setRequestMethod(method.name());
         conn.setConnectTimeout(timeout);
         conn.setReadTimeout(timeout);
@@ -504,12 +1297,24 @@ public class HttpRequest {
         conn.setInstanceFollowRedirects(false);
         conn.setDoOutput(method.hasBody());
         // set request cookie
-        if (cookies != null && cookies.size() > 0) {
-            conn.setRequestProperty(COOKIE, toRequestCookieString(cookies));
+        final String cookie = cookieHeader(url, cookies, cookieJar);
+        if (cookie != null) {
+            conn.setRequestProperty(COOKIE, cookie);
         }
         return conn;
     }
 
+    // null if there's no cookie
+    private static String cookieHeader(URL url, Map<String, String> cookies, CookieJar cookieJar) {
+        String cookie = cookies != null && cookies.size() > 0 ? toRequestCookieString(cookies) : null;
+        if (cookieJar != null) {
+            final String jarCookie = cookieJar.header(url);
+            if (jarCookie != null)
+                cookie = cookie == null ? jarCookie : cookie + "; " + jarCookie;
+        }
+        return cookie;
+    }
+
     private static final char[] mimeBoundaryChars =
             "-_1234567890abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
     private static final int boundaryLength = 32;
@@ -526,89 +1331,90 @@ public class HttpRequest {
         return mime.toString();
     }
 
-    private static URL serialiseRequestUrl(URL in, Data data) throws UnsupportedEncodingException, MalformedURLException {
-        StringBuilder url = new StringBuilder();
-        boolean first = true;
+    private static URL serialiseRequestUrl(URL in, Data data) throws MalformedURLException {
+        final String query = data.encodedQuery();
+        final StringBuilder url = new StringBuilder(in.toString().length() + query.length() + 2);
         // reconstitute the query, ready for appends
         url.append(in.getProtocol())
                 .append("://")
                 .append(in.getAuthority()) // includes host, port
                 .append(in.getPath())
-                .append("?");
+                .append('?');
         if (in.getQuery() != null) {
             url.append(in.getQuery());
-            first = false;
-        }
-        for (String[] keyVal : data.dataList) {
-            if (!first)
+            if (!query.isEmpty())
                 url.append('&');
-            else
-                first = false;
-            url.append(URLEncoder.encode(keyVal[0], DEFAULT_ENCODING.name()))
-                    .append('=')
-                    .append(URLEncoder.encode(keyVal[1], DEFAULT_ENCODING.name()));
         }
-        data.dataList.clear(); // moved into url as get params
-        return new URL(url.toString());
+        return new URL(url.append(query).toString());
     }
 
-    private static String setOutputContentType(HttpURLConnection conn) {
+    private static String setOutputContentType(HttpURLConnection conn, boolean hasParts) {
         String bound = null;
         String contentType = conn.getRequestProperty(CONTENT_TYPE);
         if (contentType != null) {
             if (contentType.contains(MULTIPART_FORM_DATA) && !contentType.contains("boundary")) {
                 bound = mimeBoundary();
                 conn.setRequestProperty(CONTENT_TYPE, MULTIPART_FORM_DATA + "; boundary=" + bound);
+            } else if (hasParts) {
+                throw new IllegalArgumentException("Files can only be sent as " + MULTIPART_FORM_DATA);
             }
+        } else if (hasParts) {
+            bound = mimeBoundary();
+            conn.setRequestProperty(CONTENT_TYPE, MULTIPART_FORM_DATA + "; boundary=" + bound);
         } else {
             conn.setRequestProperty(CONTENT_TYPE, FORM_URL_ENCODED + "; charset=" + DEFAULT_ENCODING.name());
         }
         return bound;
     }
 
-    private static String encodeMimeName(String val) {
-        if (val == null)
-            return null;
-        return val.replace("\"", "%22");
-    }
-
-    private static void writePost(final Data data, final OutputStream outputStream, final String bound) throws IOException {
-        if (data == null || data.dataList.isEmpty())
-            return;
-
-        final BufferedWriter w = new BufferedWriter(new OutputStreamWriter(outputStream, DEFAULT_ENCODING));
-
-        if (bound != null) {
-            // boundary will be set if we're in multipart mode
-            for (String[] keyVal : data.dataList) {
-                w.write("--");
-                w.write(bound);
-                w.write("\r\n");
-                w.write("Content-Disposition: form-data; name=\"");
-                w.write(encodeMimeName(keyVal[0])); // encodes " to %22
-                w.write("\"");
-                w.write("\r\n\r\n");
-                w.write(keyVal[1]);
-                w.write("\r\n");
-            }
-            w.write("--");
-            w.write(bound);
-            w.write("--");
-        } else {
-            // regular form data (application/x-www-form-urlencoded)
-            boolean first = true;
-            for (String[] keyVal : data.dataList) {
-                if (!first)
-                    w.append('&');
-                else
-                    first = false;
-
-                w.write(URLEncoder.encode(keyVal[0], DEFAULT_ENCODING.name()));
-                w.write('=');
-                w.write(URLEncoder.encode(keyVal[1], DEFAULT_ENCODING.name()));
+    private static OutputStream compressing(OutputStream out, String encoding) throws IOException {
+        // deflate is the zlib format, like RFC 9110 defines it
+        if (GZIP.equals(encoding))
+            return new GZIPOutputStream(out, DEFAULT_BUFFER_SIZE);
+        return new DeflaterOutputStream(out, new Deflater(), DEFAULT_BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    def.end();// not ended by DeflaterOutputStream since it's not the default one
+                }
             }
+        };
+    }
+
+    private static byte[] compress(byte[] content, String encoding) throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 2);
+        try (OutputStream out = compressing(compressed, encoding)) {
+            out.write(content);
         }
-        w.close();
+        return compressed.toByteArray();
+    }
+
+    // counts the bytes of the request body written to the connection
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    // regular form data (application/x-www-form-urlencoded), cached by the data
+    private static byte[] encodeForm(final Data data) {
+        return data.encodedForm();
     }
 
     /**
@@ -663,42 +1469,177 @@ public class HttpRequest {
     }
 
     private static HttpURLConnection openConnectionWithRedirects(
-            URL url, Proxy proxy, Method method, int timeout, int redirectsMax, String[][] requestHeaders, Data data,
-            Map<String, String> tmpCookies, List<String> tmpRedirects) throws IOException {
-        String protocol = url.getProtocol();
-        if (!protocol.equals("http") && !protocol.equals("https"))
-            throw new MalformedURLException("Only http & https protocols supported");
-        final boolean hasRequestHeaders = requestHeaders != null && requestHeaders.length > 0;
-        int redirects = 0;
-        do {
+            Transport transport, URL url, Proxy proxy, Method method, int timeout, int redirectsMax, boolean keepAlive,
+            boolean expectContinue, String bodyEncoding, long bodyEncodingThreshold, String[][] requestHeaders, Data data,
+            Map<String, String> tmpCookies, CookieJar cookieJar, List<String> tmpRedirects,
+            HttpRequest call) throws IOException {
+        final Hops hops = new Hops(transport, url, proxy, method, timeout, redirectsMax, keepAlive, expectContinue,
+                bodyEncoding, bodyEncodingThreshold, requestHeaders, data, tmpCookies, cookieJar, tmpRedirects, call);
+        while (true) {
+            final HttpURLConnection conn = hops.open();
+            if (!hops.follow(conn, hops.send(conn)))
+                return conn;
+        }
+    }
+
+    /**
+     * The hops of an execution, one per redirect followed.
+     * A hop is opened, sent, then followed to the next one if it's a redirect.
+     */
+    private static final class Hops {
+        private final Transport transport;
+        private final Proxy proxy;
+        private final int timeout;
+        private final int redirectsMax;
+        private final boolean keepAlive;
+        private final boolean expectContinue;
+        private final String bodyEncoding;
+        private final long bodyEncodingThreshold;
+        private final String[][] requestHeaders;
+        private final Map<String, String> tmpCookies;
+        private final CookieJar cookieJar;
+        private final List<String> tmpRedirects;
+        private final HttpRequest call;
+        private final EventListener events;
+        private URL url;
+        private Method method;
+        private Data data;
+        private int redirects;
+        // the body of the current hop
+        private MultipartBody multipart;
+        private byte[] form;
+        private boolean compress;
+
+        Hops(Transport transport, URL url, Proxy proxy, Method method, int timeout, int redirectsMax,
+             boolean keepAlive, boolean expectContinue, String bodyEncoding, long bodyEncodingThreshold,
+             String[][] requestHeaders, Data data, Map<String, String> tmpCookies, CookieJar cookieJar,
+             List<String> tmpRedirects, HttpRequest call) throws MalformedURLException {
+            String protocol = url.getProtocol();
+            if (!protocol.equals("http") && !protocol.equals("https"))
+                throw new MalformedURLException("Only http & https protocols supported");
+            this.transport = transport;
+            this.url = url;
+            this.proxy = proxy;
+            this.method = method;
+            this.timeout = timeout;
+            this.redirectsMax = redirectsMax;
+            this.keepAlive = keepAlive;
+            this.expectContinue = expectContinue;
+            this.bodyEncoding = bodyEncoding;
+            this.bodyEncodingThreshold = bodyEncodingThreshold;
+            this.requestHeaders = requestHeaders;
+            this.data = data;
+            this.tmpCookies = tmpCookies;
+            this.cookieJar = cookieJar;
+            this.tmpRedirects = tmpRedirects;
+            this.call = call;
+            this.events = call.eventListener;
+        }
+
+        // the connection of the next hop with its request headers, not connected yet
+        HttpURLConnection open() throws IOException {
             final boolean methodHasBody = method.hasBody();
-            final boolean hasRequestData = data != null && !data.dataList.isEmpty();
+            final boolean hasRequestData = data != null && (!data.dataList.isEmpty() || !data.parts.isEmpty());
 
-            if (!methodHasBody && hasRequestData)
-                url = serialiseRequestUrl(url, data);
-            HttpURLConnection conn = createConnection(url, proxy, method, timeout, tmpCookies);
+            HttpURLConnection conn = createConnection(transport, url, proxy, method, timeout, tmpCookies, cookieJar);
+            call.connection = conn;// published right away, so cancelling can disconnect every hop
+            if (conn instanceof NioConnection)
+                ((NioConnection) conn).eventListener(call, events);
+            if (call.isCancelled()) {
+                conn.disconnect();
+                throw new InterruptedIOException("Request cancelled");
+            }
             // record redirects
             tmpRedirects.add(url.toString());
 
             // set request headers
-            if (hasRequestHeaders) {
+            if (requestHeaders != null) {
                 for (String[] header : requestHeaders) {
                     conn.setRequestProperty(header[0], header[1]);
                 }
             }
-            String mimeBoundary = null;
-            if (methodHasBody)
-                mimeBoundary = setOutputContentType(conn);
+            multipart = null;
+            form = null;
+            compress = false;
+            if (methodHasBody) {
+                final String mimeBoundary = setOutputContentType(conn, hasRequestData && !data.parts.isEmpty());
+                // stream the body instead of letting HttpURLConnection buffer all of it
+                if (mimeBoundary != null && hasRequestData) {
+                    multipart = new MultipartBody(data, mimeBoundary);
+                    final long length = multipart.length();
+                    compress = bodyEncoding != null && (length < 0 || length >= bodyEncodingThreshold);
+                    if (length >= 0 && !compress)
+                        conn.setFixedLengthStreamingMode(length);
+                    else
+                        conn.setChunkedStreamingMode(0);// default chunk size
+                } else if (hasRequestData) {
+                    form = encodeForm(data);
+                    compress = bodyEncoding != null && form.length >= bodyEncodingThreshold;
+                    if (compress)
+                        form = compress(form, bodyEncoding);// small enough to keep the exact length
+                    conn.setFixedLengthStreamingMode(form.length);
+                }
+                if (compress)
+                    conn.setRequestProperty(CONTENT_ENCODING, bodyEncoding);
+                if (expectContinue && hasRequestData)
+                    conn.setRequestProperty(EXPECT, "100-continue");
+            }
+            return conn;
+        }
 
+        // connect, write the body and wait for the response head
+        int send(HttpURLConnection conn) throws IOException {
+            long time = System.nanoTime();
             conn.connect();
-            if (conn.getDoOutput())
-                writePost(data, conn.getOutputStream(), mimeBoundary);
-
-            List<String> respCookies = conn.getHeaderFields().get(SET_COOKIE);
-            if (respCookies != null)
-                tmpCookies.putAll(getCookiesFrom(respCookies));
+            events.connectEnd(call, url, System.nanoTime() - time);
+            writeBody(conn);
 
+            time = System.nanoTime();
             int status = conn.getResponseCode();
+            events.responseHeadersEnd(call, url, status, System.nanoTime() - time);
+            return status;
+        }
+
+        // the response head of a hop sent by NioConnection.sendAsync() since the nanoTime has arrived
+        int received(NioConnection conn, long time) throws IOException {
+            final long connectNanos = conn.getConnectNanos();
+            events.connectEnd(call, url, connectNanos);
+            final int status = conn.getResponseCode();
+            events.responseHeadersEnd(call, url, status, System.nanoTime() - time - connectNanos);
+            return status;
+        }
+
+        // write the body of the hop, buffered by a connection of NioTransport until it's sent
+        void writeBody(HttpURLConnection conn) throws IOException {
+            if (!conn.getDoOutput())
+                return;
+            final long time = System.nanoTime();
+            final CountingOutputStream out = new CountingOutputStream(conn.getOutputStream());
+            if (multipart != null) {
+                multipart.writeTo(compress ? compressing(out, bodyEncoding) : out);
+            } else if (form != null) {
+                try (OutputStream o = out) {
+                    o.write(form);
+                }
+            }
+            events.requestBodyEnd(call, url, out.count, System.nanoTime() - time);
+        }
+
+        /**
+         * Store the cookies of the response, and move to the next hop if it's a redirect to follow.
+         *
+         * @return true if there's another hop to open
+         * @throws ProtocolException if redirected too many times
+         */
+        boolean follow(HttpURLConnection conn, int status) throws IOException {
+            final List<String> respCookies = Headers.of(conn.getHeaderFields()).getSetCookies();
+            if (!respCookies.isEmpty()) {
+                if (cookieJar != null)
+                    cookieJar.store(conn.getURL(), respCookies);
+                else
+                    tmpCookies.putAll(getCookiesFrom(respCookies));
+            }
+
             if (redirectsMax > 0 && status >= HTTP_MULT_CHOICE && status <= HTTP_TEMP_REDIRECT
                     && status != 306 && status != HTTP_NOT_MODIFIED) {
                 URL base = conn.getURL();
@@ -707,24 +1648,50 @@ public class HttpRequest {
                 if (loc != null) {
                     target = new URL(base, loc);
                 }
-                conn.disconnect();
+                if (keepAlive)
+                    drain(conn);
+                else
+                    conn.disconnect();
                 if (target == null) {
                     throw new SecurityException("Illegal URL redirect");
                 }
                 // always redirect with a get. any data param from original request are dropped.
                 if (status != HTTP_TEMP_REDIRECT) {
-                    if (hasRequestData)
-                        data.dataList.clear();
+                    data = null;// the data of the caller is left as is, it may be reused
                     method = Method.GET;
                 }
+                events.redirect(call, url, target, status);
                 url = target;
                 redirects++;
-                continue;
+                if (redirects > redirectsMax)
+                    throw new ProtocolException("Server redirected too many times (" + redirects + ")");
+                return true;
             }
-            return conn;
-        } while (redirects <= redirectsMax);
+            return false;
+        }
+    }
 
-        throw new ProtocolException("Server redirected too many times (" + redirects + ")");
+    // read the small body of a redirect to the end, so the socket can be reused for the next hop
+    private static void drain(HttpURLConnection conn) {
+        try {
+            InputStream in = conn.getErrorStream();
+            if (in == null)
+                in = conn.getInputStream();
+            try {
+                final byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+                long drained = 0;
+                int count;
+                while (drained <= MAX_DRAIN_SIZE && (count = in.read(buffer)) != -1) {
+                    drained += count;
+                }
+                if (drained > MAX_DRAIN_SIZE)
+                    conn.disconnect();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            conn.disconnect();
+        }
     }
 
     public static Data data(String name, Object value) {
@@ -735,12 +1702,33 @@ public class HttpRequest {
         return new Data().data(name, value);
     }
 
+    /**
+     * The parameters of a request, it's never modified by the requests and can be reused once built.
+     * Its url encoding is computed once and cached until a parameter is added.
+     */
     public static class Data {
         final List<String[]> dataList = new ArrayList<>();
+        final List<MultipartBody.Part> parts = new ArrayList<>();// files, sent as multipart/form-data
+        private volatile byte[] encoded;// cleared when a parameter is added
+        private volatile String encodedQuery;
 
         Data() {
         }
 
+        byte[] encodedForm() {
+            byte[] form = encoded;
+            if (form == null)
+                encoded = form = FormEncoder.encode(dataList);
+            return form;
+        }
+
+        String encodedQuery() {
+            String query = encodedQuery;
+            if (query == null)
+                encodedQuery = query = new String(encodedForm(), StandardCharsets.ISO_8859_1);
+            return query;
+        }
+
         public Data data(String name, Object value) {
             return data(name, String.valueOf(value));
         }
@@ -748,6 +1736,44 @@ public class HttpRequest {
         public Data data(String name, String value) {
             String[] data = {name, value};
             dataList.add(data);
+            encoded = null;
+            encodedQuery = null;
+            return this;
+        }
+
+        /**
+         * Add a file, the request is sent as {@code multipart/form-data} with the exact length.
+         *
+         * @param name        form field name
+         * @param file        streamed from the disk when the request is sent
+         * @param contentType nullable, {@code application/octet-stream} if null
+         * @return this
+         */
+        public Data file(String name, Path file, String contentType) {
+            parts.add(MultipartBody.Part.of(name, file, contentType));
+            return this;
+        }
+
+        /**
+         * @see #file(String, Path, String)
+         */
+        public Data file(String name, String filename, byte[] content, String contentType) {
+            parts.add(MultipartBody.Part.of(name, filename, content, contentType));
+            return this;
+        }
+
+        /**
+         * Add a file read from a stream, it's closed once sent and can't be sent again.
+         *
+         * @param name        form field name
+         * @param filename    file name
+         * @param in          content
+         * @param length      length of the content, -1 if unknown and the request is sent chunked
+         * @param contentType nullable, {@code application/octet-stream} if null
+         * @return this
+         */
+        public Data file(String name, String filename, InputStream in, long length, String contentType) {
+            parts.add(MultipartBody.Part.of(name, filename, in, length, contentType));
             return this;
         }
     }
@@ -771,16 +1797,49 @@ public class HttpRequest {
     public static class Async implements Runnable {
         static volatile ExecutorService executor;
 
-        static ExecutorService getExecutor() {
+        /**
+         * Get the default executor of async requests, it's created on first use.
+         * <p>It starts a virtual thread per request on Java 21+, otherwise it's an unbounded pool of daemon threads.</p>
+         *
+         * @return the default executor
+         */
+        public static ExecutorService getExecutor() {
             if (executor == null) {
                 synchronized (Async.class) {
                     if (executor == null)
-                        executor = Executors.newFixedThreadPool(3);
+                        executor = newDefaultExecutor();
                 }
             }
             return executor;
         }
 
+        /**
+         * Shut down the default executor, requests already submitted still run.
+         * <p>A new default executor is created if async requests are made again.</p>
+         */
+        public static void shutdown() {
+            synchronized (Async.class) {
+                if (executor != null) {
+                    executor.shutdown();
+                    executor = null;
+                }
+            }
+        }
+
+        private static ExecutorService newDefaultExecutor() {
+            try {
+                // Java 21+, looked up reflectively to stay compatible with Java 8
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException ignored) {
+            }
+            final AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "HttpRequest-async-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
         final Callable<HttpRequest> callable;
         final Method method;
         final Data data;
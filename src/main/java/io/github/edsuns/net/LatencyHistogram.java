@@ -0,0 +1,95 @@
+package io.github.edsuns.net;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations with power of two buckets in microseconds,
+ * percentiles are interpolated within their bucket.
+ */
+public final class LatencyHistogram {
+    private static final int BUCKETS = 40;// up to about 2^39 microseconds, 6 days
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        final long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+        buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+        sum.add(micros);
+        long current;
+        while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) ;
+    }
+
+    public Snapshot snapshot() {
+        final long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return new Snapshot(counts, sum.sum(), max.get());
+    }
+
+    /**
+     * Immutable state of a histogram, durations are in microseconds.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long sum, long max) {
+            this.counts = counts;
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            this.count = total;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @param percentile like 0.99
+         * @return linear interpolation of the rank of the percentile within its bucket, never above the max
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0)
+                return 0;
+            final long rank = Math.max(1, (long) Math.ceil(percentile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (seen + counts[i] >= rank) {
+                    if (i == 0)
+                        return 0;
+                    final long lower = 1L << (i - 1);
+                    final long upper = Math.max(lower, Math.min(max, (1L << i) - 1));
+                    return lower + (long) ((upper - lower) * ((double) (rank - seen) / counts[i]));
+                }
+                seen += counts[i];
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + " mean=" + getMean() + "us p50=" + getPercentile(0.5)
+                    + "us p99=" + getPercentile(0.99) + "us max=" + max + "us";
+        }
+    }
+}
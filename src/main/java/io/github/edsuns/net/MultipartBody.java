@@ -0,0 +1,143 @@
+package io.github.edsuns.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@code multipart/form-data} body streamed part by part, the content of the files is never held in memory.
+ */
+final class MultipartBody {
+    private static final int BUFFER_SIZE = 1024 * 16;
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final List<Object> segments = new ArrayList<>();// byte[] or Part
+
+    MultipartBody(HttpRequest.Data data, String boundary) {
+        for (String[] keyVal : data.dataList) {
+            segments.add(bytes("--" + boundary + "\r\n"
+                    + "Content-Disposition: form-data; name=\"" + encodeMimeName(keyVal[0]) + "\"\r\n\r\n"
+                    + keyVal[1] + "\r\n"));
+        }
+        for (Part part : data.parts) {
+            segments.add(bytes("--" + boundary + "\r\n"
+                    + "Content-Disposition: form-data; name=\"" + encodeMimeName(part.name)
+                    + "\"; filename=\"" + encodeMimeName(part.filename) + "\"\r\n"
+                    + "Content-Type: " + part.contentType + "\r\n\r\n"));
+            segments.add(part);
+            segments.add(CRLF);
+        }
+        segments.add(bytes("--" + boundary + "--"));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String encodeMimeName(String val) {
+        return val.replace("\"", "%22");
+    }
+
+    /**
+     * @return length in bytes, -1 if the length of a part is unknown
+     * @throws IOException if the size of a file can't be read
+     */
+    long length() throws IOException {
+        long length = 0;
+        for (Object segment : segments) {
+            if (segment instanceof byte[]) {
+                length += ((byte[]) segment).length;
+            } else {
+                final long partLength = ((Part) segment).length();
+                if (partLength < 0)
+                    return -1;
+                length += partLength;
+            }
+        }
+        return length;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        for (Object segment : segments) {
+            if (segment instanceof byte[])
+                out.write((byte[]) segment);
+            else
+                ((Part) segment).writeTo(out, buffer);
+        }
+        out.close();
+    }
+
+    /**
+     * A file of the form, backed by a {@link Path}, {@code byte[]} or {@link InputStream}.
+     */
+    static final class Part {
+        final String name;
+        final String filename;
+        final String contentType;
+        private final Path file;
+        private final byte[] content;
+        private final InputStream stream;
+        private final long streamLength;
+        private boolean consumed;
+
+        private Part(String name, String filename, String contentType,
+                     Path file, byte[] content, InputStream stream, long streamLength) {
+            this.name = name;
+            this.filename = filename;
+            this.contentType = contentType == null ? "application/octet-stream" : contentType;
+            this.file = file;
+            this.content = content;
+            this.stream = stream;
+            this.streamLength = streamLength;
+        }
+
+        static Part of(String name, Path file, String contentType) {
+            return new Part(name, file.getFileName().toString(), contentType, file, null, null, -1);
+        }
+
+        static Part of(String name, String filename, byte[] content, String contentType) {
+            return new Part(name, filename, contentType, null, content, null, -1);
+        }
+
+        static Part of(String name, String filename, InputStream stream, long length, String contentType) {
+            return new Part(name, filename, contentType, null, null, stream, length);
+        }
+
+        long length() throws IOException {
+            if (file != null)
+                return Files.size(file);
+            if (content != null)
+                return content.length;
+            return streamLength;
+        }
+
+        void writeTo(OutputStream out, byte[] buffer) throws IOException {
+            if (content != null) {
+                out.write(content);
+                return;
+            }
+            if (stream != null) {
+                if (consumed)
+                    throw new IOException("The stream of part \"" + name + "\" has already been sent");
+                consumed = true;
+            }
+            final long expected = length();
+            long written = 0;
+            try (InputStream in = file != null ? Files.newInputStream(file) : stream) {
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                    written += count;
+                }
+            }
+            if (expected >= 0 && written != expected)
+                throw new IOException("Part \"" + name + "\" has " + written + " bytes instead of " + expected);
+        }
+    }
+}
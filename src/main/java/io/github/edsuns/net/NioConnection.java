@@ -0,0 +1,585 @@
+package io.github.edsuns.net;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>The {@link HttpURLConnection} of {@link NioTransport}.</p>
+ * <p>The socket is driven by an event loop, the calling thread only waits for the response head and reads the
+ * body buffered by the event loop. Like the connection of the JDK, {@link #connect()} opens the socket, and the
+ * request is sent when the response is accessed for the first time.</p>
+ * <p>{@link #sendAsync()} sends the request without any waiting thread, its timeouts run on the event loop.</p>
+ * <p>An idle socket of the pool is taken if there's one. If it turns out to be closed by the server before any
+ * byte of the response arrives, the request is sent again once on a new socket.</p>
+ */
+final class NioConnection extends HttpURLConnection implements NioSocket.Listener {
+    private final NioTransport transport;
+    private final Proxy proxy;
+    private NioTransport.EventLoop loop;
+    private volatile NioSocket socket;// read by disconnecting threads
+    private boolean reusedSocket;
+    private Map<String, List<String>> requestHeaders;
+    private ByteArrayOutputStream requestBody;
+    private boolean sent;
+    // the exchange, kept on the event loop for sending again
+    private ByteBuffer request;
+    private boolean headRequest;
+    private boolean reuse;
+    private boolean resending;
+    private boolean sendOnConnect;// sent by sendAsync() once connected
+    private long sendStart;// nanoTime of sendAsync()
+    private long connectNanos = -1;// set on the event loop before the response head
+    private IOException failure;// of the exchange, thrown again by later calls
+    private HttpRequest call;
+    private EventListener events = EventListener.NONE;
+
+    private final CompletableFuture<Void> connectFuture = new CompletableFuture<>();
+    private final CompletableFuture<Void> headFuture = new CompletableFuture<>();
+    private String statusLine;
+    private int status = -1;
+    private List<String[]> headerList;
+    private Map<String, List<String>> headerFields;
+    private final BodyStream body = new BodyStream();
+
+    NioConnection(NioTransport transport, URL url, Proxy proxy) {
+        super(url);
+        this.transport = transport;
+        this.proxy = proxy;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (connected)
+            return;
+        final NioSocket s = openSocket();
+        if (s != null) {
+            loop.execute(() -> s.connect(this));
+            await(connectFuture, getConnectTimeout(), "connect timed out");
+        }
+        connected = true;
+    }
+
+    // take an idle socket of the pool, or create one returned to be connected
+    private NioSocket openSocket() throws IOException {
+        // request headers can't be read once connected
+        requestHeaders = getRequestProperties();
+        final String key = poolKey();
+        final NioSocket idle = transport.acquire(key);
+        if (idle != null) {
+            loop = idle.loop;
+            socket = idle;
+            reusedSocket = true;
+            connectFuture.complete(null);
+            return null;
+        }
+        loop = transport.nextLoop();
+        final NioSocket s = transport.newSocket(loop, targetAddress(), key);
+        socket = s;
+        return s;
+    }
+
+    /**
+     * Connect and send the request without blocking, the request headers and body must be set before.
+     *
+     * @return completes on the event loop when the response head has arrived, or fails like
+     * {@link #getResponseCode()} would
+     */
+    CompletableFuture<Void> sendAsync() {
+        try {
+            if (sent)
+                throw new IllegalStateException("Already sent");
+            if (body.closed())
+                throw new SocketException("Socket closed");// disconnected before sending
+            final NioSocket fresh = connected ? null : openSocket();
+            connected = true;
+            sent = true;
+            request = encodeRequest();
+            headRequest = "HEAD".equals(method);
+            sendStart = System.nanoTime();
+            final NioSocket s = socket;
+            loop.execute(() -> {
+                if (fresh == null) {
+                    connectNanos = 0;
+                    send(s);
+                    return;
+                }
+                final int connectTimeout = getConnectTimeout();
+                if (connectTimeout > 0) {
+                    loop.schedule(connectTimeout, () -> {
+                        if (!connectFuture.isDone())
+                            timeOut(new SocketTimeoutException("connect timed out"));
+                    });
+                }
+                sendOnConnect = true;
+                fresh.connect(this);
+            });
+        } catch (IOException e) {
+            failure = e;
+            headFuture.completeExceptionally(e);
+        }
+        return headFuture;
+    }
+
+    /**
+     * @return nanoseconds until the connection of {@link #sendAsync()} was ready, -1 if not connected,
+     * 0 for a socket of the pool
+     */
+    long getConnectNanos() {
+        return connectNanos;
+    }
+
+    // on the event loop, the response head must arrive within the read timeout like a blocking read
+    private void send(NioSocket s) {
+        final int readTimeout = getReadTimeout();
+        if (readTimeout > 0) {
+            loop.schedule(readTimeout, () -> {
+                if (!headFuture.isDone())
+                    timeOut(new SocketTimeoutException("Read timed out"));
+            });
+        }
+        s.send(request, headRequest, reuse, this);
+    }
+
+    private void timeOut(SocketTimeoutException e) {
+        connectFuture.completeExceptionally(e);
+        headFuture.completeExceptionally(e);
+        disconnect();// closed body, no sending again
+    }
+
+    private String poolKey() {
+        if (proxy != null)
+            return "proxy " + proxy.address();
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        return url.getHost().toLowerCase(Locale.ENGLISH) + ':' + port;
+    }
+
+    private InetSocketAddress targetAddress() throws UnknownHostException {
+        if (proxy != null) {
+            InetSocketAddress address = (InetSocketAddress) proxy.address();
+            if (address.isUnresolved())
+                return new InetSocketAddress(resolve(address.getHostString()), address.getPort());
+            return address;
+        }
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        return new InetSocketAddress(resolve(url.getHost()), port);
+    }
+
+    // only for a new socket, a socket of the pool is already connected
+    private InetAddress resolve(String host) throws UnknownHostException {
+        final long time = System.nanoTime();
+        final InetAddress[] addresses = transport.resolve(host);
+        events.dnsEnd(call, host, addresses, System.nanoTime() - time);
+        return addresses[0];
+    }
+
+    /**
+     * Report the host resolution of this connection, must be set before connecting.
+     */
+    void eventListener(HttpRequest call, EventListener events) {
+        this.call = call;
+        this.events = events;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (!doOutput)
+            throw new ProtocolException("cannot write to a URLConnection if doOutput=false - call setDoOutput(true)");
+        if (sent)
+            throw new ProtocolException("Cannot write output after reading input.");
+        // buffered and sent with the head, connecting can wait
+        if (requestBody == null)
+            requestBody = new ByteArrayOutputStream();
+        return requestBody;
+    }
+
+    // send the request if not yet sent, and wait for the response head
+    private void ensureResponse() throws IOException {
+        if (failure != null)
+            throw failure;
+        if (!sent) {
+            connect();
+            sent = true;
+            request = encodeRequest();
+            headRequest = "HEAD".equals(method);
+            final NioSocket s = socket;
+            loop.execute(() -> s.send(request, headRequest, reuse, this));
+        }
+        try {
+            await(headFuture, getReadTimeout(), "Read timed out");
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        }
+    }
+
+    private ByteBuffer encodeRequest() {
+        final StringBuilder head = new StringBuilder(256);
+        head.append(method).append(' ');
+        if (proxy != null) {
+            head.append(url.getProtocol()).append("://").append(url.getAuthority());
+        }
+        final String file = url.getFile();
+        head.append(file.isEmpty() ? "/" : file).append(" HTTP/1.1\r\n");
+        boolean hasHost = false, hasConnection = false, close = false;
+        for (Map.Entry<String, List<String>> header : requestHeaders.entrySet()) {
+            final String name = header.getKey();
+            if (name == null || name.equalsIgnoreCase(HttpRequest.CONTENT_LENGTH))
+                continue;
+            hasHost |= name.equalsIgnoreCase("Host");
+            if (name.equalsIgnoreCase("Connection")) {
+                hasConnection = true;
+                for (String value : header.getValue()) {
+                    close |= value.toLowerCase(Locale.ENGLISH).contains("close");
+                }
+            }
+            for (String value : header.getValue()) {
+                head.append(name).append(": ").append(value).append("\r\n");
+            }
+        }
+        if (!hasHost) {
+            head.append("Host: ").append(url.getHost());
+            if (url.getPort() != -1 && url.getPort() != url.getDefaultPort())
+                head.append(':').append(url.getPort());
+            head.append("\r\n");
+        }
+        reuse = transport.isPooling() && !close;
+        if (!hasConnection && !reuse)
+            head.append("Connection: close\r\n");
+        if (requestBody != null || doOutput)
+            head.append("Content-Length: ").append(requestBody == null ? 0 : requestBody.size()).append("\r\n");
+        head.append("\r\n");
+        final byte[] headBytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+        final int bodyLength = requestBody == null ? 0 : requestBody.size();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(headBytes.length + bodyLength);
+        out.write(headBytes, 0, headBytes.length);
+        if (requestBody != null) {
+            try {
+                requestBody.writeTo(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);// never thrown by ByteArrayOutputStream
+            }
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    private void await(CompletableFuture<Void> future, int timeout, String timeoutMessage) throws IOException {
+        try {
+            if (timeout > 0)
+                future.get(timeout, TimeUnit.MILLISECONDS);
+            else
+                future.get();
+        } catch (TimeoutException e) {
+            disconnect();
+            throw new SocketTimeoutException(timeoutMessage);
+        } catch (InterruptedException e) {
+            disconnect();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        ensureResponse();
+        return status;
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        ensureResponse();
+        int start = statusLine.indexOf(' ');
+        int end = start < 0 ? -1 : statusLine.indexOf(' ', start + 1);
+        return end < 0 ? null : statusLine.substring(end + 1);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (!doInput)
+            throw new ProtocolException("Cannot read from URLConnection if doInput=false (call setDoInput(true))");
+        ensureResponse();
+        if (status >= HTTP_BAD_REQUEST) {
+            if (status == HTTP_NOT_FOUND || status == HTTP_GONE)
+                throw new FileNotFoundException(url.toString());
+            throw new IOException("Server returned HTTP response code: " + status + " for URL: " + url);
+        }
+        return body;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        if (!sent || !headFuture.isDone() || headFuture.isCompletedExceptionally() || status < HTTP_BAD_REQUEST)
+            return null;
+        return body;
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        if (!headerAvailable())
+            return null;
+        if (n == 0)
+            return statusLine;
+        return n <= headerList.size() ? headerList.get(n - 1)[1] : null;
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        if (!headerAvailable() || n == 0)
+            return null;
+        return n <= headerList.size() ? headerList.get(n - 1)[0] : null;
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        if (!headerAvailable() || name == null)
+            return null;
+        // the last one like the connection of the JDK
+        for (int i = headerList.size() - 1; i >= 0; i--) {
+            String[] header = headerList.get(i);
+            if (header[0].equalsIgnoreCase(name))
+                return header[1];
+        }
+        return null;
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        if (!headerAvailable())
+            return Collections.emptyMap();
+        if (headerFields == null) {
+            // case-insensitive names, the status line has the null key
+            Map<String, List<String>> fields = new TreeMap<>(Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER));
+            fields.put(null, Collections.singletonList(statusLine));
+            for (String[] header : headerList) {
+                fields.computeIfAbsent(header[0], k -> new ArrayList<>(1)).add(header[1]);
+            }
+            for (Map.Entry<String, List<String>> field : fields.entrySet()) {
+                field.setValue(Collections.unmodifiableList(field.getValue()));
+            }
+            headerFields = Collections.unmodifiableMap(fields);
+        }
+        return headerFields;
+    }
+
+    private boolean headerAvailable() {
+        try {
+            ensureResponse();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        body.close();
+        closeSocket();
+    }
+
+    // close the socket unless it has been handed over to another connection by the pool
+    private void closeSocket() {
+        final NioSocket s = socket;
+        if (s != null) {
+            final boolean idle = transport.evict(s);// taken out now, before another request gets it
+            try {
+                s.loop.execute(idle ? s::close : () -> s.close(this));
+            } catch (SocketException ignored) {
+                // the event loop is stopped, the socket is closed by it
+            }
+        }
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return proxy != null;
+    }
+
+    // NioSocket.Listener, called on the event loop
+
+    @Override
+    public void onConnected() {
+        connectFuture.complete(null);
+        if (resending) {
+            socket.send(ByteBuffer.wrap(request.array()), headRequest, reuse, this);
+        } else if (sendOnConnect) {
+            connectNanos = System.nanoTime() - sendStart;
+            send(socket);
+        }
+    }
+
+    @Override
+    public void onResponseHead(String statusLine, int status, List<String[]> headers) {
+        this.statusLine = statusLine;
+        this.status = status;
+        this.headerList = headers;
+        this.responseCode = status;
+        headFuture.complete(null);
+    }
+
+    @Override
+    public void onBody(byte[] buffer, int offset, int length) {
+        if (body.offer(buffer, offset, length))
+            socket.pauseReading();
+    }
+
+    @Override
+    public void onComplete() {
+        body.finish(null);
+    }
+
+    @Override
+    public void onFailure(IOException e) {
+        final NioSocket s = socket;
+        if (reusedSocket && !resending && request != null && !s.isResponseStarted() && !body.closed()) {
+            // the idle socket was closed by the server, send again on a new socket
+            resending = true;
+            final NioSocket fresh = transport.newSocket(loop, s.address, s.poolKey);
+            socket = fresh;
+            fresh.connect(this);
+            return;
+        }
+        connectFuture.completeExceptionally(e);
+        headFuture.completeExceptionally(e);
+        body.finish(e);
+    }
+
+    /**
+     * Body bytes handed over by the event loop. Reading pauses the socket while too many bytes are buffered.
+     */
+    private final class BodyStream extends InputStream {
+        private static final int HIGH_WATER_MARK = 1024 * 256;
+        private static final int LOW_WATER_MARK = 1024 * 64;
+
+        private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+        private byte[] current;
+        private int position;
+        private long buffered;
+        private boolean finished;
+        private IOException failure;
+        private boolean closed;
+        private boolean paused;
+
+        // returns true if the socket should pause reading
+        synchronized boolean offer(byte[] buffer, int offset, int length) {
+            if (closed)
+                return false;
+            chunks.add(Arrays.copyOfRange(buffer, offset, offset + length));
+            buffered += length;
+            notifyAll();
+            if (!paused && buffered > HIGH_WATER_MARK) {
+                paused = true;
+                return true;
+            }
+            return false;
+        }
+
+        synchronized void finish(IOException failure) {
+            if (finished)
+                return;
+            finished = true;
+            this.failure = failure;
+            notifyAll();
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            while (current == null || position == current.length) {
+                if (closed)
+                    throw new IOException("Stream closed");
+                current = chunks.poll();
+                position = 0;
+                if (current != null)
+                    break;
+                if (finished) {
+                    if (failure != null)
+                        throw failure;
+                    return -1;
+                }
+                awaitData();
+            }
+            final int count = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, count);
+            position += count;
+            buffered -= count;
+            if (paused && buffered < LOW_WATER_MARK) {
+                paused = false;
+                final NioSocket s = socket;
+                loop.execute(() -> {
+                    if (!finished())
+                        s.resumeReading();
+                });
+            }
+            return count;
+        }
+
+        private void awaitData() throws IOException {
+            final int timeout = getReadTimeout();
+            try {
+                if (timeout <= 0) {
+                    wait();
+                    return;
+                }
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+                long left;
+                while (chunks.isEmpty() && !finished && !closed
+                        && (left = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+                }
+                if (chunks.isEmpty() && !finished && !closed) {
+                    closeSocket();
+                    throw new SocketTimeoutException("Read timed out");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        @Override
+        public synchronized int available() {
+            return (int) Math.min(buffered, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed)
+                    return;
+                closed = true;
+                chunks.clear();
+                current = null;
+                notifyAll();
+            }
+            // the socket is used by this exchange only
+            if (!finished())
+                closeSocket();
+        }
+
+        synchronized boolean finished() {
+            return finished;
+        }
+
+        synchronized boolean closed() {
+            return closed;
+        }
+    }
+}
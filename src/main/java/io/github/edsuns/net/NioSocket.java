@@ -0,0 +1,449 @@
+package io.github.edsuns.net;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * <p>A non-blocking HTTP/1.1 client socket driven by a {@link NioTransport.EventLoop}.</p>
+ * <p>It writes one request at a time and parses the response incrementally as bytes arrive:
+ * status line, headers, then a content-length, chunked or read-until-close body.
+ * A persistent socket goes back to the idle pool of the transport when the exchange completes.
+ * Every method must be called on the thread of the event loop.</p>
+ */
+final class NioSocket {
+    private static final int BUFFER_SIZE = 1024 * 16;
+    private static final int MAX_HEAD_SIZE = 1024 * 64;// status line and headers
+
+    // parser states
+    private static final int IDLE = 0;
+    private static final int STATUS_LINE = 1;
+    private static final int HEADERS = 2;
+    private static final int BODY_LENGTH = 3;
+    private static final int CHUNK_SIZE = 4;
+    private static final int CHUNK_DATA = 5;
+    private static final int CHUNK_END = 6;// CRLF after chunk data
+    private static final int TRAILERS = 7;
+    private static final int BODY_UNTIL_CLOSE = 8;
+    private static final int CLOSED = 9;
+
+    /**
+     * Receives the events of an exchange, on the thread of the event loop.
+     */
+    interface Listener {
+        void onConnected();
+
+        void onResponseHead(String statusLine, int status, List<String[]> headers);
+
+        void onBody(byte[] buffer, int offset, int length);
+
+        void onComplete();
+
+        void onFailure(IOException e);
+    }
+
+    final NioTransport transport;
+    final NioTransport.EventLoop loop;
+    final InetSocketAddress address;
+    final String poolKey;
+    long idleSince;// guarded by the idle pool
+    private SocketChannel channel;
+    private SelectionKey key;
+    private Listener listener;
+    private ByteBuffer request;
+    private final ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+    private boolean readPaused;
+
+    private int state = IDLE;
+    private boolean headRequest;
+    private boolean reuse;// of this exchange, asked by the request
+    private boolean persistent;// of this exchange, allowed by the response
+    private boolean responseStarted;
+    private long remaining;// of the content-length body or the current chunk
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private int headSize;
+    private String statusLine;
+    private int status;
+    private List<String[]> headers;
+
+    NioSocket(NioTransport transport, NioTransport.EventLoop loop, InetSocketAddress address, String poolKey) {
+        this.transport = transport;
+        this.loop = loop;
+        this.address = address;
+        this.poolKey = poolKey;
+    }
+
+    void connect(Listener listener) {
+        this.listener = listener;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            key = loop.register(channel, this);
+            if (channel.connect(address)) {
+                key.interestOps(SelectionKey.OP_READ);
+                listener.onConnected();
+            } else {
+                key.interestOps(SelectionKey.OP_CONNECT);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Write the request, the response is reported to the listener.
+     *
+     * @param request     head and body of the request
+     * @param headRequest true if the response has no body
+     * @param reuse       true if the socket may be kept alive after the exchange
+     * @param listener    listener of the exchange
+     */
+    void send(ByteBuffer request, boolean headRequest, boolean reuse, Listener listener) {
+        if (state == CLOSED) {
+            listener.onFailure(new SocketException("Socket closed"));
+            return;
+        }
+        this.listener = listener;
+        this.request = request;
+        this.headRequest = headRequest;
+        this.reuse = reuse;
+        startResponse();
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    void pauseReading() {
+        if (!readPaused && state != CLOSED) {
+            readPaused = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    void resumeReading() {
+        if (readPaused && state != CLOSED) {
+            readPaused = false;
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    boolean isClosed() {
+        return state == CLOSED;
+    }
+
+    /**
+     * @return true if any byte of the response has been received, a request failing before that
+     * on a reused socket can be sent again on a new one
+     */
+    boolean isResponseStarted() {
+        return responseStarted;
+    }
+
+    /**
+     * Close the socket if it's still used by the listener, or idle in the pool.
+     * A socket already handed over to another request is left alone.
+     *
+     * @param owner listener of the exchange
+     */
+    void close(Listener owner) {
+        if (state == CLOSED)
+            return;
+        if (listener == owner || (listener == null && state == IDLE && transport.evict(this)))
+            close();
+    }
+
+    // back to the pool, reading stays on to notice the server closing it
+    private void idle() {
+        readPaused = false;
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Close the socket, the exchange in progress fails.
+     */
+    void close() {
+        if (state == CLOSED)
+            return;
+        final boolean inProgress = state != IDLE;
+        state = CLOSED;
+        transport.evict(this);
+        if (key != null)
+            key.cancel();
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+        if (inProgress && listener != null) {
+            Listener l = listener;
+            listener = null;
+            l.onFailure(new SocketException("Socket closed"));
+        }
+    }
+
+    void fail(IOException e) {
+        Listener l = listener;
+        listener = null;
+        state = IDLE;// not in progress anymore, close() must not report it again
+        close();
+        if (l != null)
+            l.onFailure(e);
+    }
+
+    // called by the event loop with the ready operations
+    void handle(SelectionKey key) {
+        try {
+            if (key.isConnectable()) {
+                channel.finishConnect();
+                key.interestOps(SelectionKey.OP_READ);
+                listener.onConnected();
+            }
+            if (key.isValid() && key.isWritable()) {
+                channel.write(request);
+                if (!request.hasRemaining()) {
+                    request = null;
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                }
+            }
+            if (key.isValid() && key.isReadable()) {
+                read();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void read() throws IOException {
+        final int count = channel.read(in);
+        if (count > 0 && state == IDLE) {
+            close();// nothing is expected while idle
+            return;
+        }
+        if (count > 0)
+            responseStarted = true;
+        if (count < 0) {
+            if (state == BODY_UNTIL_CLOSE) {
+                complete();
+                close();
+            } else if (state == IDLE) {
+                close();// closed by the server while idle
+            } else {
+                throw new EOFException("Unexpected end of stream from " + address);
+            }
+            return;
+        }
+        ((Buffer) in).flip();
+        parse();
+        in.compact();
+    }
+
+    private void startResponse() {
+        state = STATUS_LINE;
+        lineLength = 0;
+        headSize = 0;
+        statusLine = null;
+        status = -1;
+        headers = new ArrayList<>();
+    }
+
+    private void parse() throws IOException {
+        while (in.hasRemaining() && state != IDLE && state != CLOSED) {
+            switch (state) {
+                case STATUS_LINE:
+                case HEADERS:
+                case CHUNK_SIZE:
+                case CHUNK_END:
+                case TRAILERS:
+                    String text = readLine();
+                    if (text != null)
+                        onLine(text);
+                    break;
+                case BODY_LENGTH:
+                case CHUNK_DATA:
+                case BODY_UNTIL_CLOSE:
+                    int length = in.remaining();
+                    if (state != BODY_UNTIL_CLOSE && remaining < length)
+                        length = (int) remaining;
+                    listener.onBody(in.array(), in.arrayOffset() + in.position(), length);
+                    ((Buffer) in).position(in.position() + length);
+                    if (state != BODY_UNTIL_CLOSE) {
+                        remaining -= length;
+                        if (remaining == 0) {
+                            if (state == BODY_LENGTH)
+                                complete();
+                            else
+                                state = CHUNK_END;
+                        }
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown state " + state);
+            }
+        }
+    }
+
+    // a line without CRLF, or null if the line isn't complete yet
+    private String readLine() throws ProtocolException {
+        while (in.hasRemaining()) {
+            final byte b = in.get();
+            if (++headSize > MAX_HEAD_SIZE)
+                throw new ProtocolException("Response head is too large from " + address);
+            if (b == '\n') {
+                int length = lineLength;
+                if (length > 0 && line[length - 1] == '\r')
+                    length--;
+                lineLength = 0;
+                return new String(line, 0, length, StandardCharsets.ISO_8859_1);
+            }
+            if (lineLength == line.length)
+                line = Arrays.copyOf(line, line.length << 1);
+            line[lineLength++] = b;
+        }
+        return null;
+    }
+
+    private void onLine(String text) throws IOException {
+        switch (state) {
+            case STATUS_LINE:
+                if (text.isEmpty())
+                    return;// tolerate empty lines before the status line
+                parseStatusLine(text);
+                state = HEADERS;
+                break;
+            case HEADERS:
+                if (text.isEmpty()) {
+                    onHeadersEnd();
+                } else if ((text.charAt(0) == ' ' || text.charAt(0) == '\t') && !headers.isEmpty()) {
+                    // obsolete line folding
+                    String[] last = headers.get(headers.size() - 1);
+                    last[1] = last[1] + ' ' + text.trim();
+                } else {
+                    int colon = text.indexOf(':');
+                    if (colon <= 0)
+                        throw new ProtocolException("Invalid response header: " + text);
+                    headers.add(new String[]{text.substring(0, colon).trim(), text.substring(colon + 1).trim()});
+                }
+                break;
+            case CHUNK_SIZE:
+                int end = text.indexOf(';');// ignore chunk extensions
+                String size = (end < 0 ? text : text.substring(0, end)).trim();
+                try {
+                    remaining = Long.parseLong(size, 16);
+                } catch (NumberFormatException e) {
+                    throw new ProtocolException("Invalid chunk size: " + text);
+                }
+                if (remaining < 0)
+                    throw new ProtocolException("Invalid chunk size: " + text);
+                state = remaining == 0 ? TRAILERS : CHUNK_DATA;
+                break;
+            case CHUNK_END:
+                if (!text.isEmpty())
+                    throw new ProtocolException("Missing CRLF after chunk");
+                state = CHUNK_SIZE;
+                break;
+            case TRAILERS:
+                if (text.isEmpty())
+                    complete();
+                break;
+            default:
+                throw new IllegalStateException("Unknown state " + state);
+        }
+    }
+
+    private void parseStatusLine(String text) throws ProtocolException {
+        // HTTP/1.1 200 OK
+        if (!text.startsWith("HTTP/"))
+            throw new ProtocolException("Invalid status line: " + text);
+        int start = text.indexOf(' ');
+        if (start < 0)
+            throw new ProtocolException("Invalid status line: " + text);
+        int end = text.indexOf(' ', start + 1);
+        try {
+            status = Integer.parseInt(end < 0 ? text.substring(start + 1) : text.substring(start + 1, end));
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Invalid status line: " + text);
+        }
+        statusLine = text;
+    }
+
+    private void onHeadersEnd() throws ProtocolException {
+        if (status >= 100 && status < 200) {
+            startResponse();// interim response like 100 Continue
+            return;
+        }
+        persistent = isPersistent();
+        listener.onResponseHead(statusLine, status, headers);
+        if (listener == null)
+            return;// failed by the listener
+        if (headRequest || status == 204 || status == 304) {
+            complete();
+            return;
+        }
+        String transferEncoding = header("Transfer-Encoding");
+        String contentLength = header("Content-Length");
+        if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ENGLISH).contains("chunked")) {
+            state = CHUNK_SIZE;
+        } else if (contentLength != null) {
+            try {
+                remaining = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Invalid Content-Length: " + contentLength);
+            }
+            if (remaining < 0)
+                throw new ProtocolException("Invalid Content-Length: " + contentLength);
+            state = BODY_LENGTH;
+            if (remaining == 0)
+                complete();
+        } else {
+            state = BODY_UNTIL_CLOSE;
+            persistent = false;
+        }
+    }
+
+    private boolean isPersistent() {
+        String connection = header("Connection");
+        connection = connection == null ? "" : connection.toLowerCase(Locale.ENGLISH);
+        if (statusLine.startsWith("HTTP/1.0"))
+            return connection.contains("keep-alive");
+        return !connection.contains("close");
+    }
+
+    private String header(String name) {
+        for (String[] header : headers) {
+            if (header[0].equalsIgnoreCase(name))
+                return header[1];
+        }
+        return null;
+    }
+
+    private void complete() {
+        // the request must be fully written and nothing must be left unparsed
+        final boolean keepAlive = reuse && persistent && request == null && !in.hasRemaining();
+        state = IDLE;
+        responseStarted = false;
+        Listener l = listener;
+        listener = null;
+        // back to the pool before the listener is told, the next request may come right after
+        if (keepAlive) {
+            idle();
+            if (!transport.release(this))
+                close();
+        } else {
+            close();
+        }
+        if (l != null)
+            l.onComplete();
+    }
+}
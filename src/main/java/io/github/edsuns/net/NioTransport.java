@@ -0,0 +1,417 @@
+package io.github.edsuns.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.*;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A non-blocking HTTP/1.1 transport, a few event loop threads drive the sockets of all the requests
+ * with {@link Selector}s.</p>
+ * <p>Only plain http urls, directly or through an http proxy, go through the event loops.
+ * Other urls fall back to {@link Transport#DEFAULT}. Request bodies are buffered before sending.</p>
+ * <p>Persistent connections are kept in a per-host idle pool and reused by later requests.
+ * {@link HttpURLConnection#disconnect()} closes the connection like the JDK does,
+ * use {@link HttpRequest#keepAlive(boolean)} to leave it to the pool.</p>
+ */
+public class NioTransport implements Transport, Closeable {
+    private static final int DEFAULT_EVENT_LOOPS = 2;
+    private static final int DEFAULT_MAX_IDLE_PER_HOST = 5;
+    private static final long DEFAULT_IDLE_TIMEOUT = 5000;// milliseconds, like the keep-alive cache of the JDK
+    private static final long EVICTION_INTERVAL = 1000;// milliseconds
+
+    private final EventLoop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile int maxIdlePerHost = DEFAULT_MAX_IDLE_PER_HOST;
+    private volatile long idleTimeout = TimeUnit.MILLISECONDS.toNanos(DEFAULT_IDLE_TIMEOUT);
+    private final Map<String, ArrayDeque<NioSocket>> idle = new HashMap<>();// guarded by itself
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private volatile Resolver resolver = Resolver.SYSTEM;
+
+    public NioTransport() throws IOException {
+        this(DEFAULT_EVENT_LOOPS);
+    }
+
+    /**
+     * @param eventLoops number of event loop threads
+     * @throws IOException if a selector can't be opened
+     */
+    public NioTransport(int eventLoops) throws IOException {
+        if (eventLoops < 1)
+            throw new IllegalArgumentException("eventLoops must be positive");
+        loops = new EventLoop[eventLoops];
+        try {
+            for (int i = 0; i < eventLoops; i++) {
+                loops[i] = new EventLoop(this, "NioTransport-" + i);
+                loops[i].start();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param maxIdlePerHost max idle connections kept for every host, 0 to close connections after every exchange
+     * @return this
+     */
+    public NioTransport maxIdlePerHost(int maxIdlePerHost) {
+        if (maxIdlePerHost < 0)
+            throw new IllegalArgumentException("maxIdlePerHost must not be negative");
+        this.maxIdlePerHost = maxIdlePerHost;
+        return this;
+    }
+
+    /**
+     * @param idleTimeout milliseconds an idle connection is kept in the pool
+     * @return this
+     */
+    public NioTransport idleTimeout(long idleTimeout) {
+        if (idleTimeout < 0)
+            throw new IllegalArgumentException("idleTimeout must not be negative");
+        this.idleTimeout = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+        return this;
+    }
+
+    /**
+     * @param resolver resolves the hosts and http proxies, {@link Resolver#SYSTEM} by default
+     * @return this
+     * @see CachingResolver
+     */
+    public NioTransport resolver(Resolver resolver) {
+        if (resolver == null)
+            throw new NullPointerException("resolver");
+        this.resolver = resolver;
+        return this;
+    }
+
+    InetAddress[] resolve(String host) throws UnknownHostException {
+        return resolver.resolve(host);
+    }
+
+    boolean isPooling() {
+        return maxIdlePerHost > 0;
+    }
+
+    public Stats getStats() {
+        int idleCount = 0;
+        synchronized (idle) {
+            for (ArrayDeque<NioSocket> sockets : idle.values()) {
+                idleCount += sockets.size();
+            }
+        }
+        return new Stats(opened.get(), reused.get(), idleCount);
+    }
+
+    @Override
+    public HttpURLConnection open(URL url, Proxy proxy) throws IOException {
+        if (!"http".equals(url.getProtocol()) || (proxy != null && proxy.type() == Proxy.Type.SOCKS))
+            return DEFAULT.open(url, proxy);
+        return new NioConnection(this, url, proxy == null || proxy.type() == Proxy.Type.DIRECT ? null : proxy);
+    }
+
+    EventLoop nextLoop() {
+        return loops[(next.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+    }
+
+    NioSocket newSocket(EventLoop loop, InetSocketAddress address, String key) {
+        opened.incrementAndGet();
+        return new NioSocket(this, loop, address, key);
+    }
+
+    /**
+     * Take the most recently used idle socket of the key.
+     *
+     * @param key pool key
+     * @return null if there's none
+     */
+    NioSocket acquire(String key) {
+        final List<NioSocket> expired = new ArrayList<>();
+        NioSocket socket = null;
+        synchronized (idle) {
+            final ArrayDeque<NioSocket> sockets = idle.get(key);
+            final long now = System.nanoTime();
+            while (sockets != null && !sockets.isEmpty()) {
+                NioSocket candidate = sockets.pollLast();
+                if (now - candidate.idleSince < idleTimeout) {
+                    socket = candidate;
+                    break;
+                }
+                expired.add(candidate);
+            }
+            if (sockets != null && sockets.isEmpty())
+                idle.remove(key);
+        }
+        for (NioSocket s : expired) {
+            closeLater(s);
+        }
+        if (socket != null)
+            reused.incrementAndGet();
+        return socket;
+    }
+
+    // called on the event loop of the socket, false if the socket must be closed instead
+    boolean release(NioSocket socket) {
+        final int max = maxIdlePerHost;
+        if (max == 0 || !socket.loop.running)
+            return false;
+        synchronized (idle) {
+            final ArrayDeque<NioSocket> sockets = idle.computeIfAbsent(socket.poolKey, k -> new ArrayDeque<>());
+            if (sockets.size() >= max)
+                return false;
+            socket.idleSince = System.nanoTime();
+            sockets.addLast(socket);
+        }
+        return true;
+    }
+
+    // false if the socket isn't idle in the pool
+    boolean evict(NioSocket socket) {
+        synchronized (idle) {
+            final ArrayDeque<NioSocket> sockets = idle.get(socket.poolKey);
+            if (sockets == null || !sockets.remove(socket))
+                return false;
+            if (sockets.isEmpty())
+                idle.remove(socket.poolKey);
+            return true;
+        }
+    }
+
+    // called on the event loop
+    private void evictExpired(EventLoop loop) {
+        final List<NioSocket> expired = new ArrayList<>();
+        synchronized (idle) {
+            final long now = System.nanoTime();
+            for (Iterator<ArrayDeque<NioSocket>> it = idle.values().iterator(); it.hasNext(); ) {
+                final ArrayDeque<NioSocket> sockets = it.next();
+                for (Iterator<NioSocket> sit = sockets.iterator(); sit.hasNext(); ) {
+                    final NioSocket socket = sit.next();
+                    if (socket.loop == loop && now - socket.idleSince >= idleTimeout) {
+                        sit.remove();
+                        expired.add(socket);
+                    }
+                }
+                if (sockets.isEmpty())
+                    it.remove();
+            }
+        }
+        for (NioSocket socket : expired) {
+            socket.close();
+        }
+    }
+
+    private static void closeLater(NioSocket socket) {
+        try {
+            socket.loop.execute(socket::close);
+        } catch (SocketException ignored) {
+            // the event loop is stopped, the socket is closed by it
+        }
+    }
+
+    /**
+     * Stop the event loops, requests in progress fail.
+     */
+    @Override
+    public void close() {
+        for (EventLoop loop : loops) {
+            if (loop != null)
+                loop.shutdown();
+        }
+    }
+
+    /**
+     * Connections of the pool.
+     */
+    public static final class Stats {
+        private final long opened;
+        private final long reused;
+        private final int idle;
+
+        Stats(long opened, long reused, int idle) {
+            this.opened = opened;
+            this.reused = reused;
+            this.idle = idle;
+        }
+
+        /**
+         * @return number of connections opened
+         */
+        public long getOpened() {
+            return opened;
+        }
+
+        /**
+         * @return number of times an idle connection was taken from the pool
+         */
+        public long getReused() {
+            return reused;
+        }
+
+        /**
+         * @return number of idle connections in the pool now
+         */
+        public int getIdle() {
+            return idle;
+        }
+
+        /**
+         * @return share of the requests sent on a reused connection
+         */
+        public double getReuseRatio() {
+            final long total = opened + reused;
+            return total == 0 ? 0 : (double) reused / total;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{opened=" + opened + ", reused=" + reused + ", idle=" + idle + '}';
+        }
+    }
+
+    static final class EventLoop extends Thread {
+        private final NioTransport transport;
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final PriorityQueue<Timer> timers = new PriorityQueue<>();// only used on this thread
+        private volatile boolean running = true;
+
+        EventLoop(NioTransport transport, String name) throws IOException {
+            super(name);
+            setDaemon(true);
+            this.transport = transport;
+            selector = Selector.open();
+        }
+
+        /**
+         * Run the task on this event loop.
+         *
+         * @param task task, it must not block
+         * @throws SocketException if the event loop is stopped
+         */
+        void execute(Runnable task) throws SocketException {
+            if (!running)
+                throw new SocketException("Transport closed");
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Run the task on this event loop after the delay, must be called on this event loop.
+         *
+         * @param delay milliseconds
+         * @param task  task, it must not block
+         */
+        void schedule(long delay, Runnable task) {
+            timers.add(new Timer(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay), task));
+        }
+
+        SelectionKey register(SocketChannel channel, NioSocket socket) throws IOException {
+            return channel.register(selector, 0, socket);
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                runSafely(task);
+            }
+        }
+
+        private void runTimers() {
+            final long now = System.nanoTime();
+            Timer timer;
+            while ((timer = timers.peek()) != null && now - timer.deadline >= 0) {
+                timers.poll();
+                runSafely(timer.task);
+            }
+        }
+
+        private static void runSafely(Runnable task) {
+            try {
+                task.run();
+            } catch (RuntimeException ignored) {
+                // tasks handle their own failures, keep the loop alive
+            }
+        }
+
+        // milliseconds to wait for the sockets, until the next timer is due
+        private long selectTimeout() {
+            final Timer timer = timers.peek();
+            if (timer == null)
+                return EVICTION_INTERVAL;
+            final long left = TimeUnit.NANOSECONDS.toMillis(timer.deadline - System.nanoTime()) + 1;
+            return Math.max(1, Math.min(left, EVICTION_INTERVAL));// 0 would wait forever
+        }
+
+        @Override
+        public void run() {
+            long nextEviction = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(EVICTION_INTERVAL);
+            try {
+                while (running) {
+                    selector.select(selectTimeout());
+                    runTasks();
+                    runTimers();
+                    if (System.nanoTime() - nextEviction >= 0) {
+                        transport.evictExpired(this);
+                        nextEviction = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(EVICTION_INTERVAL);
+                    }
+                    final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        final SelectionKey key = keys.next();
+                        keys.remove();
+                        final NioSocket socket = (NioSocket) key.attachment();
+                        try {
+                            if (key.isValid())
+                                socket.handle(key);
+                        } catch (RuntimeException e) {
+                            socket.fail(new IOException(e));
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (ClosedSelectorException ignored) {
+            } finally {
+                running = false;
+                runTasks();
+                timers.clear();
+                for (SelectionKey key : selector.keys()) {
+                    ((NioSocket) key.attachment()).close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static final class Timer implements Comparable<Timer> {
+        final long deadline;// nanoTime
+        final Runnable task;
+
+        Timer(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer o) {
+            return Long.compare(deadline - o.deadline, 0);// nanoTime may overflow
+        }
+    }
+}
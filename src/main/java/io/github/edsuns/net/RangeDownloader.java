@@ -0,0 +1,334 @@
+package io.github.edsuns.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.net.HttpURLConnection.HTTP_PARTIAL;
+
+/**
+ * <p>Download a file in several byte ranges fetched concurrently on separate connections.</p>
+ * <p>Every segment is written into its offset of a preallocated file with positional writes.
+ * A failed segment is retried from the last byte written, up to {@link #retries(int)} times.
+ * If the server doesn't support breakpoint transfer, the file is downloaded on a single connection.</p>
+ *
+ * @see HttpRequest#isBreakpointAvailable()
+ */
+public class RangeDownloader {
+    private static final int DEFAULT_SEGMENTS = 4;
+    private static final int DEFAULT_RETRIES = 3;
+    private static final long DEFAULT_MIN_SEGMENT_SIZE = 1024 * 1024;// 1 MB
+    private static final int BUFFER_SIZE = 1024 * 64;
+    private static final long RETRY_DELAY = 500;// milliseconds, multiplied by the attempt number
+
+    private final String url;
+    private final Proxy proxy;
+    private int segments = DEFAULT_SEGMENTS;
+    private int retries = DEFAULT_RETRIES;
+    private long minSegmentSize = DEFAULT_MIN_SEGMENT_SIZE;
+    private int timeout = -1;
+    private String[][] headers;
+    private ExecutorService executor;
+    private ProgressListener progressListener;
+
+    public RangeDownloader(String url) {
+        this(url, null);
+    }
+
+    public RangeDownloader(String url, Proxy proxy) {
+        this.url = Objects.requireNonNull(url, "url must not be null");
+        this.proxy = proxy;
+    }
+
+    /**
+     * @param segments max number of ranges downloaded concurrently
+     * @return this
+     */
+    public RangeDownloader segments(int segments) {
+        if (segments < 1)
+            throw new IllegalArgumentException("segments must be positive");
+        this.segments = segments;
+        return this;
+    }
+
+    /**
+     * @param minSegmentSize small files are split into fewer segments than {@link #segments(int)}
+     * @return this
+     */
+    public RangeDownloader minSegmentSize(long minSegmentSize) {
+        if (minSegmentSize < 1)
+            throw new IllegalArgumentException("minSegmentSize must be positive");
+        this.minSegmentSize = minSegmentSize;
+        return this;
+    }
+
+    /**
+     * @param retries max retries of every segment
+     * @return this
+     */
+    public RangeDownloader retries(int retries) {
+        if (retries < 0)
+            throw new IllegalArgumentException("retries must not be negative");
+        this.retries = retries;
+        return this;
+    }
+
+    public RangeDownloader timeout(int timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    public RangeDownloader headers(HttpRequest.Data headers) {
+        this.headers = headers.dataList.toArray(new String[0][0]);
+        return this;
+    }
+
+    /**
+     * @param executor runs the segments, a thread per segment is created for every download if not set
+     * @return this
+     */
+    public RangeDownloader executor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public RangeDownloader progress(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * Download to the file, the file is overwritten.
+     *
+     * @param file target file
+     * @return length of the file
+     * @throws IOException if the download fails after retries
+     */
+    public long download(Path file) throws IOException {
+        // probe with the first byte to find out the complete length
+        final HttpRequest probe = newRequest();
+        final long total;
+        try {
+            probe.exec(HttpRequest.Method.GET, null, new String[][]{
+                    {HttpRequest.ACCEPT_ENCODING, "identity"},
+                    {HttpRequest.HEADER_RANGE, HttpRequest.HEADER_VALUE_BYTES + "=0-0"}
+            });
+            total = probe.getStatus() == HTTP_PARTIAL && probe.isBreakpointAvailable()
+                    ? HttpRequest.parseContentRange(probe.getConnection().getHeaderField(HttpRequest.HEADER_CONTENT_RANGE))[2]
+                    : -1;
+        } finally {
+            if (probe.getConnection() != null)
+                probe.getConnection().disconnect();
+        }
+        if (total < 0) {
+            return downloadSingle(file);
+        }
+
+        final List<Segment> parts = split(total);
+        final AtomicLong downloaded = new AtomicLong();
+        final ExecutorService service = executor != null ? executor : newExecutor(parts.size());
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(total);
+            final FileChannel channel = raf.getChannel();
+            final List<Future<?>> futures = new ArrayList<>(parts.size());
+            for (Segment segment : parts) {
+                futures.add(service.submit(() -> {
+                    fetch(segment, channel, downloaded, total);
+                    return null;
+                }));
+            }
+            awaitAll(futures);
+            channel.force(false);
+        } finally {
+            if (service != executor)
+                service.shutdownNow();
+        }
+        return total;
+    }
+
+    private long downloadSingle(Path file) throws IOException {
+        FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING).close();
+        IOException failure = null;
+        for (int attempt = 0; attempt <= retries; attempt++) {
+            if (attempt > 0)
+                sleep(attempt);
+            try {
+                final HttpRequest request = newRequest().download(file);
+                if (request.isBadStatus()) {
+                    request.discard();// download(Path) leaves the body of a bad status open
+                    if (request.getStatus() != 416)
+                        throw new IOException("Server returned HTTP response code: " + request.getStatus()
+                                + " for URL: " + request.getURL());
+                }
+                final long length = file.toFile().length();
+                if (progressListener != null)
+                    progressListener.onProgress(length, length);
+                return length;
+            } catch (IOException e) {
+                // download(Path) resumes from what has been written if possible
+                if (failure != null)
+                    e.addSuppressed(failure);
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    private List<Segment> split(long total) {
+        final long count = Math.max(1, Math.min(segments, (total + minSegmentSize - 1) / minSegmentSize));
+        final long size = (total + count - 1) / count;
+        final List<Segment> parts = new ArrayList<>((int) count);
+        for (long start = 0; start < total; start += size) {
+            parts.add(new Segment(start, Math.min(start + size, total) - 1));
+        }
+        return parts;
+    }
+
+    private void fetch(Segment segment, FileChannel channel, AtomicLong downloaded, long total) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        IOException failure = null;
+        for (int attempt = 0; attempt <= retries; attempt++) {
+            if (attempt > 0)
+                sleep(attempt);
+            final long position = segment.next();
+            final HttpRequest request = newRequest();
+            try {
+                request.exec(HttpRequest.Method.GET, null, new String[][]{
+                        {HttpRequest.ACCEPT_ENCODING, "identity"},
+                        {HttpRequest.HEADER_RANGE, HttpRequest.HEADER_VALUE_BYTES + "=" + position + "-" + segment.last}
+                });
+                if (request.getStatus() != HTTP_PARTIAL)
+                    throw new IOException("Server returned HTTP response code: " + request.getStatus()
+                            + " for range " + position + "-" + segment.last + " of URL: " + request.getURL());
+                final long first = HttpRequest.parseContentRange(
+                        request.getConnection().getHeaderField(HttpRequest.HEADER_CONTENT_RANGE))[0];
+                if (first != position)
+                    throw new IOException("Unexpected " + HttpRequest.HEADER_CONTENT_RANGE + " for range "
+                            + position + "-" + segment.last + " of URL: " + request.getURL());
+                final InputStream in = request.getInputStream();
+                int count;
+                while (segment.remaining() > 0
+                        && (count = in.read(buffer, 0, (int) Math.min(buffer.length, segment.remaining()))) != -1) {
+                    final ByteBuffer src = ByteBuffer.wrap(buffer, 0, count);
+                    long at = segment.next();
+                    while (src.hasRemaining()) {
+                        at += channel.write(src, at);
+                    }
+                    segment.done += count;
+                    final long sum = downloaded.addAndGet(count);
+                    if (progressListener != null)
+                        progressListener.onProgress(sum, total);
+                }
+                if (segment.remaining() > 0)
+                    throw new IOException("Range " + segment.start + "-" + segment.last + " ended early at "
+                            + segment.next() + " of URL: " + request.getURL());
+                return;
+            } catch (IOException e) {
+                if (failure != null)
+                    e.addSuppressed(failure);
+                failure = e;
+            } finally {
+                if (request.getConnection() != null)
+                    request.getConnection().disconnect();
+            }
+        }
+        throw failure;
+    }
+
+    private HttpRequest newRequest() {
+        HttpRequest request = new HttpRequest(url, proxy).headers(headers);
+        if (timeout >= 0)
+            request.timeout(timeout);
+        return request;
+    }
+
+    private static void awaitAll(List<Future<?>> futures) throws IOException {
+        IOException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                for (Future<?> f : futures) {
+                    f.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download interrupted");
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                IOException exception = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                if (failure == null) {
+                    failure = exception;
+                    // no need to go on
+                    for (Future<?> f : futures) {
+                        f.cancel(true);
+                    }
+                } else {
+                    failure.addSuppressed(exception);
+                }
+            } catch (CancellationException ignored) {
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    private static void sleep(int attempt) throws InterruptedIOException {
+        try {
+            Thread.sleep(RETRY_DELAY * attempt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download interrupted");
+        }
+    }
+
+    private static ExecutorService newExecutor(int threads) {
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "RangeDownloader-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static final class Segment {
+        final long start;
+        final long last;// inclusive
+        long done;// only touched by the thread fetching the segment
+
+        Segment(long start, long last) {
+            this.start = start;
+            this.last = last;
+        }
+
+        long next() {
+            return start + done;
+        }
+
+        long remaining() {
+            return last + 1 - next();
+        }
+    }
+
+    public interface ProgressListener {
+        /**
+         * Called from the downloading threads whenever bytes are written.
+         *
+         * @param downloaded bytes written in total
+         * @param total      length of the file
+         */
+        void onProgress(long downloaded, long total);
+    }
+}
@@ -0,0 +1,138 @@
+package io.github.edsuns.net;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Single-flight execution of identical GET and HEAD requests: while a request is in flight,
+ * the identical requests wait for its response instead of sending their own.</p>
+ * <p>Requests are identical if they have the same method, url, request headers and cookies.
+ * The response is read to the end by the first request, the others get the same immutable bytes.
+ * Only the requests in flight are tracked, it isn't a cache, see {@link ResponseCache} for that.
+ * If the table of requests in flight is full, requests are sent without coalescing.</p>
+ *
+ * @see HttpRequest#coalescer(RequestCoalescer)
+ */
+public class RequestCoalescer {
+    private static final int DEFAULT_MAX_KEYS = 1024;
+
+    private final int maxKeys;
+    private final Map<String, Call> calls = new HashMap<>();// guarded by this
+    private final LongAdder coalesced = new LongAdder();
+
+    public RequestCoalescer() {
+        this(DEFAULT_MAX_KEYS);
+    }
+
+    /**
+     * @param maxKeys max distinct requests in flight
+     */
+    public RequestCoalescer(int maxKeys) {
+        if (maxKeys < 1)
+            throw new IllegalArgumentException("maxKeys must be positive");
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * @return requests served by the response of another one
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return distinct requests in flight
+     */
+    public synchronized int getInFlight() {
+        return calls.size();
+    }
+
+    static String key(HttpRequest.Method method, URL url, String[][] requestHeaders, String cookie) {
+        final StringBuilder key = new StringBuilder(128).append(method.name()).append(' ').append(url);
+        if (requestHeaders != null) {
+            for (String[] header : requestHeaders) {
+                key.append('\n').append(header[0]).append(": ").append(header[1]);
+            }
+        }
+        if (cookie != null)
+            key.append("\nCookie: ").append(cookie);
+        return key.toString();
+    }
+
+    /**
+     * @return the call in flight with the key, a new one if none, null if the table is full
+     */
+    synchronized Call join(String key) {
+        Call call = calls.get(key);
+        if (call != null) {
+            coalesced.increment();
+            return call;
+        }
+        if (calls.size() >= maxKeys)
+            return null;
+        call = new Call(key);
+        calls.put(key, call);
+        return call;
+    }
+
+    private synchronized void remove(Call call) {
+        calls.remove(call.key, call);
+    }
+
+    /**
+     * A request in flight, executed by the first one to lead it.
+     */
+    final class Call {
+        private final String key;
+        private final AtomicBoolean led = new AtomicBoolean();
+        private final CompletableFuture<ResponseCache.Entry> response = new CompletableFuture<>();
+
+        private Call(String key) {
+            this.key = key;
+        }
+
+        /**
+         * @return true if the caller must execute the request and complete the call
+         */
+        boolean tryLead() {
+            return led.compareAndSet(false, true);
+        }
+
+        void complete(ResponseCache.Entry entry) {
+            remove(this);
+            response.complete(entry);
+        }
+
+        void fail(Throwable e) {
+            remove(this);
+            response.completeExceptionally(e);
+        }
+
+        /**
+         * @return the response of the leader
+         * @throws IOException the exception of the leader, shared by all the followers
+         */
+        ResponseCache.Entry await() throws IOException {
+            try {
+                return response.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a coalesced request");
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                throw new IOException(cause);
+            }
+        }
+    }
+}
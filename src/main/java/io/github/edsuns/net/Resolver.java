@@ -0,0 +1,47 @@
+package io.github.edsuns.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Resolves host names to addresses.
+ *
+ * @see CachingResolver
+ * @see NioTransport#resolver(Resolver)
+ */
+@FunctionalInterface
+public interface Resolver {
+    /**
+     * {@link InetAddress#getAllByName(String)}, cached by the JVM.
+     */
+    Resolver SYSTEM = InetAddress::getAllByName;
+
+    /**
+     * @param host host name or literal address
+     * @return the addresses of the host, at least one
+     * @throws UnknownHostException if the host can't be resolved
+     */
+    InetAddress[] resolve(String host) throws UnknownHostException;
+
+    /**
+     * A resolver that never touches the network, useful in tests.
+     *
+     * @param hosts addresses of every host name
+     * @return a resolver failing for the hosts not in the map
+     */
+    static Resolver of(Map<String, InetAddress[]> hosts) {
+        final Map<String, InetAddress[]> copy = new HashMap<>();
+        for (Map.Entry<String, InetAddress[]> entry : hosts.entrySet()) {
+            copy.put(entry.getKey().toLowerCase(Locale.ENGLISH), entry.getValue().clone());
+        }
+        return host -> {
+            final InetAddress[] addresses = copy.get(host.toLowerCase(Locale.ENGLISH));
+            if (addresses == null || addresses.length == 0)
+                throw new UnknownHostException(host);
+            return addresses.clone();
+        };
+    }
+}
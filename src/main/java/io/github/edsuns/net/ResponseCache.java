@@ -0,0 +1,725 @@
+package io.github.edsuns.net;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A private HTTP cache of GET responses, shared by the {@link HttpRequest}s it's set to.</p>
+ * <p>Freshness follows {@code Cache-Control: max-age}, {@code Expires} and the heuristic of
+ * {@code Last-Modified}. A fresh response is served without any network I/O. A stale one is revalidated
+ * with {@code If-None-Match} and {@code If-Modified-Since}, and a 304 is served from the stored body.
+ * {@code no-store} responses aren't stored, {@code no-cache} ones are always revalidated.</p>
+ * <p>Responses are kept in memory with LRU eviction bounded by bytes, and optionally on disk
+ * where they outlive the process. The files are read and written outside the lock of the LRU state,
+ * a memory hit never waits for the disk.</p>
+ *
+ * @see HttpRequest#cache(ResponseCache)
+ */
+public class ResponseCache {
+    private static final int ENTRY_OVERHEAD = 256;// rough size of the fields of an entry
+    private static final String ENTRY_SUFFIX = ".entry";
+    private static final int FORMAT_VERSION = 1;
+
+    private final long maxMemorySize;
+    private long memorySize;
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private Path directory;
+    private long maxDiskSize;
+    private long diskSize;
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);// file name to size
+    final Object diskLock = new Object();// held for file I/O instead of this, never together
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong conditionalHitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param maxMemorySize max bytes of the responses kept in memory
+     */
+    public ResponseCache(long maxMemorySize) {
+        if (maxMemorySize < 0)
+            throw new IllegalArgumentException("maxMemorySize must not be negative");
+        this.maxMemorySize = maxMemorySize;
+    }
+
+    /**
+     * Also keep the responses in a directory, the responses already in it are loaded lazily.
+     *
+     * @param directory   cache directory, created if it doesn't exist
+     * @param maxDiskSize max bytes of the files in the directory
+     * @return this
+     * @throws IOException if the directory can't be listed
+     */
+    public synchronized ResponseCache disk(Path directory, long maxDiskSize) throws IOException {
+        if (maxDiskSize < 0)
+            throw new IllegalArgumentException("maxDiskSize must not be negative");
+        Files.createDirectories(directory);
+        this.directory = directory;
+        this.maxDiskSize = maxDiskSize;
+        disk.clear();
+        diskSize = 0;
+        // least recently used first
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + ENTRY_SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        final Map<Path, Long> lastModified = new HashMap<>();
+        for (Path file : files) {
+            lastModified.put(file, Files.getLastModifiedTime(file).toMillis());
+        }
+        files.sort(Comparator.comparing(lastModified::get));
+        for (Path file : files) {
+            final long size = Files.size(file);
+            disk.put(file.getFileName().toString(), size);
+            diskSize += size;
+        }
+        for (Path file : trimDisk()) {
+            Files.deleteIfExists(file);
+        }
+        return this;
+    }
+
+    /**
+     * @return number of responses served without network I/O
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return number of responses served from the cache after a 304
+     */
+    public long getConditionalHitCount() {
+        return conditionalHitCount.get();
+    }
+
+    /**
+     * @return number of cacheable requests the cache couldn't serve
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return bytes of the responses kept in memory
+     */
+    public synchronized long getMemorySize() {
+        return memorySize;
+    }
+
+    /**
+     * @return bytes of the responses kept on disk
+     */
+    public synchronized long getDiskSize() {
+        return diskSize;
+    }
+
+    /**
+     * Remove all the responses from memory and disk.
+     *
+     * @throws IOException if a file can't be deleted
+     */
+    public void clear() throws IOException {
+        final Path directory;
+        final List<String> names;
+        synchronized (this) {
+            memory.clear();
+            memorySize = 0;
+            directory = this.directory;
+            names = new ArrayList<>(disk.keySet());
+            disk.clear();
+            diskSize = 0;
+        }
+        synchronized (diskLock) {
+            for (String name : names) {
+                Files.deleteIfExists(directory.resolve(name));
+            }
+        }
+    }
+
+    void recordHit() {
+        hitCount.incrementAndGet();
+    }
+
+    void recordConditionalHit() {
+        conditionalHitCount.incrementAndGet();
+    }
+
+    void recordMiss() {
+        missCount.incrementAndGet();
+    }
+
+    /**
+     * @param key            url of the GET request
+     * @param requestHeaders headers of the request, matched against the Vary headers of the response
+     * @return null if nothing matches
+     */
+    Entry get(String key, String[][] requestHeaders) {
+        Entry entry;
+        Path file = null;
+        synchronized (this) {
+            entry = memory.get(key);
+            if (entry == null && directory != null) {
+                final String name = fileName(key);
+                if (disk.get(name) != null)// also marks it as used
+                    file = directory.resolve(name);
+            }
+        }
+        if (file != null) {
+            entry = readFromDisk(key, file);
+            synchronized (this) {
+                if (entry != null)
+                    putInMemory(key, entry);
+                else
+                    removeFromDisk(file);
+            }
+            if (entry == null)
+                delete(file);// unreadable
+        }
+        if (entry == null || !entry.matches(requestHeaders))
+            return null;
+        return entry;
+    }
+
+    void put(String key, Entry entry) {
+        final Path directory;
+        synchronized (this) {
+            putInMemory(key, entry);
+            directory = entry.size() <= maxDiskSize ? this.directory : null;
+        }
+        if (directory != null)
+            writeToDisk(key, entry, directory);
+    }
+
+    /**
+     * Keep a copy of the body while it's read, the response is stored once the body is read to the end.
+     *
+     * @param in    body stream
+     * @param key   url of the GET request
+     * @param entry the response without body
+     * @return stream to read instead
+     */
+    synchronized InputStream tee(InputStream in, String key, Entry entry) {
+        final long limit = Math.max(maxMemorySize, directory == null ? 0 : maxDiskSize) - entry.size();
+        return limit < 0 ? in : new TeeInputStream(in, limit, key, entry);
+    }
+
+    private void putInMemory(String key, Entry entry) {
+        final Entry old = memory.remove(key);
+        if (old != null)
+            memorySize -= old.size();
+        if (entry.size() > maxMemorySize)
+            return;
+        memory.put(key, entry);
+        memorySize += entry.size();
+        final Iterator<Entry> eldest = memory.values().iterator();
+        while (memorySize > maxMemorySize && eldest.hasNext()) {
+            memorySize -= eldest.next().size();
+            eldest.remove();
+        }
+    }
+
+    // null if unreadable
+    private Entry readFromDisk(String key, Path file) {
+        synchronized (diskLock) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() != FORMAT_VERSION || !key.equals(in.readUTF()))
+                    return null;
+                final Entry entry = Entry.read(in);
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));// for the next start
+                return entry;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    private void writeToDisk(String key, Entry entry, Path directory) {
+        final String name = fileName(key);
+        final Path file = directory.resolve(name);
+        final Path tmp = directory.resolve(name + ".tmp");
+        final long size;
+        synchronized (diskLock) {
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                    out.writeInt(FORMAT_VERSION);
+                    out.writeUTF(key);
+                    entry.write(out);
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                size = Files.size(file);
+            } catch (IOException e) {
+                // the memory tier still has it
+                delete(tmp);
+                return;
+            }
+        }
+        final List<Path> evicted;
+        synchronized (this) {
+            if (!directory.equals(this.directory)) {
+                evicted = Collections.singletonList(file);// the cache moved to another directory meanwhile
+            } else {
+                final Long old = disk.put(name, size);
+                diskSize += size - (old == null ? 0 : old);
+                evicted = trimDisk();
+            }
+        }
+        for (Path eldest : evicted) {
+            delete(eldest);
+        }
+    }
+
+    // the files to delete outside the lock
+    private List<Path> trimDisk() {
+        final List<Path> evicted = new ArrayList<>();
+        final Iterator<Map.Entry<String, Long>> eldest = disk.entrySet().iterator();
+        while (diskSize > maxDiskSize && eldest.hasNext()) {
+            final Map.Entry<String, Long> file = eldest.next();
+            diskSize -= file.getValue();
+            evicted.add(directory.resolve(file.getKey()));
+            eldest.remove();
+        }
+        return evicted;
+    }
+
+    private void removeFromDisk(Path file) {
+        if (!file.getParent().equals(directory))
+            return;
+        final Long size = disk.remove(file.getFileName().toString());
+        if (size != null)
+            diskSize -= size;
+    }
+
+    private void delete(Path file) {
+        synchronized (diskLock) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static String fileName(String key) {
+        try {
+            final byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder name = new StringBuilder(hash.length * 2 + ENTRY_SUFFIX.length());
+            for (byte b : hash) {
+                name.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return name.append(ENTRY_SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);// every JVM has SHA-256
+        }
+    }
+
+    /**
+     * @param responseHeaders headers of a 200 response
+     * @param requestHeaders  headers of the request
+     * @return true if the response may be stored
+     */
+    static boolean isStorable(Map<String, List<String>> responseHeaders, String[][] requestHeaders) {
+        final Map<String, String> response = directives(values(responseHeaders, "Cache-Control"));
+        if (response.containsKey("no-store") || directives(requestValues(requestHeaders, "Cache-Control"))
+                .containsKey("no-store"))
+            return false;
+        for (String vary : values(responseHeaders, "Vary")) {
+            if (vary.trim().equals("*"))
+                return false;
+        }
+        // worth storing only if it can be fresh or revalidated
+        return response.containsKey("max-age") || first(responseHeaders, "Expires") != null
+                || first(responseHeaders, "ETag") != null || first(responseHeaders, "Last-Modified") != null;
+    }
+
+    /**
+     * @param requestHeaders headers of the request
+     * @return true if a fresh response mustn't be served without revalidation
+     */
+    static boolean isNoCacheRequest(String[][] requestHeaders) {
+        final Map<String, String> request = directives(requestValues(requestHeaders, "Cache-Control"));
+        return request.containsKey("no-cache") || "0".equals(request.get("max-age"))
+                || requestValues(requestHeaders, "Pragma").contains("no-cache");
+    }
+
+    static boolean isNoStoreRequest(String[][] requestHeaders) {
+        return directives(requestValues(requestHeaders, "Cache-Control")).containsKey("no-store");
+    }
+
+    private static List<String> values(Map<String, List<String>> headers, String name) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()))
+                return header.getValue();
+        }
+        return Collections.emptyList();
+    }
+
+    private static String first(Map<String, List<String>> headers, String name) {
+        final List<String> values = values(headers, name);
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    private static List<String> requestValues(String[][] headers, String name) {
+        final List<String> values = new ArrayList<>(1);
+        if (headers != null) {
+            for (String[] header : headers) {
+                if (name.equalsIgnoreCase(header[0]))
+                    values.add(header[1]);
+            }
+        }
+        return values;
+    }
+
+    // directive names in lower case, to their values or ""
+    private static Map<String, String> directives(List<String> values) {
+        final Map<String, String> directives = new HashMap<>();
+        for (String value : values) {
+            for (String directive : value.split(",")) {
+                final int eq = directive.indexOf('=');
+                final String name = (eq < 0 ? directive : directive.substring(0, eq)).trim().toLowerCase(Locale.ENGLISH);
+                if (!name.isEmpty())
+                    directives.put(name, eq < 0 ? "" : directive.substring(eq + 1).trim().replace("\"", ""));
+            }
+        }
+        return directives;
+    }
+
+    // -1 if absent or invalid
+    static long parseDate(String value) {
+        if (value == null)
+            return -1;
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private static long parseSeconds(String value) {
+        if (value == null)
+            return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A stored response, immutable.
+     */
+    static final class Entry {
+        final String url;// after redirects
+        final List<String> redirects;
+        final int status;
+        final String statusLine;
+        final List<String[]> headers;// without the status line
+        final Map<String, String> vary;// request header values the response varies on
+        final byte[] body;
+        final long requestTime;
+        final long responseTime;
+
+        Entry(String url, List<String> redirects, int status, String statusLine, List<String[]> headers,
+              Map<String, String> vary, byte[] body, long requestTime, long responseTime) {
+            this.url = url;
+            this.redirects = redirects;
+            this.status = status;
+            this.statusLine = statusLine;
+            this.headers = headers;
+            this.vary = vary;
+            this.body = body;
+            this.requestTime = requestTime;
+            this.responseTime = responseTime;
+        }
+
+        /**
+         * @return a response without body, for {@link ResponseCache#tee(InputStream, String, Entry)}
+         */
+        static Entry of(HttpURLConnection connection, List<String> redirects, String[][] requestHeaders,
+                        long requestTime, long responseTime) throws IOException {
+            final Map<String, List<String>> fields = connection.getHeaderFields();
+            final List<String[]> headers = new ArrayList<>();
+            for (Map.Entry<String, List<String>> field : fields.entrySet()) {
+                if (field.getKey() == null)
+                    continue;
+                for (String value : field.getValue()) {
+                    headers.add(new String[]{field.getKey(), value});
+                }
+            }
+            final Map<String, String> vary = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (String value : values(fields, "Vary")) {
+                for (String name : value.split(",")) {
+                    if (!name.trim().isEmpty())
+                        vary.put(name.trim(), lastValue(requestHeaders, name.trim()));
+                }
+            }
+            final String statusLine = connection.getHeaderField(0);
+            return new Entry(connection.getURL().toString(), redirects, connection.getResponseCode(),
+                    statusLine == null ? "HTTP/1.1 " + connection.getResponseCode() : statusLine,
+                    Collections.unmodifiableList(headers), vary, new byte[0], requestTime, responseTime);
+        }
+
+        private static String lastValue(String[][] headers, String name) {
+            final List<String> values = requestValues(headers, name);
+            return values.isEmpty() ? null : values.get(values.size() - 1);
+        }
+
+        Entry withBody(byte[] body) {
+            return new Entry(url, redirects, status, statusLine, headers, vary, body, requestTime, responseTime);
+        }
+
+        /**
+         * Update the stored headers with the ones of a 304 response.
+         */
+        Entry revalidated(Map<String, List<String>> notModified, long requestTime, long responseTime) {
+            final Set<String> updated = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            for (String name : notModified.keySet()) {
+                // the length and encoding are the ones of the stored body
+                if (name != null && !name.equalsIgnoreCase(HttpRequest.CONTENT_LENGTH)
+                        && !name.equalsIgnoreCase(HttpRequest.CONTENT_ENCODING)
+                        && !name.equalsIgnoreCase("Transfer-Encoding"))
+                    updated.add(name);
+            }
+            final List<String[]> merged = new ArrayList<>();
+            for (String[] header : headers) {
+                if (!updated.contains(header[0]))
+                    merged.add(header);
+            }
+            for (Map.Entry<String, List<String>> field : notModified.entrySet()) {
+                if (field.getKey() != null && updated.contains(field.getKey())) {
+                    for (String value : field.getValue()) {
+                        merged.add(new String[]{field.getKey(), value});
+                    }
+                }
+            }
+            return new Entry(url, redirects, status, statusLine, Collections.unmodifiableList(merged), vary, body,
+                    requestTime, responseTime);
+        }
+
+        boolean matches(String[][] requestHeaders) {
+            for (Map.Entry<String, String> header : vary.entrySet()) {
+                if (!Objects.equals(header.getValue(), lastValue(requestHeaders, header.getKey())))
+                    return false;
+            }
+            return true;
+        }
+
+        String header(String name) {
+            for (String[] header : headers) {
+                if (header[0].equalsIgnoreCase(name))
+                    return header[1];
+            }
+            return null;
+        }
+
+        private Map<String, String> cacheControl() {
+            final List<String> values = new ArrayList<>(1);
+            for (String[] header : headers) {
+                if (header[0].equalsIgnoreCase("Cache-Control"))
+                    values.add(header[1]);
+            }
+            return directives(values);
+        }
+
+        /**
+         * @param now current time in milliseconds
+         * @return true if the response can be served without revalidation
+         */
+        boolean isFresh(long now) {
+            final Map<String, String> cacheControl = cacheControl();
+            if (cacheControl.containsKey("no-cache"))
+                return false;
+            return freshnessLifetime(cacheControl) > currentAge(now);
+        }
+
+        private long freshnessLifetime(Map<String, String> cacheControl) {
+            final long maxAge = parseSeconds(cacheControl.get("max-age"));
+            if (maxAge >= 0)
+                return maxAge * 1000;
+            final long date = date();
+            final String expires = header("Expires");
+            if (expires != null) {
+                final long time = parseDate(expires);
+                return time < 0 ? 0 : Math.max(0, time - date);// an invalid date is in the past
+            }
+            final long lastModified = parseDate(header("Last-Modified"));
+            if (lastModified >= 0 && lastModified <= date)
+                return (date - lastModified) / 10;// heuristic of RFC 7234
+            return 0;
+        }
+
+        private long date() {
+            final long date = parseDate(header("Date"));
+            return date < 0 ? responseTime : date;
+        }
+
+        private long currentAge(long now) {
+            final long apparentAge = Math.max(0, responseTime - date());
+            final long age = parseSeconds(header("Age"));
+            final long correctedAge = Math.max(apparentAge, age < 0 ? 0 : age * 1000);
+            return correctedAge + (responseTime - requestTime) + (now - responseTime);
+        }
+
+        /**
+         * @return conditional request headers, null if the response has no validator
+         */
+        String[][] validators() {
+            final String etag = header("ETag");
+            final String lastModified = header("Last-Modified");
+            if (etag != null && lastModified != null)
+                return new String[][]{{"If-None-Match", etag}, {"If-Modified-Since", lastModified}};
+            if (etag != null)
+                return new String[][]{{"If-None-Match", etag}};
+            if (lastModified != null)
+                return new String[][]{{"If-Modified-Since", lastModified}};
+            return null;
+        }
+
+        long size() {
+            long size = ENTRY_OVERHEAD + url.length() + body.length;
+            for (String[] header : headers) {
+                size += header[0].length() + header[1].length();
+            }
+            return size;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(url);
+            out.writeInt(redirects.size());
+            for (String redirect : redirects) {
+                out.writeUTF(redirect);
+            }
+            out.writeInt(status);
+            out.writeUTF(statusLine);
+            out.writeLong(requestTime);
+            out.writeLong(responseTime);
+            out.writeInt(headers.size());
+            for (String[] header : headers) {
+                out.writeUTF(header[0]);
+                out.writeUTF(header[1]);
+            }
+            out.writeInt(vary.size());
+            for (Map.Entry<String, String> header : vary.entrySet()) {
+                out.writeUTF(header.getKey());
+                out.writeBoolean(header.getValue() != null);
+                if (header.getValue() != null)
+                    out.writeUTF(header.getValue());
+            }
+            out.writeInt(body.length);
+            out.write(body);
+        }
+
+        static Entry read(DataInputStream in) throws IOException {
+            final String url = in.readUTF();
+            final List<String> redirects = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                redirects.add(in.readUTF());
+            }
+            final int status = in.readInt();
+            final String statusLine = in.readUTF();
+            final long requestTime = in.readLong();
+            final long responseTime = in.readLong();
+            final List<String[]> headers = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                headers.add(new String[]{in.readUTF(), in.readUTF()});
+            }
+            final Map<String, String> vary = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = in.readInt(); i > 0; i--) {
+                final String name = in.readUTF();
+                vary.put(name, in.readBoolean() ? in.readUTF() : null);
+            }
+            final byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            return new Entry(url, Collections.unmodifiableList(redirects), status, statusLine,
+                    Collections.unmodifiableList(headers), vary, body, requestTime, responseTime);
+        }
+    }
+
+    /**
+     * Copies the bytes read, stores the response at the end of the stream.
+     */
+    private final class TeeInputStream extends FilterInputStream {
+        private final long limit;
+        private final String key;
+        private final Entry entry;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        TeeInputStream(InputStream in, long limit, String key, Entry entry) {
+            super(in);
+            this.limit = limit;
+            this.key = key;
+            this.entry = entry;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b == -1)
+                store();
+            else if (copy != null) {
+                copy.write(b);
+                checkLimit();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int count = super.read(b, off, len);
+            if (count == -1)
+                store();
+            else if (copy != null) {
+                copy.write(b, off, count);
+                checkLimit();
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            copy = null;// skipped bytes aren't copied
+            return super.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // gzip decoders stop at the trailer without reading the end of the stream
+            if (copy != null) {
+                final byte[] buffer = new byte[1024];
+                try {
+                    while (copy != null && read(buffer, 0, buffer.length) != -1) ;
+                } catch (IOException ignored) {
+                    copy = null;
+                }
+            }
+            super.close();
+        }
+
+        private void checkLimit() {
+            if (copy.size() > limit)
+                copy = null;// too large to be stored
+        }
+
+        private void store() {
+            if (copy != null) {
+                put(key, entry.withBody(copy.toByteArray()));
+                copy = null;
+            }
+        }
+    }
+}
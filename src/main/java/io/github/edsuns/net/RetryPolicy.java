@@ -0,0 +1,281 @@
+package io.github.edsuns.net;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Retries of idempotent requests, with exponential backoff and full jitter,
+ * and hedged requests for the tail latency.</p>
+ * <p>Connect failures, resets, read timeouts and the statuses of {@link #retryOnStatus(int...)} are retried.
+ * The retries are limited by a budget shared by all the requests of the policy:
+ * every request earns {@code ratio} of a retry, so a failing server doesn't get a multiple of the usual load.</p>
+ * <p>With hedging, a duplicate request is sent if the first one has no response after a delay,
+ * the first response wins and the other request is cancelled. Hedging only applies to requests
+ * made by {@link HttpClient}, since it needs to create the duplicate.</p>
+ * <pre>{@code
+ * RetryPolicy policy = new RetryPolicy().maxRetries(3).backoff(100, 5000).hedgeAtPercentile(0.95);
+ * HttpClient client = HttpClient.builder().retryPolicy(policy).build();
+ * }</pre>
+ *
+ * @see HttpRequest.Method#isIdempotent()
+ */
+public class RetryPolicy {
+    private static final int DEFAULT_MAX_RETRIES = 2;
+    private static final long DEFAULT_BASE_DELAY = 100;// milliseconds
+    private static final long DEFAULT_MAX_DELAY = 10000;
+    private static final int[] DEFAULT_STATUSES = {408, 429, 502, 503, 504};
+    private static final double DEFAULT_BUDGET_RATIO = 0.2;
+    private static final int DEFAULT_BUDGET_RESERVE = 10;
+    private static final int MIN_HEDGE_SAMPLES = 20;// latencies recorded before hedging at a percentile
+
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private long baseDelay = DEFAULT_BASE_DELAY;
+    private long maxDelay = DEFAULT_MAX_DELAY;
+    private int[] statuses = DEFAULT_STATUSES;
+    private double budgetRatio = DEFAULT_BUDGET_RATIO;
+    private double budgetReserve = DEFAULT_BUDGET_RESERVE;
+    private double balance = DEFAULT_BUDGET_RESERVE;// guarded by this
+    private long hedgeDelay = -1;// milliseconds
+    private double hedgePercentile = -1;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicInteger retries = new AtomicInteger();
+    private final AtomicInteger hedges = new AtomicInteger();
+
+    /**
+     * @param maxRetries max retries of a request, 0 disables retrying
+     * @return this
+     */
+    public RetryPolicy maxRetries(int maxRetries) {
+        if (maxRetries < 0)
+            throw new IllegalArgumentException("maxRetries must not be negative");
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    /**
+     * The delay before retry {@code n} is random between 0 and {@code min(maxDelay, baseDelay * 2^n)}.
+     *
+     * @param baseDelay delay in milliseconds before jitter of the first retry
+     * @param maxDelay  max delay in milliseconds, a longer {@code Retry-After} isn't retried
+     * @return this
+     */
+    public RetryPolicy backoff(long baseDelay, long maxDelay) {
+        if (baseDelay < 0 || maxDelay < baseDelay)
+            throw new IllegalArgumentException("0 <= baseDelay <= maxDelay required");
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        return this;
+    }
+
+    /**
+     * @param statuses response statuses retried, 408, 429, 502, 503 and 504 by default
+     * @return this
+     */
+    public RetryPolicy retryOnStatus(int... statuses) {
+        this.statuses = statuses.clone();
+        Arrays.sort(this.statuses);
+        return this;
+    }
+
+    /**
+     * @param ratio   retries earned by every request
+     * @param reserve max retries saved up, the budget starts full
+     * @return this
+     */
+    public synchronized RetryPolicy budget(double ratio, int reserve) {
+        if (ratio < 0 || reserve < 0)
+            throw new IllegalArgumentException("ratio and reserve must not be negative");
+        this.budgetRatio = ratio;
+        this.budgetReserve = reserve;
+        this.balance = reserve;
+        return this;
+    }
+
+    /**
+     * @param delay milliseconds without response before a hedged request is sent, -1 disables hedging
+     * @return this
+     */
+    public RetryPolicy hedgeAfter(long delay) {
+        this.hedgeDelay = delay;
+        this.hedgePercentile = -1;
+        return this;
+    }
+
+    /**
+     * Hedge after the latency of the percentile, measured from the previous requests of the policy.
+     * There's no hedging until enough latencies are recorded.
+     *
+     * @param percentile like 0.95
+     * @return this
+     */
+    public RetryPolicy hedgeAtPercentile(double percentile) {
+        if (!(percentile > 0 && percentile < 1))
+            throw new IllegalArgumentException("percentile must be between 0 and 1");
+        this.hedgePercentile = percentile;
+        this.hedgeDelay = -1;
+        return this;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @return retries done so far
+     */
+    public int getRetryCount() {
+        return retries.get();
+    }
+
+    /**
+     * @return hedged requests sent so far
+     */
+    public int getHedgeCount() {
+        return hedges.get();
+    }
+
+    /**
+     * @return time to response headers of the successful requests
+     */
+    public LatencyHistogram.Snapshot getLatencies() {
+        return latencies.snapshot();
+    }
+
+    boolean isHedging() {
+        return hedgeDelay >= 0 || hedgePercentile > 0;
+    }
+
+    // -1 if there's no hedging for now
+    long hedgeDelayNanos() {
+        if (hedgeDelay >= 0)
+            return TimeUnit.MILLISECONDS.toNanos(hedgeDelay);
+        if (hedgePercentile > 0) {
+            final LatencyHistogram.Snapshot snapshot = latencies.snapshot();
+            if (snapshot.getCount() >= MIN_HEDGE_SAMPLES)
+                return TimeUnit.MICROSECONDS.toNanos(snapshot.getPercentile(hedgePercentile));
+        }
+        return -1;
+    }
+
+    void recordLatency(long nanos) {
+        latencies.record(nanos);
+    }
+
+    // called once per call, not per retry or hedged request
+    synchronized void deposit() {
+        balance = Math.min(budgetReserve, balance + budgetRatio);
+    }
+
+    private synchronized boolean withdraw() {
+        if (balance < 1)
+            return false;
+        balance -= 1;
+        return true;
+    }
+
+    boolean isRetryable(IOException e) {
+        // SocketException covers refused and reset connections
+        return e instanceof SocketException || e instanceof SocketTimeoutException;
+    }
+
+    boolean isRetryable(int status) {
+        return Arrays.binarySearch(statuses, status) >= 0;
+    }
+
+    /**
+     * Decide whether to retry and how long to wait.
+     *
+     * @param attempt    retries already done
+     * @param retryAfter milliseconds asked by the server, -1 if none
+     * @return delay in milliseconds, -1 if not retried
+     */
+    long retryDelay(int attempt, long retryAfter) {
+        if (attempt >= maxRetries || retryAfter > maxDelay || !withdraw())
+            return -1;
+        retries.incrementAndGet();
+        final long cap = Math.min(maxDelay, baseDelay << Math.min(attempt, 30));
+        final long delay = cap <= 0 ? 0 : ThreadLocalRandom.current().nextLong(cap + 1);
+        return Math.max(delay, retryAfter);
+    }
+
+    /**
+     * Execute a request, and a duplicate if it has no response after the hedge delay.
+     *
+     * @param factory  creates the requests
+     * @param method   idempotent method
+     * @param data     nullable, shared by the requests
+     * @param executor runs the requests
+     * @return the first request with a response, the other one is disconnected and its response discarded
+     * @throws IOException if both requests fail
+     */
+    HttpRequest hedge(Callable<HttpRequest> factory, HttpRequest.Method method, HttpRequest.Data data,
+                      Executor executor) throws IOException {
+        final CompletableFuture<HttpRequest> winner = new CompletableFuture<>();
+        final AtomicInteger pending = new AtomicInteger(1);
+        final List<HttpRequest> attempts = new ArrayList<>(2);
+        deposit();// once for the call, not per attempt
+        start(factory, method, data, executor, winner, pending, attempts);
+        try {
+            final long delay = hedgeDelayNanos();
+            if (delay >= 0) {
+                try {
+                    return winner.get(delay, TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    if (withdraw()) {
+                        hedges.incrementAndGet();
+                        pending.incrementAndGet();
+                        start(factory, method, data, executor, winner, pending, attempts);
+                    }
+                }
+            }
+            return winner.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        } finally {
+            // from now on a response loses the race, its callback discards it
+            winner.cancel(false);
+            final HttpRequest won = winner.isCompletedExceptionally() ? null : winner.join();
+            for (HttpRequest attempt : attempts) {
+                if (attempt != won)
+                    attempt.disconnect();// the loser still in flight
+            }
+        }
+    }
+
+    private static void start(Callable<HttpRequest> factory, HttpRequest.Method method, HttpRequest.Data data,
+                              Executor executor, CompletableFuture<HttpRequest> winner, AtomicInteger pending,
+                              List<HttpRequest> attempts) {
+        final HttpRequest request;
+        try {
+            request = factory.call().hedgeAttempt();
+        } catch (Exception e) {
+            winner.completeExceptionally(e);
+            return;
+        }
+        attempts.add(request);
+        // never cancelled, so a response arriving late always reaches the callback
+        request.execAsync(method, data, executor).whenComplete((response, error) -> {
+            if (error == null) {
+                if (!winner.complete(response))
+                    response.discard();// lost the race
+            } else if (pending.decrementAndGet() == 0) {
+                winner.completeExceptionally(error);// every request failed
+            }
+        });
+    }
+}
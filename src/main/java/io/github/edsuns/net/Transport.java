@@ -0,0 +1,33 @@
+package io.github.edsuns.net;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+
+/**
+ * Opens the connections {@link HttpRequest} sends its requests through.
+ * <p>Redirects, cookies, content decoding and charset detection of {@link HttpRequest}
+ * work the same on top of any transport.</p>
+ *
+ * @see NioTransport
+ * @see Http2Transport
+ */
+@FunctionalInterface
+public interface Transport {
+    /**
+     * The blocking {@link HttpURLConnection} of the JDK.
+     */
+    Transport DEFAULT = (url, proxy) ->
+            (HttpURLConnection) (proxy == null ? url.openConnection() : url.openConnection(proxy));
+
+    /**
+     * Create a connection to the url, it must not be connected yet.
+     *
+     * @param url   http or https url
+     * @param proxy nullable
+     * @return an unconnected connection
+     * @throws IOException if the connection can't be created
+     */
+    HttpURLConnection open(URL url, Proxy proxy) throws IOException;
+}
@@ -0,0 +1,238 @@
+package io.github.edsuns.net;
+
+import java.io.*;
+import java.net.*;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * <p>The {@link HttpURLConnection} of {@link Http2Transport}, an exchange of {@link HttpClient}.</p>
+ * <p>Like the connection of the JDK, the request is sent when the response is accessed for the first time.
+ * The read timeout limits the wait for the response head, the body is read without timeout.
+ * {@link #disconnect()} cancels the exchange only, the shared connection is kept.</p>
+ */
+final class Http2Connection extends HttpURLConnection {
+    private final HttpClient client;
+    private final boolean proxied;
+    private Map<String, List<String>> requestHeaders;
+    private ByteArrayOutputStream requestBody;
+    private volatile CompletableFuture<HttpResponse<InputStream>> future;// read by disconnecting threads
+    private HttpResponse<InputStream> response;
+    private IOException failure;// of the exchange, thrown again by later calls
+    private List<String[]> headerList;
+    private Map<String, List<String>> headerFields;
+
+    Http2Connection(HttpClient client, URL url, boolean proxied) {
+        super(url);
+        this.client = client;
+        this.proxied = proxied;
+    }
+
+    @Override
+    public void connect() {
+        if (connected)
+            return;
+        // request headers can't be read once connected, the connection itself is opened by the client
+        requestHeaders = getRequestProperties();
+        connected = true;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (!doOutput)
+            throw new ProtocolException("cannot write to a URLConnection if doOutput=false - call setDoOutput(true)");
+        if (future != null)
+            throw new ProtocolException("Cannot write output after reading input.");
+        connect();
+        if (requestBody == null)
+            requestBody = new ByteArrayOutputStream();
+        return requestBody;
+    }
+
+    // send the request if not yet sent, and wait for the response head
+    private void ensureResponse() throws IOException {
+        if (failure != null)
+            throw failure;
+        if (response != null)
+            return;
+        connect();
+        final CompletableFuture<HttpResponse<InputStream>> f =
+                client.sendAsync(buildRequest(), HttpResponse.BodyHandlers.ofInputStream());
+        future = f;
+        try {
+            response = f.get();
+        } catch (InterruptedException e) {
+            f.cancel(true);
+            Thread.currentThread().interrupt();
+            throw failure = new InterruptedIOException();
+        } catch (CancellationException e) {
+            throw failure = new SocketException("Request cancelled");
+        } catch (ExecutionException e) {
+            throw failure = toIOException(e.getCause());
+        }
+        responseCode = response.statusCode();
+        headerList = new ArrayList<>();
+        for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+            for (String value : header.getValue()) {
+                headerList.add(new String[]{header.getKey(), value});
+            }
+        }
+    }
+
+    private java.net.http.HttpRequest buildRequest() throws IOException {
+        final java.net.http.HttpRequest.Builder builder;
+        try {
+            builder = java.net.http.HttpRequest.newBuilder(url.toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new MalformedURLException(e.getMessage());
+        }
+        if (getReadTimeout() > 0)
+            builder.timeout(Duration.ofMillis(getReadTimeout()));
+        for (Map.Entry<String, List<String>> header : requestHeaders.entrySet()) {
+            if (header.getKey() == null)
+                continue;
+            for (String value : header.getValue()) {
+                try {
+                    builder.header(header.getKey(), value);
+                } catch (IllegalArgumentException ignored) {
+                    // restricted headers like Host and Connection are set by the client itself
+                }
+            }
+        }
+        builder.method(method, requestBody == null
+                ? java.net.http.HttpRequest.BodyPublishers.noBody()
+                : java.net.http.HttpRequest.BodyPublishers.ofByteArray(requestBody.toByteArray()));
+        return builder.build();
+    }
+
+    private static IOException toIOException(Throwable cause) {
+        if (cause instanceof HttpTimeoutException) {
+            // the same type the connection of the JDK throws
+            return (IOException) new SocketTimeoutException(cause.getMessage()).initCause(cause);
+        }
+        if (cause instanceof IOException)
+            return (IOException) cause;
+        return new IOException(cause);
+    }
+
+    private String statusLine() {
+        return (response.version() == HttpClient.Version.HTTP_2 ? "HTTP/2 " : "HTTP/1.1 ") + responseCode;
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        ensureResponse();
+        return responseCode;
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        ensureResponse();
+        return null;// not exposed by HttpClient, and HTTP/2 has none
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (!doInput)
+            throw new ProtocolException("Cannot read from URLConnection if doInput=false (call setDoInput(true))");
+        ensureResponse();
+        if (responseCode >= HTTP_BAD_REQUEST) {
+            if (responseCode == HTTP_NOT_FOUND || responseCode == HTTP_GONE)
+                throw new FileNotFoundException(url.toString());
+            throw new IOException("Server returned HTTP response code: " + responseCode + " for URL: " + url);
+        }
+        return response.body();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        if (response == null || responseCode < HTTP_BAD_REQUEST)
+            return null;
+        return response.body();
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        if (!headerAvailable())
+            return null;
+        if (n == 0)
+            return statusLine();
+        return n <= headerList.size() ? headerList.get(n - 1)[1] : null;
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        if (!headerAvailable() || n == 0)
+            return null;
+        return n <= headerList.size() ? headerList.get(n - 1)[0] : null;
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        if (!headerAvailable() || name == null)
+            return null;
+        // the last one like the connection of the JDK
+        for (int i = headerList.size() - 1; i >= 0; i--) {
+            String[] header = headerList.get(i);
+            if (header[0].equalsIgnoreCase(name))
+                return header[1];
+        }
+        return null;
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        if (!headerAvailable())
+            return Collections.emptyMap();
+        if (headerFields == null) {
+            // case-insensitive names, the status line has the null key
+            Map<String, List<String>> fields = new TreeMap<>(Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER));
+            fields.put(null, Collections.singletonList(statusLine()));
+            for (String[] header : headerList) {
+                fields.computeIfAbsent(header[0], k -> new ArrayList<>(1)).add(header[1]);
+            }
+            for (Map.Entry<String, List<String>> field : fields.entrySet()) {
+                field.setValue(Collections.unmodifiableList(field.getValue()));
+            }
+            headerFields = Collections.unmodifiableMap(fields);
+        }
+        return headerFields;
+    }
+
+    private boolean headerAvailable() {
+        try {
+            ensureResponse();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        final CompletableFuture<HttpResponse<InputStream>> f = future;
+        if (f == null)
+            return;
+        if (!f.isDone()) {
+            f.cancel(true);
+            return;
+        }
+        try {
+            // cancels the stream if the body isn't read to the end
+            f.getNow(null).body().close();
+        } catch (IOException | CancellationException | CompletionException ignored) {
+        }
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return proxied;
+    }
+}
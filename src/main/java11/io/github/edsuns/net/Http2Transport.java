@@ -0,0 +1,60 @@
+package io.github.edsuns.net;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>An HTTP/2 transport on top of {@link HttpClient}, requests to the same origin share
+ * one multiplexed connection.</p>
+ * <p>The client speaks HTTP/2 over TLS with ALPN and over cleartext with the h2c upgrade,
+ * and falls back to HTTP/1.1 if the server doesn't support it. Redirects are left to {@link HttpRequest}.
+ * SOCKS proxies fall back to {@link Transport#DEFAULT}.</p>
+ */
+public class Http2Transport implements Transport {
+    private final HttpClient client = newClient(ProxySelector.getDefault());
+    private final Map<Proxy, HttpClient> proxyClients = new ConcurrentHashMap<>();
+
+    public Http2Transport() {
+    }
+
+    /**
+     * @return true if requests go through HTTP/2, false if they fall back to {@link Transport#DEFAULT}
+     */
+    public static boolean isSupported() {
+        return true;
+    }
+
+    @Override
+    public HttpURLConnection open(URL url, Proxy proxy) throws IOException {
+        final String protocol = url.getProtocol();
+        if (!"http".equals(protocol) && !"https".equals(protocol))
+            return DEFAULT.open(url, proxy);
+        if (proxy == null)
+            return new Http2Connection(client, url, false);
+        switch (proxy.type()) {
+            case DIRECT:
+                return new Http2Connection(proxyClients.computeIfAbsent(proxy, p -> newClient(null)), url, false);
+            case HTTP:
+                return new Http2Connection(proxyClients.computeIfAbsent(proxy,
+                        p -> newClient(ProxySelector.of((InetSocketAddress) p.address()))), url, true);
+            default:
+                return DEFAULT.open(url, proxy);// no SOCKS support in HttpClient
+        }
+    }
+
+    private static HttpClient newClient(ProxySelector proxySelector) {
+        final HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NEVER);
+        if (proxySelector != null)
+            builder.proxy(proxySelector);
+        return builder.build();
+    }
+}
@@ -0,0 +1,181 @@
+package io.github.edsuns.net;
+
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchExecutorTest {
+    private static final AtomicInteger total = new AtomicInteger();
+    private static final AtomicInteger maxTotal = new AtomicInteger();
+    private static final AtomicInteger[] current = {new AtomicInteger(), new AtomicInteger()};
+    private static final AtomicInteger[] max = {new AtomicInteger(), new AtomicInteger()};
+    private static TestServer serverA;
+    private static TestServer serverB;
+
+    // answers the query after a while, keeping track of the requests in flight
+    private static HttpHandler slow(int server) {
+        return exchange -> {
+            max[server].accumulateAndGet(current[server].incrementAndGet(), Math::max);
+            maxTotal.accumulateAndGet(total.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(30);
+            } catch (InterruptedException ignored) {
+            }
+            current[server].decrementAndGet();
+            total.decrementAndGet();
+            TestServer.send(exchange, HTTP_OK, "text/plain; charset=utf-8",
+                    exchange.getRequestURI().getQuery().getBytes(StandardCharsets.UTF_8));
+        };
+    }
+
+    @BeforeAll
+    public static void start() throws IOException {
+        serverA = new TestServer().handle("/", slow(0));
+        serverB = new TestServer().handle("/", slow(1));
+    }
+
+    @AfterAll
+    public static void stop() {
+        serverA.close();
+        serverB.close();
+    }
+
+    @Test
+    public void testLimits() throws IOException, InterruptedException {
+        final List<HttpRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            requests.add(new HttpRequest(serverA.url("/?" + i)));
+        }
+        for (int i = 30; i < 34; i++) {
+            requests.add(new HttpRequest(serverB.url("/?" + i)));
+        }
+        max[0].set(0);
+        max[1].set(0);
+        maxTotal.set(0);
+        final BatchExecutor.Results results = new BatchExecutor().maxInFlight(5).maxPerHost(3).executeAll(requests);
+
+        int position = 0;
+        int lastB = -1;
+        for (BatchExecutor.Result result : results) {
+            assertTrue(result.isSuccess());
+            assertEquals(String.valueOf(result.getIndex()), result.getRequest().getBody());
+            if (result.getIndex() >= 30)
+                lastB = position;
+            position++;
+        }
+        assertEquals(34, position);
+        assertTrue(lastB < 20, "host B waited for host A: " + lastB);// the hosts take turns
+        assertEquals(3, max[0].get());
+        assertTrue(max[1].get() <= 3);
+        assertTrue(maxTotal.get() <= 5);
+
+        int index = 0;
+        for (BatchExecutor.Result result : results.inSubmissionOrder()) {
+            assertEquals(index++, result.getIndex());
+        }
+        assertEquals(34, results.awaitAll().size());
+    }
+
+    @Test
+    public void testErrors() throws IOException, InterruptedException {
+        final int port;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+        final List<HttpRequest> requests = new ArrayList<>();
+        requests.add(new HttpRequest(serverA.url("/?0")));
+        requests.add(new HttpRequest("http://127.0.0.1:" + port + "/"));
+        requests.add(new HttpRequest("not a url"));
+        requests.add(new HttpRequest(serverB.url("/?3")));
+        final List<BatchExecutor.Result> results = new BatchExecutor().executeAll(requests).awaitAll();
+
+        assertTrue(results.get(0).isSuccess());
+        assertTrue(results.get(1).getError() instanceof IOException);
+        assertNotNull(results.get(2).getError());
+        assertEquals("3", results.get(3).getRequest().getBody());
+    }
+
+    @Test
+    public void testThrowable() throws IOException {
+        final List<HttpRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            requests.add(new HttpRequest(serverA.url("/?" + i)).eventListener(new EventListener() {
+                @Override
+                public void callStart(HttpRequest request) {
+                    throw new AssertionError("listener");
+                }
+            }));
+        }
+        requests.add(new HttpRequest(serverA.url("/?3")));
+        // an Error must free the slot for the next request
+        final List<BatchExecutor.Result> results = new BatchExecutor().maxInFlight(1).executeAll(requests)
+                .whenComplete().join();
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(results.get(i).getError() instanceof AssertionError);
+        }
+        assertEquals("3", results.get(3).getRequest().getBody());
+    }
+
+    @Test
+    public void testCallbackAndCancel() throws InterruptedException {
+        final List<HttpRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            requests.add(new HttpRequest(serverA.url("/?" + i)));
+        }
+        final CountDownLatch first = new CountDownLatch(1);
+        final AtomicInteger callbacks = new AtomicInteger();
+        final BatchExecutor.Results results = new BatchExecutor().maxPerHost(2)
+                .executeAll(requests, result -> {
+                    callbacks.incrementAndGet();
+                    first.countDown();
+                });
+        assertTrue(first.await(10, TimeUnit.SECONDS));
+        results.cancel();
+
+        int succeeded = 0;
+        int cancelled = 0;
+        for (BatchExecutor.Result result : results.awaitAll()) {
+            if (result.isSuccess())
+                succeeded++;
+            else if (result.getError() instanceof CancellationException)
+                cancelled++;
+        }
+        assertEquals(20, succeeded + cancelled);
+        assertTrue(succeeded >= 1 && cancelled >= 1);
+        assertEquals(20, callbacks.get());
+    }
+
+    @Test
+    public void testRejectingExecutor() throws InterruptedException {
+        final List<HttpRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 50000; i++) {
+            requests.add(new HttpRequest(serverA.url("/?" + i)));
+        }
+        // every rejection frees a slot for the next request, without recursing
+        final List<BatchExecutor.Result> results = new BatchExecutor().maxInFlight(1).executor(command -> {
+            throw new RejectedExecutionException("rejected");
+        }).executeAll(requests).awaitAll();
+
+        assertEquals(50000, results.size());
+        for (BatchExecutor.Result result : results) {
+            assertTrue(result.getError() instanceof RejectedExecutionException);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package io.github.edsuns.net;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.net.HttpURLConnection.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BodyHandlersTest {
+    private static final String TEXT = "HttpRequest 流式响应体 body";
+    private static final byte[] BINARY = new byte[100000];
+
+    private static TestServer server;
+
+    @BeforeAll
+    public static void startServer() throws IOException {
+        for (int i = 0; i < BINARY.length; i++) {
+            BINARY[i] = (byte) i;
+        }
+        server = new TestServer()
+                .handle("/text", exchange -> TestServer.send(exchange, HTTP_OK, "text/plain; charset=utf-8",
+                        TEXT.getBytes(StandardCharsets.UTF_8)))
+                .handle("/binary", exchange -> TestServer.send(exchange, HTTP_OK, "application/octet-stream",
+                        BINARY));
+    }
+
+    @AfterAll
+    public static void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void testDefault() throws IOException {
+        final HttpRequest request = new HttpRequest(server.url("/text")).exec();
+
+        assertEquals(TEXT, request.getBody());
+        assertArrayEquals(TEXT.getBytes(StandardCharsets.UTF_8), request.getBodyBytes());
+        assertEquals(StandardCharsets.UTF_8, request.getEncoding());
+    }
+
+    @Test
+    public void testByteArray() throws IOException {
+        final HttpRequest request = new HttpRequest(server.url("/text"))
+                .exec(HttpRequest.Method.GET, null, BodyHandlers.ofByteArray());
+
+        assertArrayEquals(TEXT.getBytes(StandardCharsets.UTF_8), request.getBodyBytes());
+        assertFalse(request.hasTextBody());
+        assertFalse(request.isBodyEmpty());
+    }
+
+    @Test
+    public void testString() throws IOException {
+        final HttpRequest request = new HttpRequest(server.url("/text"))
+                .exec(HttpRequest.Method.GET, null, BodyHandlers.ofString());
+
+        assertEquals(TEXT, request.getBody());
+        assertNull(request.getBodyBytes());
+        assertFalse(request.isBodyEmpty());
+    }
+
+    @Test
+    public void testDiscarding() throws IOException {
+        final HttpRequest request = new HttpRequest(server.url("/binary"))
+                .exec(HttpRequest.Method.GET, null, BodyHandlers.discarding());
+
+        assertEquals(HTTP_OK, request.getStatus());
+        assertNull(request.getBodyBytes());
+        assertFalse(request.isBodyEmpty());
+    }
+
+    @Test
+    public void testFile() throws IOException {
+        final Path file = Files.createTempFile("body", ".bin");
+        try {
+            new HttpRequest(server.url("/binary"))
+                    .exec(HttpRequest.Method.GET, null, BodyHandlers.ofFile(file))
+                    .loadResponse();
+
+            assertArrayEquals(BINARY, Files.readAllBytes(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testChunks() throws IOException {
+        final ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        final AtomicInteger chunks = new AtomicInteger();
+        new HttpRequest(server.url("/binary"))
+                .exec(HttpRequest.Method.GET, null, BodyHandlers.ofChunks((buffer, offset, length) -> {
+                    bo.write(buffer, offset, length);
+                    chunks.incrementAndGet();
+                }))
+                .loadResponse();
+
+        assertArrayEquals(BINARY, bo.toByteArray());
+        assertTrue(chunks.get() > 1);
+    }
+
+    @Test
+    public void testInitialCapacity() {
+        assertEquals(100, BodyHandlers.BufferingSink.initialCapacity(100, false));
+        assertEquals(1024 * 16, BodyHandlers.BufferingSink.initialCapacity(-1, false));
+        assertEquals(1024 * 16, BodyHandlers.BufferingSink.initialCapacity(100, true));
+        // an untrusted Content-Length doesn't allocate the whole buffer up front
+        assertEquals(1024 * 1024, BodyHandlers.BufferingSink.initialCapacity(2000000000L, false));
+        assertEquals(1024 * 1024, BodyHandlers.BufferingSink.initialCapacity(Long.MAX_VALUE, true));
+        // no buffer for the responses without a body
+        assertTrue(BodyHandlers.BufferingSink.hasBody(HttpRequest.Method.GET, HTTP_OK));
+        assertFalse(BodyHandlers.BufferingSink.hasBody(HttpRequest.Method.HEAD, HTTP_OK));
+        assertFalse(BodyHandlers.BufferingSink.hasBody(HttpRequest.Method.GET, HTTP_NO_CONTENT));
+        assertFalse(BodyHandlers.BufferingSink.hasBody(HttpRequest.Method.GET, HTTP_NOT_MODIFIED));
+    }
+}
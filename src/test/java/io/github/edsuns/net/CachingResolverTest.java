@@ -0,0 +1,116 @@
+package io.github.edsuns.net;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CachingResolverTest {
+    private static final InetAddress LOOPBACK = InetAddress.getLoopbackAddress();
+
+    private static Resolver counting(AtomicInteger calls) {
+        final Resolver hosts = Resolver.of(Collections.singletonMap("api.test", new InetAddress[]{LOOPBACK}));
+        return host -> {
+            calls.incrementAndGet();
+            return hosts.resolve(host);
+        };
+    }
+
+    @Test
+    public void testStaticResolver() throws UnknownHostException {
+        final Resolver resolver = Resolver.of(Collections.singletonMap("API.test", new InetAddress[]{LOOPBACK}));
+        assertArrayEquals(new InetAddress[]{LOOPBACK}, resolver.resolve("api.TEST"));
+        assertThrows(UnknownHostException.class, () -> resolver.resolve("unknown.test"));
+    }
+
+    @Test
+    public void testTtl() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final CachingResolver resolver = new CachingResolver(counting(calls)).ttl(200);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(LOOPBACK, resolver.resolve("api.test")[0]);
+        }
+        assertEquals(1, calls.get());
+        assertEquals(4, resolver.getHitCount());
+        assertEquals(1, resolver.getMissCount());
+
+        Thread.sleep(250);
+        resolver.resolve("api.test");
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testNegativeCaching() {
+        final AtomicInteger calls = new AtomicInteger();
+        final CachingResolver resolver = new CachingResolver(counting(calls)).negativeTtl(10_000);
+        assertThrows(UnknownHostException.class, () -> resolver.resolve("unknown.test"));
+        assertThrows(UnknownHostException.class, () -> resolver.resolve("unknown.test"));
+        assertEquals(1, calls.get());
+
+        final CachingResolver uncached = new CachingResolver(counting(calls)).negativeTtl(0);
+        assertThrows(UnknownHostException.class, () -> uncached.resolve("unknown.test"));
+        assertThrows(UnknownHostException.class, () -> uncached.resolve("unknown.test"));
+        assertEquals(3, calls.get());
+        assertEquals(0, uncached.size());
+    }
+
+    @Test
+    public void testMaxSize() throws UnknownHostException {
+        final CachingResolver resolver = new CachingResolver(host -> new InetAddress[]{LOOPBACK}).maxSize(2);
+        resolver.resolve("a.test");
+        resolver.resolve("b.test");
+        resolver.resolve("a.test");
+        resolver.resolve("c.test");// evicts b.test, the least recently used
+        assertEquals(2, resolver.size());
+
+        resolver.resolve("a.test");
+        resolver.resolve("b.test");
+        assertEquals(4, resolver.getMissCount());
+    }
+
+    @Test
+    public void testRefreshAhead() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final CachingResolver resolver = new CachingResolver(counting(calls)).ttl(500).executor(Runnable::run);
+        resolver.prefetch("api.test");
+        assertEquals(1, calls.get());
+
+        Thread.sleep(450);// in the last 20% of the ttl
+        resolver.resolve("api.test");
+        assertEquals(2, calls.get());
+        assertEquals(1, resolver.getRefreshCount());
+        assertEquals(1, resolver.getHitCount());
+
+        Thread.sleep(200);// still valid after the refresh
+        resolver.resolve("api.test");
+        assertEquals(2, calls.get());
+        assertEquals(0, resolver.getMissCount());
+    }
+
+    @Test
+    public void testNioTransport() throws IOException {
+        final AtomicInteger calls = new AtomicInteger();
+        final CachingResolver resolver = new CachingResolver(counting(calls));
+        try (TestServer server = new TestServer()
+                .handle("/", exchange -> TestServer.send(exchange, HTTP_OK, "text/plain",
+                        exchange.getRequestHeaders().getFirst("Host").getBytes(StandardCharsets.UTF_8)));
+             NioTransport transport = new NioTransport(1).resolver(resolver).maxIdlePerHost(0)) {
+            final String url = "http://api.test:" + new URL(server.url("/")).getPort() + "/";
+            for (int i = 0; i < 3; i++) {
+                final HttpRequest request = new HttpRequest(url).transport(transport).exec();
+                assertEquals(HTTP_OK, request.getStatus());
+                assertTrue(request.getBody().startsWith("api.test"));
+            }
+        }
+        assertEquals(1, calls.get());
+        assertEquals(2, resolver.getHitCount());
+    }
+}
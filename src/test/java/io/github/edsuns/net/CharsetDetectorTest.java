@@ -0,0 +1,77 @@
+package io.github.edsuns.net;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CharsetDetectorTest {
+    private static final String CHINESE = "小而高效的Java HTTP请求库，让请求更简单。";
+
+    @Test
+    public void testGuessEncoding() {
+        assertEquals(StandardCharsets.UTF_8, HttpRequest.guessEncoding("plain ascii".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(StandardCharsets.UTF_8, HttpRequest.guessEncoding(CHINESE.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(CharsetDetector.GBK, HttpRequest.guessEncoding(CHINESE.getBytes(CharsetDetector.GBK)));
+        assertEquals(StandardCharsets.ISO_8859_1,
+                HttpRequest.guessEncoding("un café à emporter".getBytes(StandardCharsets.ISO_8859_1)));
+        assertEquals(StandardCharsets.UTF_8, HttpRequest.guessEncoding(new byte[0]));
+        assertEquals(StandardCharsets.UTF_8, HttpRequest.guessEncoding(null));
+    }
+
+    @Test
+    public void testSample() {
+        final byte[] utf8 = CHINESE.getBytes(StandardCharsets.UTF_8);
+        // cut in the middle of a character
+        assertEquals(StandardCharsets.UTF_8, HttpRequest.guessEncoding(utf8, 1));
+        assertNotEquals(StandardCharsets.UTF_8, HttpRequest.guessEncoding(Arrays.copyOf(utf8, 1)));
+
+        final byte[] tailInvalid = Arrays.copyOf(utf8, utf8.length + 1);
+        tailInvalid[utf8.length] = (byte) 0xFF;
+        assertEquals(StandardCharsets.UTF_8, HttpRequest.guessEncoding(tailInvalid, utf8.length));
+        assertEquals(StandardCharsets.ISO_8859_1, HttpRequest.guessEncoding(tailInvalid));
+    }
+
+    @Test
+    public void testValidityMatchesDecoders() {
+        final Random random = new Random(20201223);
+        final byte[] bytes = new byte[8];
+        for (int i = 0; i < 100000; i++) {
+            random.nextBytes(bytes);
+            final Charset guess = CharsetDetector.detect(bytes, 0, bytes.length, false);
+            final boolean utf8 = decodes(StandardCharsets.UTF_8, bytes);
+            assertEquals(utf8, guess == StandardCharsets.UTF_8, () -> Arrays.toString(bytes));
+            if (!utf8 && guess == CharsetDetector.GBK)
+                assertTrue(isGbkWellFormed(bytes), () -> Arrays.toString(bytes));
+        }
+    }
+
+    private static boolean decodes(Charset charset, byte[] bytes) {
+        try {
+            charset.newDecoder().decode(ByteBuffer.wrap(bytes));
+            return true;
+        } catch (CharacterCodingException e) {
+            return false;
+        }
+    }
+
+    private static boolean isGbkWellFormed(byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            final int b = bytes[i] & 0xFF;
+            if (b < 0x80)
+                continue;
+            if (b == 0x80 || b == 0xFF || i + 1 >= bytes.length)
+                return false;
+            final int trail = bytes[++i] & 0xFF;
+            if (trail < 0x40 || trail == 0x7F || trail == 0xFF)
+                return false;
+        }
+        return true;
+    }
+}
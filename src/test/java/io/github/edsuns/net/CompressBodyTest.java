@@ -0,0 +1,91 @@
+package io.github.edsuns.net;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompressBodyTest {
+    private static TestServer server;
+
+    @BeforeAll
+    public static void start() throws IOException {
+        // answers the encoding, the bytes received and the decoded body
+        server = new TestServer().handle("/upload", exchange -> {
+            final String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            final byte[] received = TestServer.readAll(exchange.getRequestBody());
+            InputStream in = new ByteArrayInputStream(received);
+            if ("gzip".equals(encoding))
+                in = new GZIPInputStream(in);
+            else if ("deflate".equals(encoding))
+                in = new InflaterInputStream(in);
+            final byte[] decoded = TestServer.readAll(in);
+            final String answer = encoding + "\n" + received.length + "\n" + new String(decoded, StandardCharsets.UTF_8);
+            TestServer.send(exchange, HTTP_OK, "text/plain; charset=utf-8", answer.getBytes(StandardCharsets.UTF_8));
+        });
+    }
+
+    @AfterAll
+    public static void stop() {
+        server.close();
+    }
+
+    private static String repeat(String s, int times) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(s);
+        }
+        return builder.toString();
+    }
+
+    private static String[] post(HttpRequest request, HttpRequest.Data data) throws IOException {
+        request.exec(HttpRequest.Method.POST, data);
+        assertEquals(HTTP_OK, request.getStatus());
+        return request.getBody().split("\n", 3);
+    }
+
+    @Test
+    public void testGzipForm() throws IOException {
+        final String value = repeat("compressible ", 1000);
+        final String[] answer = post(new HttpRequest(server.url("/upload")).compressBody(HttpRequest.GZIP),
+                HttpRequest.data("text", value));
+
+        assertEquals("gzip", answer[0]);
+        assertTrue(Integer.parseInt(answer[1]) < value.length() / 10);
+        assertEquals("text=" + value.replace(' ', '+'), answer[2]);
+    }
+
+    @Test
+    public void testDeflateMultipart() throws IOException {
+        final byte[] content = repeat("line of a log\n", 5000).getBytes(StandardCharsets.UTF_8);
+        final String[] answer = post(new HttpRequest(server.url("/upload")).compressBody(HttpRequest.DEFLATE),
+                HttpRequest.data("name", "value").file("log", "app.log", content, "text/plain"));
+
+        assertEquals("deflate", answer[0]);
+        assertTrue(Integer.parseInt(answer[1]) < content.length / 10);
+        assertTrue(answer[2].contains(new String(content, StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testBelowThreshold() throws IOException {
+        final String[] answer = post(new HttpRequest(server.url("/upload")).compressBody(HttpRequest.GZIP, 1024),
+                HttpRequest.data("small", "value"));
+
+        assertEquals("null", answer[0]);
+        assertEquals("small=value", answer[2]);
+    }
+
+    @Test
+    public void testUnsupportedEncoding() {
+        assertThrows(IllegalArgumentException.class, () -> new HttpRequest(server.url("/upload")).compressBody("br"));
+    }
+}
@@ -0,0 +1,126 @@
+package io.github.edsuns.net;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Random;
+import java.util.zip.*;
+
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContentDecodersTest {
+    private static final byte[] CONTENT = content();
+
+    private static byte[] content() {
+        final StringBuilder builder = new StringBuilder();
+        final Random random = new Random(3);
+        for (int i = 0; i < 20_000; i++) {
+            builder.append("word").append(random.nextInt(100)).append(' ');
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(content);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] content, boolean nowrap) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater)) {
+            out.write(content);
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] decode(byte[] encoded, String... encodings) throws IOException {
+        try (InputStream in = ContentDecoders.decode(new ByteArrayInputStream(encoded), Arrays.asList(encodings))) {
+            return TestServer.readAll(in);
+        }
+    }
+
+    @Test
+    public void testGzip() throws IOException {
+        assertArrayEquals(CONTENT, decode(gzip(CONTENT), "gzip"));
+        assertArrayEquals(CONTENT, decode(gzip(CONTENT), "X-GZIP"));
+    }
+
+    @Test
+    public void testDeflate() throws IOException {
+        assertArrayEquals(CONTENT, decode(deflate(CONTENT, false), "deflate"));// zlib format
+        assertArrayEquals(CONTENT, decode(deflate(CONTENT, true), "deflate"));// raw, like some servers send it
+    }
+
+    @Test
+    public void testStackedEncodings() throws IOException {
+        assertArrayEquals(CONTENT, decode(gzip(deflate(CONTENT, false)), "deflate, gzip"));
+        assertArrayEquals(CONTENT, decode(gzip(deflate(CONTENT, false)), "deflate", "gzip"));
+        // decoding stops at an unknown encoding
+        final byte[] unknown = gzip(CONTENT);
+        assertArrayEquals(unknown, decode(unknown, "gzip", "unknown"));
+    }
+
+    @Test
+    public void testConcatenatedMembers() throws IOException {
+        final byte[] first = gzip("first ".getBytes(StandardCharsets.UTF_8));
+        final byte[] second = gzip("second".getBytes(StandardCharsets.UTF_8));
+        final byte[] both = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, both, first.length, second.length);
+        assertEquals("first second", new String(decode(both, "gzip"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testEmptyAndCorrupt() throws IOException {
+        assertEquals(0, decode(new byte[0], "gzip").length);
+        assertEquals(0, decode(new byte[0], "deflate").length);
+
+        final byte[] corrupt = gzip(CONTENT);
+        corrupt[corrupt.length - 5]++;// the crc of the trailer
+        assertThrows(ZipException.class, () -> decode(corrupt, "gzip"));
+    }
+
+    @Test
+    public void testInflatersPooled() throws IOException {
+        final byte[] encoded = gzip(CONTENT);
+        decode(encoded, "gzip");
+        final int pooled = ContentDecoders.pooledInflaters();
+        assertTrue(pooled >= 1);
+        for (int i = 0; i < 10; i++) {
+            decode(encoded, "gzip");
+        }
+        assertEquals(pooled, ContentDecoders.pooledInflaters());// reused instead of allocated
+
+        final InputStream in = ContentDecoders.decode(new ByteArrayInputStream(encoded), Collections.singletonList("gzip"));
+        in.close();
+        in.close();// released once
+        assertEquals(pooled, ContentDecoders.pooledInflaters());
+        assertThrows(IOException.class, in::read);
+    }
+
+    @Test
+    public void testRegisterAndHttpRequest() throws IOException {
+        ContentDecoders.register("x-base64", in -> Base64.getDecoder().wrap(in));
+        try (TestServer server = new TestServer().handle("/encoded", exchange -> {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip, x-base64");
+            TestServer.send(exchange, HTTP_OK, "text/plain; charset=utf-8", Base64.getEncoder().encode(gzip(CONTENT)));
+        })) {
+            final HttpRequest request = new HttpRequest(server.url("/encoded")).exec();
+            assertArrayEquals(CONTENT, request.getBodyBytes());
+        }
+        assertNotNull(ContentDecoders.get("X-Base64"));
+    }
+}
@@ -0,0 +1,141 @@
+package io.github.edsuns.net;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static java.net.HttpURLConnection.HTTP_MOVED_TEMP;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CookieJarTest {
+
+    private static URL url(String url) throws MalformedURLException {
+        return new URL(url);
+    }
+
+    private static void store(CookieJar jar, String url, String... setCookies) throws MalformedURLException {
+        jar.store(url(url), Arrays.asList(setCookies));
+    }
+
+    @Test
+    public void testParse() throws MalformedURLException {
+        final CookieJar.Cookie cookie = CookieJar.Cookie.parse(url("http://www.example.com/a/b"),
+                "id=a3f; Domain=.Example.com; Secure; HttpOnly; Expires=Wed, 21-Oct-2099 07:28:00 GMT");
+        assertNotNull(cookie);
+        assertEquals("id", cookie.getName());
+        assertEquals("a3f", cookie.getValue());
+        assertEquals("example.com", cookie.getDomain());
+        assertEquals("/a", cookie.getPath());// the directory of the request path
+        assertFalse(cookie.isHostOnly());
+        assertTrue(cookie.isSecure());
+        assertTrue(cookie.isHttpOnly());
+        assertEquals(4096250880000L, cookie.getExpiresAt());
+
+        assertNull(CookieJar.Cookie.parse(url("http://www.example.com/"), "id=1; Domain=other.com"));
+        assertNull(CookieJar.Cookie.parse(url("http://www.example.com/"), "id=1; Domain=com"));
+        assertNull(CookieJar.Cookie.parse(url("http://www.example.com/"), "=1"));
+    }
+
+    @Test
+    public void testDomainAndPath() throws MalformedURLException {
+        final CookieJar jar = new CookieJar();
+        store(jar, "http://www.example.com/", "host=1", "domain=2; Domain=example.com", "docs=3; Path=/docs");
+        store(jar, "https://www.example.com/", "secure=4; Secure");
+
+        assertEquals("host=1; domain=2", jar.header(url("http://www.example.com/")));
+        assertEquals("docs=3; host=1; domain=2", jar.header(url("http://www.example.com/docs/index.html")));
+        assertEquals("host=1; domain=2", jar.header(url("http://www.example.com/docsx")));
+        assertEquals("domain=2", jar.header(url("http://api.example.com/")));
+        assertEquals("host=1; secure=4; domain=2", jar.header(url("https://www.example.com/")));
+        assertNull(jar.header(url("http://example.org/")));
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        final CookieJar jar = new CookieJar();
+        store(jar, "http://example.com/", "a=1", "b=2; Max-Age=1", "c=3; Expires=Thu, 01 Jan 1970 00:00:00 GMT");
+        assertEquals(2, jar.size());
+        assertEquals("a=1; b=2", jar.header(url("http://example.com/")));
+
+        Thread.sleep(1100);
+        assertEquals("a=1", jar.header(url("http://example.com/")));
+        assertEquals(1, jar.size());
+
+        store(jar, "http://example.com/", "a=deleted; Max-Age=0");
+        assertNull(jar.header(url("http://example.com/")));
+        assertEquals(0, jar.size());
+    }
+
+    @Test
+    public void testHeaderCached() throws MalformedURLException {
+        final CookieJar jar = new CookieJar();
+        store(jar, "http://example.com/", "a=1");
+        final String header = jar.header(url("http://example.com/"));
+        assertSame(header, jar.header(url("http://example.com/")));
+
+        store(jar, "http://example.com/", "a=2");
+        assertEquals("a=2", jar.header(url("http://example.com/")));
+        assertEquals(1, jar.getCookies().size());
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final CookieJar jar = new CookieJar();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        final String host = "http://h" + (i % 10) + ".example.com/";
+                        store(jar, host, "t" + thread + "=" + i);
+                        assertTrue(jar.header(url(host)).contains("t" + thread + "=" + i));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(80, jar.size());
+    }
+
+    @Test
+    public void testHttpRequest() throws IOException {
+        final CookieJar jar = new CookieJar();
+        try (TestServer server = new TestServer()
+                .handle("/login", exchange -> {
+                    exchange.getResponseHeaders().add("Set-Cookie", "session=s1; Path=/");
+                    exchange.getResponseHeaders().add("Set-Cookie", "login=only; Path=/login");
+                    exchange.getResponseHeaders().set("Location", "/echo");
+                    TestServer.send(exchange, HTTP_MOVED_TEMP, "text/plain", new byte[0]);
+                })
+                .handle("/echo", exchange -> {
+                    final String cookie = exchange.getRequestHeaders().getFirst("Cookie");
+                    TestServer.send(exchange, HTTP_OK, "text/plain; charset=utf-8",
+                            String.valueOf(cookie).getBytes(StandardCharsets.UTF_8));
+                })) {
+            final HttpRequest login = new HttpRequest(server.url("/login")).cookieJar(jar)
+                    .cookies(new HashMap<>(Collections.singletonMap("manual", "manual=m"))).followRedirects(true).exec();
+            assertEquals("manual=m; session=s1", login.getBody());// sent on the redirect hop
+            assertEquals(2, jar.size());
+
+            // shared by another request
+            assertEquals("session=s1", new HttpRequest(server.url("/echo")).cookieJar(jar).exec().getBody());
+        }
+    }
+}
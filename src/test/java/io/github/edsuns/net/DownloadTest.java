@@ -0,0 +1,111 @@
+package io.github.edsuns.net;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_PARTIAL;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DownloadTest {
+    private static final byte[] CONTENT = new byte[300000];
+
+    private static TestServer server;
+
+    @BeforeAll
+    public static void startServer() throws IOException {
+        new Random(7).nextBytes(CONTENT);
+        server = new TestServer()
+                .handle("/ranges", TestServer.ranges(CONTENT, true))
+                .handle("/no-ranges", TestServer.ranges(CONTENT, false));
+    }
+
+    @AfterAll
+    public static void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void testDownload() throws IOException, NoSuchAlgorithmException {
+        final Path file = Files.createTempFile("download", ".bin");
+        try {
+            Files.delete(file);
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            final HttpRequest request = new HttpRequest(server.url("/ranges")).download(file, digest);
+
+            assertEquals(HTTP_OK, request.getStatus());
+            assertTrue(request.isBreakpointAvailable());
+            assertArrayEquals(CONTENT, Files.readAllBytes(file));
+            assertArrayEquals(sha256(CONTENT), digest.digest());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testResume() throws IOException, NoSuchAlgorithmException {
+        final Path file = Files.createTempFile("download", ".bin");
+        try {
+            Files.write(file, Arrays.copyOf(CONTENT, 123456));
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            final HttpRequest request = new HttpRequest(server.url("/ranges")).download(file, digest);
+
+            assertEquals(HTTP_PARTIAL, request.getStatus());
+            assertArrayEquals(CONTENT, Files.readAllBytes(file));
+            assertArrayEquals(sha256(CONTENT), digest.digest());
+
+            // nothing left to download
+            final HttpRequest again = new HttpRequest(server.url("/ranges")).download(file);
+
+            assertEquals(416, again.getStatus());
+            assertTrue(again.isBodyEmpty());
+            assertArrayEquals(CONTENT, Files.readAllBytes(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testRestartWithoutRanges() throws IOException {
+        final Path file = Files.createTempFile("download", ".bin");
+        try {
+            // stale bytes which must be overwritten
+            Files.write(file, new byte[1000]);
+            final HttpRequest request = new HttpRequest(server.url("/no-ranges")).download(file);
+
+            assertEquals(HTTP_OK, request.getStatus());
+            assertFalse(request.isBreakpointAvailable());
+            assertArrayEquals(CONTENT, Files.readAllBytes(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testRestartLongerFile() throws IOException {
+        final Path file = Files.createTempFile("download", ".bin");
+        try {
+            // longer than the content, the 416 doesn't match and the download starts over
+            Files.write(file, new byte[CONTENT.length + 10]);
+            final HttpRequest request = new HttpRequest(server.url("/ranges")).download(file);
+
+            assertEquals(HTTP_OK, request.getStatus());
+            assertArrayEquals(CONTENT, Files.readAllBytes(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static byte[] sha256(byte[] bytes) throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-256").digest(bytes);
+    }
+}
@@ -0,0 +1,171 @@
+package io.github.edsuns.net;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.net.HttpURLConnection.HTTP_MOVED_TEMP;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EventRecorderTest {
+    private static final String HOST = "127.0.0.1";
+    private static TestServer server;
+
+    @BeforeAll
+    public static void start() throws IOException {
+        server = new TestServer()
+                .handle("/hello", exchange -> TestServer.send(exchange, HTTP_OK,
+                        "text/plain; charset=utf-8", "hello".getBytes(StandardCharsets.UTF_8)))
+                .handle("/redirect", exchange -> {
+                    exchange.getResponseHeaders().set("Location", "/hello");
+                    TestServer.send(exchange, HTTP_MOVED_TEMP, null, new byte[0]);
+                })
+                .handle("/echo", exchange -> {
+                    final byte[] received = TestServer.readAll(exchange.getRequestBody());
+                    TestServer.send(exchange, HTTP_OK, "text/plain; charset=utf-8", received);
+                });
+    }
+
+    @AfterAll
+    public static void stop() {
+        server.close();
+    }
+
+    @Test
+    public void testRecorder() throws IOException {
+        final EventRecorder recorder = new EventRecorder();
+        final HttpClient client = HttpClient.builder().eventListener(recorder).build();
+
+        assertEquals("hello", client.get(server.url("/redirect")).getBody());
+        assertEquals("a=1", client.exec(HttpRequest.Method.POST, server.url("/echo"),
+                HttpRequest.data("a", "1")).getBody());
+
+        final EventRecorder.HostSnapshot host = recorder.snapshot().getHost(HOST);
+        assertNotNull(host);
+        assertEquals(2, host.getCalls());
+        assertEquals(0, host.getFailures());
+        assertEquals(1, host.getRedirects());
+        assertEquals(3, host.getBytesSent());
+        assertEquals(8, host.getBytesReceived());
+        assertEquals(0, host.getDns().getCount());// resolved inside HttpURLConnection
+        assertEquals(3, host.getConnect().getCount());
+        assertEquals(3, host.getFirstByte().getCount());
+        assertEquals(2, host.getBody().getCount());
+        assertEquals(2, host.getTotal().getCount());
+        assertTrue(host.getTotal().getMax() >= host.getBody().getMax());
+        assertTrue(recorder.snapshot().toString().startsWith(HOST + " calls=2"));
+
+        recorder.reset();
+        assertTrue(recorder.snapshot().getHosts().isEmpty());
+    }
+
+    @Test
+    public void testOrder() throws IOException {
+        final List<String> events = new ArrayList<>();
+        final EventListener listener = new EventListener() {
+            @Override
+            public void callStart(HttpRequest request) {
+                events.add("callStart");
+            }
+
+            @Override
+            public void dnsEnd(HttpRequest request, String host, InetAddress[] addresses, long nanos) {
+                events.add("dnsEnd");
+            }
+
+            @Override
+            public void connectEnd(HttpRequest request, URL url, long nanos) {
+                events.add("connectEnd " + url.getPath());
+            }
+
+            @Override
+            public void requestBodyEnd(HttpRequest request, URL url, long bytes, long nanos) {
+                events.add("requestBodyEnd " + bytes);
+            }
+
+            @Override
+            public void responseHeadersEnd(HttpRequest request, URL url, int status, long nanos) {
+                events.add("responseHeadersEnd " + status);
+            }
+
+            @Override
+            public void redirect(HttpRequest request, URL from, URL to, int status) {
+                events.add("redirect " + from.getPath() + " " + to.getPath());
+            }
+
+            @Override
+            public void responseBodyEnd(HttpRequest request, long bytes, long nanos) {
+                events.add("responseBodyEnd " + bytes);
+            }
+
+            @Override
+            public void bodyHandled(HttpRequest request, long nanos) {
+                events.add("bodyHandled");
+            }
+
+            @Override
+            public void callEnd(HttpRequest request, long nanos) {
+                events.add("callEnd");
+            }
+        };
+        new HttpRequest(server.url("/redirect")).eventListener(listener).get().loadResponse();
+        assertEquals(Arrays.asList("callStart",
+                "connectEnd /redirect", "responseHeadersEnd 302", "redirect /redirect /hello",
+                "connectEnd /hello", "responseHeadersEnd 200",
+                "responseBodyEnd 5", "bodyHandled", "callEnd"), events);
+
+        events.clear();
+        new HttpRequest(server.url("/echo")).eventListener(listener)
+                .exec(HttpRequest.Method.POST, HttpRequest.data("b", "22")).loadResponse();
+        assertEquals(Arrays.asList("callStart",
+                "connectEnd /echo", "requestBodyEnd 4", "responseHeadersEnd 200",
+                "responseBodyEnd 4", "bodyHandled", "callEnd"), events);
+    }
+
+    @Test
+    public void testDnsOfNioTransport() throws IOException {
+        final EventRecorder recorder = new EventRecorder();
+        final AtomicInteger resolutions = new AtomicInteger();
+        try (NioTransport transport = new NioTransport(1)) {
+            transport.resolver(host -> {
+                resolutions.incrementAndGet();
+                return Resolver.SYSTEM.resolve(host);
+            });
+            final HttpClient client = HttpClient.builder().transport(transport).keepAlive(true)
+                    .eventListener(recorder).build();
+            assertEquals("hello", client.get(server.url("/redirect")).getBody());
+            assertEquals("hello", client.get(server.url("/hello")).getBody());
+
+        }
+        final EventRecorder.HostSnapshot host = recorder.snapshot().getHost(HOST);
+        assertEquals(3, host.getConnect().getCount());
+        assertTrue(resolutions.get() < 3);// not for the hops reusing a socket
+        assertEquals(resolutions.get(), host.getDns().getCount());
+    }
+
+    @Test
+    public void testFailure() throws IOException {
+        final int port;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+        final EventRecorder recorder = new EventRecorder();
+        assertThrows(IOException.class, () -> new HttpRequest("http://" + HOST + ":" + port + "/")
+                .eventListener(recorder).get());
+        final EventRecorder.HostSnapshot host = recorder.snapshot().getHost(HOST);
+        assertEquals(1, host.getCalls());
+        assertEquals(1, host.getFailures());
+        assertEquals(0, host.getTotal().getCount());
+    }
+}
@@ -0,0 +1,118 @@
+package io.github.edsuns.net;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EventSourceTest {
+    private static final AtomicInteger connections = new AtomicInteger();
+    private static final List<String> lastEventIds = new CopyOnWriteArrayList<>();
+    private static final CountDownLatch received = new CountDownLatch(1);
+    private static TestServer server;
+
+    private static OutputStream stream(HttpExchange exchange) throws IOException {
+        TestServer.readAll(exchange.getRequestBody());
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.sendResponseHeaders(HTTP_OK, 0);
+        return exchange.getResponseBody();
+    }
+
+    @BeforeAll
+    public static void start() throws IOException {
+        server = new TestServer().handle("/events", exchange -> {
+            lastEventIds.add(String.valueOf(exchange.getRequestHeaders().getFirst("Last-Event-ID")));
+            final int connection = connections.incrementAndGet();
+            if (connection == 3) {
+                TestServer.send(exchange, 204, null, new byte[0]);// no more events
+                return;
+            }
+            try (OutputStream out = stream(exchange)) {
+                if (connection == 1) {
+                    // BOM, comments, CRLF and CR line endings, multi-line data
+                    out.write("﻿: comment\r\nretry: 50\n\ndata: first\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+                    out.write("id: 1\revent: update\rdata:line 1\rdata: 中文\r\r".getBytes(StandardCharsets.UTF_8));
+                    out.write("id: 2\ndata: third\n\ndata: dropped".getBytes(StandardCharsets.UTF_8));
+                } else {
+                    out.write("data: resumed\n\n".getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }).handle("/live", exchange -> {
+            try (OutputStream out = stream(exchange)) {
+                out.write("data: now\n\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                // the stream stays open until the event has been received
+                if (!received.await(10, TimeUnit.SECONDS))
+                    return;
+                out.write("data: later\n\n".getBytes(StandardCharsets.UTF_8));
+            } catch (InterruptedException ignored) {
+            }
+        }).handle("/html", exchange -> TestServer.send(exchange, HTTP_OK, "text/html", new byte[]{'x'}))
+                .handle("/idle", exchange -> {
+                    try (OutputStream out = stream(exchange)) {
+                        out.write(": connected\n\n".getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                        Thread.sleep(5000);
+                    } catch (InterruptedException | IOException ignored) {
+                    }
+                });
+    }
+
+    @AfterAll
+    public static void stop() {
+        server.close();
+    }
+
+    @Test
+    public void testParseAndReconnect() throws IOException {
+        final List<String> events = new ArrayList<>();
+        try (EventSource source = new EventSource(new HttpRequest(server.url("/events")))) {
+            source.forEach(event -> events.add(event.getId() + "|" + event.getType() + "|" + event.getData()));
+            assertEquals(50, source.getRetry());
+            assertEquals("2", source.getLastEventId());
+        }
+        assertEquals(Arrays.asList("|message|first", "1|update|line 1\n中文", "2|message|third", "2|message|resumed"),
+                events);
+        assertEquals(3, connections.get());
+        assertEquals(Arrays.asList("null", "2", "2"), lastEventIds);
+    }
+
+    @Test
+    public void testDeliveredOnArrival() throws IOException {
+        try (EventSource source = new EventSource(new HttpRequest(server.url("/live")))) {
+            assertEquals("now", source.next().getData());// while the stream is still open
+            received.countDown();
+            assertEquals("later", source.next().getData());
+        }
+    }
+
+    @Test
+    public void testNotEventStream() {
+        final EventSource source = new EventSource(new HttpRequest(server.url("/html")));
+        final IOException e = assertThrows(IOException.class, source::next);
+        assertTrue(e.getMessage().contains("text/html"));
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        final EventSource source = new EventSource(new HttpRequest(server.url("/idle")).timeout(30000));
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final Future<EventSource.Event> next = executor.submit(source::next);
+        Thread.sleep(300);
+        source.close();
+        assertNull(next.get(3, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+}
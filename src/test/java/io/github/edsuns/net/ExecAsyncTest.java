@@ -0,0 +1,137 @@
+package io.github.edsuns.net;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExecAsyncTest {
+    private static final int CONCURRENCY = 20;
+
+    private static TestServer server;
+    private static final CountDownLatch arrived = new CountDownLatch(CONCURRENCY);
+
+    @BeforeAll
+    public static void startServer() throws IOException {
+        server = new TestServer()
+                .handle("/hello", exchange -> TestServer.send(exchange, HTTP_OK, "text/plain; charset=utf-8",
+                        "hello".getBytes(StandardCharsets.UTF_8)))
+                .handle("/together", exchange -> {
+                    // only answers when all the requests are in flight
+                    arrived.countDown();
+                    try {
+                        arrived.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException ignored) {
+                    }
+                    TestServer.send(exchange, HTTP_OK, "text/plain", new byte[0]);
+                });
+    }
+
+    @AfterAll
+    public static void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void testExecAsync() throws Exception {
+        final HttpRequest request = new HttpRequest(server.url("/hello"))
+                .execAsync().get(5, TimeUnit.SECONDS);
+
+        assertEquals(HTTP_OK, request.getStatus());
+        assertEquals("hello", request.getBody());
+    }
+
+    @Test
+    public void testExecutor() throws Exception {
+        final AtomicInteger executed = new AtomicInteger();
+        final Executor executor = command -> {
+            executed.incrementAndGet();
+            command.run();
+        };
+        final CompletableFuture<HttpRequest> future = new HttpRequest(server.url("/hello"))
+                .execAsync(HttpRequest.Method.GET, null, executor);
+
+        assertTrue(future.isDone());
+        assertEquals(HTTP_OK, future.get().getStatus());
+        assertEquals(1, executed.get());
+    }
+
+    @Test
+    public void testConcurrency() throws Exception {
+        // more than the 3 requests the fixed thread pool used to allow
+        final List<CompletableFuture<HttpRequest>> futures = new ArrayList<>();
+        for (int i = 0; i < CONCURRENCY; i++) {
+            futures.add(new HttpRequest(server.url("/together")).execAsync());
+        }
+        for (CompletableFuture<HttpRequest> future : futures) {
+            assertEquals(HTTP_OK, future.get(10, TimeUnit.SECONDS).getStatus());
+        }
+    }
+
+    @Test
+    public void testFailure() throws IOException, InterruptedException {
+        final int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        final CompletableFuture<HttpRequest> future = new HttpRequest("http://127.0.0.1:" + port).execAsync();
+
+        final ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof IOException);
+    }
+
+    @Test
+    public void testCancelWhileWaitingForHeaders() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            final CompletableFuture<HttpRequest> future = new HttpRequest("http://127.0.0.1:" + server.getLocalPort())
+                    .timeout(30000).execAsync();
+            try (Socket socket = server.accept()) {
+                // read the request head, the response never comes
+                final InputStream in = socket.getInputStream();
+                int matched = 0;
+                while (matched < 4) {
+                    final int b = in.read();
+                    assertNotEquals(-1, b);
+                    matched = b == "\r\n\r\n".charAt(matched) ? matched + 1 : (b == '\r' ? 1 : 0);
+                }
+                assertTrue(future.cancel(true));
+                socket.setSoTimeout(5000);
+                int read;
+                try {
+                    read = in.read();
+                } catch (SocketTimeoutException e) {
+                    throw new AssertionError("The connection is still open", e);
+                } catch (IOException e) {
+                    read = -1;// reset by the client
+                }
+                assertEquals(-1, read);
+            }
+            assertTrue(future.isCancelled());
+        }
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        final ExecutorService executor = HttpRequest.Async.getExecutor();
+        HttpRequest.Async.shutdown();
+
+        assertTrue(executor.isShutdown());
+        // a new default executor is created
+        assertEquals(HTTP_OK, new HttpRequest(server.url("/hello")).execAsync().get(5, TimeUnit.SECONDS).getStatus());
+        assertNotSame(executor, HttpRequest.Async.getExecutor());
+    }
+}
@@ -0,0 +1,79 @@
+package io.github.edsuns.net;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static java.net.HttpURLConnection.HTTP_MOVED_TEMP;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FormEncoderTest {
+    private static TestServer server;
+
+    @BeforeAll
+    public static void start() throws IOException {
+        // echoes the method, the query and the body
+        server = new TestServer().handle("/echo", exchange -> {
+            final String body = new String(TestServer.readAll(exchange.getRequestBody()), StandardCharsets.UTF_8);
+            final String echo = exchange.getRequestMethod() + " " + exchange.getRequestURI().getRawQuery() + " " + body;
+            TestServer.send(exchange, HTTP_OK, "text/plain; charset=utf-8", echo.getBytes(StandardCharsets.UTF_8));
+        }).handle("/redirect", exchange -> {
+            exchange.getResponseHeaders().set("Location", server.url("/echo"));
+            TestServer.send(exchange, HTTP_MOVED_TEMP, null, new byte[0]);
+        });
+    }
+
+    @AfterAll
+    public static void stop() {
+        server.close();
+    }
+
+    @Test
+    public void testSameAsURLEncoder() throws IOException {
+        final String[] values = {
+                "", "plain", "a b+c", "x=1&y=2", "~!@#$%^&*()_-.,;:'\"<>/?[]{}|\\`",
+                "中文测试", "ü é ß", "emoji 😀", "unpaired \uD83D end", "\u0000\u007F\u0080߿ࠀ￿",
+        };
+        for (String value : values) {
+            final String expected = URLEncoder.encode("k", "UTF-8") + "=" + URLEncoder.encode(value, "UTF-8");
+            final byte[] encoded = FormEncoder.encode(Collections.singletonList(new String[]{"k", value}));
+            assertEquals(expected, new String(encoded, StandardCharsets.ISO_8859_1), value);
+        }
+        assertEquals(0, FormEncoder.encode(Collections.emptyList()).length);
+    }
+
+    @Test
+    public void testCache() {
+        final HttpRequest.Data data = HttpRequest.data("a", 1);
+        final byte[] form = data.encodedForm();
+        assertSame(form, data.encodedForm());
+        assertSame(data.encodedQuery(), data.encodedQuery());
+        assertEquals("a=1", data.encodedQuery());
+
+        data.data("b", "x y");// invalidates the cache
+        assertEquals("a=1&b=x+y", data.encodedQuery());
+        assertEquals("a=1&b=x+y", new String(data.encodedForm(), StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void testReuse() throws IOException {
+        final HttpRequest.Data data = HttpRequest.data("q", "中 文").data("n", 2);
+        for (int i = 0; i < 2; i++) {
+            assertEquals("GET q=%E4%B8%AD+%E6%96%87&n=2 ", new HttpRequest(server.url("/echo")).get(data).getBody());
+            assertEquals("GET z=0&q=%E4%B8%AD+%E6%96%87&n=2 ",
+                    new HttpRequest(server.url("/echo?z=0")).get(data).getBody());
+            assertEquals("POST null q=%E4%B8%AD+%E6%96%87&n=2",
+                    new HttpRequest(server.url("/echo")).exec(HttpRequest.Method.POST, data).getBody());
+            // the redirect is a GET without the data
+            assertEquals("GET null ",
+                    new HttpRequest(server.url("/redirect")).exec(HttpRequest.Method.POST, data).getBody());
+        }
+        assertEquals(2, data.dataList.size());
+    }
+}
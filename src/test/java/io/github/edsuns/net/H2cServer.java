@@ -0,0 +1,619 @@
+package io.github.edsuns.net;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>A loopback HTTP/2 server over cleartext for tests, reached with the h2c upgrade or with prior knowledge.
+ * Plain HTTP/1.1 requests are answered too, one per connection.</p>
+ * <p>Just enough of RFC 7540 and RFC 7541 for small exchanges: no push, no priorities,
+ * and the response headers are sent as uncompressed literals.</p>
+ */
+class H2cServer implements AutoCloseable {
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final int DATA = 0, HEADERS = 1, RST_STREAM = 3, SETTINGS = 4, PING = 6, GOAWAY = 7,
+            WINDOW_UPDATE = 8, CONTINUATION = 9;
+    private static final int END_STREAM = 0x1, ACK = 0x1, END_HEADERS = 0x4, PADDED = 0x8, PRIORITY = 0x20;
+    private static final int MAX_FRAME_SIZE = 16384;
+    private static final int DEFAULT_WINDOW = 65535;
+
+    interface Handler {
+        void handle(Exchange exchange) throws IOException;
+    }
+
+    interface Responder {
+        void respond(int status, String[] headers, byte[] body) throws IOException;
+    }
+
+    static final class Exchange {
+        final int connection;// sequence number of the connection, from 1
+        final int streamId;// 0 for HTTP/1.1
+        final String method;
+        final String path;
+        final List<String[]> headers;
+        final byte[] body;
+        private final Responder responder;
+
+        Exchange(int connection, int streamId, String method, String path, List<String[]> headers, byte[] body,
+                 Responder responder) {
+            this.connection = connection;
+            this.streamId = streamId;
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+            this.body = body;
+            this.responder = responder;
+        }
+
+        String header(String name) {
+            for (String[] header : headers) {
+                if (header[0].equalsIgnoreCase(name))
+                    return header[1];
+            }
+            return null;
+        }
+
+        /**
+         * @param headers names and values
+         */
+        void respond(int status, byte[] body, String... headers) throws IOException {
+            responder.respond(status, headers, body);
+        }
+    }
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, Handler> handlers = new ConcurrentHashMap<>();
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger activeStreams = new AtomicInteger();
+    final AtomicInteger maxActiveStreams = new AtomicInteger();
+
+    H2cServer() throws IOException {
+        serverSocket = new ServerSocket(0, 64, InetAddress.getLoopbackAddress());
+        executor.execute(this::accept);
+    }
+
+    H2cServer handle(String pathPrefix, Handler handler) {
+        handlers.put(pathPrefix, handler);
+        return this;
+    }
+
+    String url(String path) {
+        return "http://" + serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort() + path;
+    }
+
+    @Override
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+        executor.shutdownNow();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                sockets.add(socket);
+                final Connection connection = new Connection(socket, connections.incrementAndGet());
+                executor.execute(connection::run);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void serve(Exchange exchange) {
+        executor.execute(() -> {
+            final int active = activeStreams.incrementAndGet();
+            maxActiveStreams.accumulateAndGet(active, Math::max);
+            try {
+                Handler handler = null;
+                String match = null;
+                for (Map.Entry<String, Handler> entry : handlers.entrySet()) {
+                    if (exchange.path.startsWith(entry.getKey())
+                            && (match == null || entry.getKey().length() > match.length())) {
+                        match = entry.getKey();
+                        handler = entry.getValue();
+                    }
+                }
+                if (handler == null)
+                    exchange.respond(404, new byte[0]);
+                else
+                    handler.handle(exchange);
+            } catch (IOException ignored) {
+            } finally {
+                activeStreams.decrementAndGet();
+            }
+        });
+    }
+
+    private final class Connection {
+        private final Socket socket;
+        private final int id;
+        private DataInputStream in;
+        private OutputStream out;
+        private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+        private final HpackDecoder decoder = new HpackDecoder();
+        // guarded by this
+        private int connectionWindow = DEFAULT_WINDOW;
+        private int initialWindow = DEFAULT_WINDOW;
+        private boolean closed;
+        // header block in progress
+        private Stream headersStream;
+        private boolean headersEndStream;
+        private ByteArrayOutputStream headerBlock;
+
+        Connection(Socket socket, int id) {
+            this.socket = socket;
+            this.id = id;
+        }
+
+        void run() {
+            try {
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new BufferedOutputStream(socket.getOutputStream());
+                final String head = readHead();
+                if (head.startsWith("PRI * HTTP/2.0")) {
+                    in.readFully(new byte[PREFACE.length - head.length()]);// rest of the preface
+                    writeFrame(SETTINGS, 0, 0, new byte[0], 0, 0);
+                } else if (!upgrade(head)) {
+                    return;
+                }
+                readFrames();
+            } catch (IOException ignored) {
+            } finally {
+                synchronized (this) {
+                    closed = true;
+                    notifyAll();
+                }
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+                sockets.remove(socket);
+            }
+        }
+
+        // an HTTP/1.1 request head, or the first part of the preface
+        private String readHead() throws IOException {
+            final ByteArrayOutputStream head = new ByteArrayOutputStream();
+            int last = 0, b;
+            while ((b = in.read()) != -1) {
+                head.write(b);
+                last = last << 8 | b;
+                if (last == 0x0D0A0D0A)
+                    return head.toString("ISO-8859-1");
+            }
+            throw new EOFException();
+        }
+
+        // false if the request has been answered with HTTP/1.1
+        private boolean upgrade(String head) throws IOException {
+            final String[] lines = head.split("\r\n");
+            final String[] requestLine = lines[0].split(" ");
+            final List<String[]> headers = new ArrayList<>();
+            int contentLength = 0;
+            boolean h2c = false;
+            for (int i = 1; i < lines.length; i++) {
+                final int colon = lines[i].indexOf(':');
+                final String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ENGLISH);
+                final String value = lines[i].substring(colon + 1).trim();
+                if (name.equals("content-length"))
+                    contentLength = Integer.parseInt(value);
+                if (name.equals("upgrade") && value.equalsIgnoreCase("h2c"))
+                    h2c = true;
+                headers.add(new String[]{name, value});
+            }
+            final byte[] body = new byte[contentLength];
+            in.readFully(body);
+            if (!h2c) {
+                serve(new Exchange(id, 0, requestLine[0], requestLine[1], headers, body, this::respondHttp1));
+                return false;
+            }
+            out.write("HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n"
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            writeFrame(SETTINGS, 0, 0, new byte[0], 0, 0);
+            final byte[] preface = new byte[PREFACE.length];
+            in.readFully(preface);
+            if (!Arrays.equals(preface, PREFACE))
+                throw new IOException("Bad preface");
+            // the upgraded request is stream 1
+            final Stream stream = new Stream(1);
+            streams.put(1, stream);
+            serve(new Exchange(id, 1, requestLine[0], requestLine[1], headers, body,
+                    (status, responseHeaders, responseBody) -> respond(stream, status, responseHeaders, responseBody)));
+            return true;
+        }
+
+        private void respondHttp1(int status, String[] headers, byte[] body) throws IOException {
+            final StringBuilder head = new StringBuilder("HTTP/1.1 ").append(status).append(" Status\r\n");
+            for (int i = 0; i < headers.length; i += 2) {
+                head.append(headers[i]).append(": ").append(headers[i + 1]).append("\r\n");
+            }
+            head.append("Content-Length: ").append(body.length).append("\r\nConnection: close\r\n\r\n");
+            synchronized (this) {
+                out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+                out.write(body);
+                out.flush();
+            }
+            socket.close();
+        }
+
+        private void readFrames() throws IOException {
+            while (true) {
+                final int length = in.readUnsignedByte() << 16 | in.readUnsignedShort();
+                final int type = in.readUnsignedByte();
+                final int flags = in.readUnsignedByte();
+                final int streamId = in.readInt() & Integer.MAX_VALUE;
+                final byte[] payload = new byte[length];
+                in.readFully(payload);
+                switch (type) {
+                    case DATA:
+                        onData(streamId, flags, payload);
+                        break;
+                    case HEADERS:
+                        int offset = 0, end = length;
+                        if ((flags & PADDED) != 0) {
+                            end -= payload[0] & 0xFF;
+                            offset++;
+                        }
+                        if ((flags & PRIORITY) != 0)
+                            offset += 5;
+                        headersStream = new Stream(streamId);
+                        headersEndStream = (flags & END_STREAM) != 0;
+                        headerBlock = new ByteArrayOutputStream();
+                        headerBlock.write(payload, offset, end - offset);
+                        if ((flags & END_HEADERS) != 0)
+                            onHeaders();
+                        break;
+                    case CONTINUATION:
+                        headerBlock.write(payload, 0, length);
+                        if ((flags & END_HEADERS) != 0)
+                            onHeaders();
+                        break;
+                    case SETTINGS:
+                        if ((flags & ACK) == 0)
+                            onSettings(payload);
+                        break;
+                    case PING:
+                        if ((flags & ACK) == 0)
+                            writeFrame(PING, ACK, 0, payload, 0, payload.length);
+                        break;
+                    case WINDOW_UPDATE:
+                        onWindowUpdate(streamId, ByteBuffer.wrap(payload).getInt() & Integer.MAX_VALUE);
+                        break;
+                    case RST_STREAM:
+                        streams.remove(streamId);
+                        break;
+                    case GOAWAY:
+                        return;
+                    default:
+                        break;// PRIORITY and unknown frames
+                }
+            }
+        }
+
+        private void onData(int streamId, int flags, byte[] payload) throws IOException {
+            int offset = 0, end = payload.length;
+            if ((flags & PADDED) != 0) {
+                end -= payload[0] & 0xFF;
+                offset++;
+            }
+            final Stream stream = streams.get(streamId);
+            if (stream != null)
+                stream.body.write(payload, offset, end - offset);
+            if (payload.length > 0) {
+                // give the window back right away
+                final byte[] increment = ByteBuffer.allocate(4).putInt(payload.length).array();
+                writeFrame(WINDOW_UPDATE, 0, 0, increment, 0, 4);
+                writeFrame(WINDOW_UPDATE, 0, streamId, increment, 0, 4);
+            }
+            if (stream != null && (flags & END_STREAM) != 0)
+                dispatch(stream);
+        }
+
+        private void onHeaders() {
+            final Stream stream = headersStream;
+            final List<String[]> headers = decoder.decode(headerBlock.toByteArray());
+            headerBlock = null;
+            for (String[] header : headers) {
+                if (header[0].equals(":method"))
+                    stream.method = header[1];
+                else if (header[0].equals(":path"))
+                    stream.path = header[1];
+                else if (!header[0].startsWith(":"))
+                    stream.headers.add(header);
+            }
+            streams.put(stream.id, stream);
+            if (headersEndStream)
+                dispatch(stream);
+        }
+
+        private void dispatch(Stream stream) {
+            serve(new Exchange(id, stream.id, stream.method, stream.path, stream.headers,
+                    stream.body.toByteArray(), (status, headers, body) -> respond(stream, status, headers, body)));
+        }
+
+        private void onSettings(byte[] payload) throws IOException {
+            final ByteBuffer settings = ByteBuffer.wrap(payload);
+            while (settings.remaining() >= 6) {
+                final int identifier = settings.getShort() & 0xFFFF;
+                final int value = settings.getInt();
+                if (identifier == 0x4) {// SETTINGS_INITIAL_WINDOW_SIZE
+                    synchronized (this) {
+                        for (Stream stream : streams.values()) {
+                            stream.window += value - initialWindow;
+                        }
+                        initialWindow = value;
+                        notifyAll();
+                    }
+                }
+            }
+            writeFrame(SETTINGS, ACK, 0, new byte[0], 0, 0);
+        }
+
+        private synchronized void onWindowUpdate(int streamId, int increment) {
+            if (streamId == 0) {
+                connectionWindow += increment;
+            } else {
+                final Stream stream = streams.get(streamId);
+                if (stream != null)
+                    stream.window += increment;
+            }
+            notifyAll();
+        }
+
+        private void respond(Stream stream, int status, String[] headers, byte[] body) throws IOException {
+            final ByteArrayOutputStream block = new ByteArrayOutputStream();
+            writeLiteral(block, ":status", String.valueOf(status));
+            for (int i = 0; i < headers.length; i += 2) {
+                writeLiteral(block, headers[i].toLowerCase(Locale.ENGLISH), headers[i + 1]);
+            }
+            writeLiteral(block, "content-length", String.valueOf(body.length));
+            final byte[] headerBytes = block.toByteArray();
+            writeFrame(HEADERS, END_HEADERS | (body.length == 0 ? END_STREAM : 0), stream.id,
+                    headerBytes, 0, headerBytes.length);
+            int position = 0;
+            while (position < body.length) {
+                synchronized (this) {
+                    int count;
+                    while ((count = Math.min(Math.min(body.length - position, MAX_FRAME_SIZE),
+                            Math.min(connectionWindow, stream.window))) <= 0) {
+                        if (closed)
+                            throw new EOFException();
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            throw new InterruptedIOException();
+                        }
+                    }
+                    connectionWindow -= count;
+                    stream.window -= count;
+                    writeFrame(DATA, position + count == body.length ? END_STREAM : 0, stream.id, body, position, count);
+                    position += count;
+                }
+            }
+            streams.remove(stream.id);
+        }
+
+        private synchronized void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int length)
+                throws IOException {
+            out.write(new byte[]{(byte) (length >>> 16), (byte) (length >>> 8), (byte) length, (byte) type, (byte) flags,
+                    (byte) (streamId >>> 24), (byte) (streamId >>> 16), (byte) (streamId >>> 8), (byte) streamId});
+            out.write(payload, offset, length);
+            out.flush();
+        }
+
+        private final class Stream {
+            final int id;
+            String method;
+            String path;
+            final List<String[]> headers = new ArrayList<>();
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            int window;// guarded by the connection
+
+            Stream(int id) {
+                this.id = id;
+                synchronized (Connection.this) {
+                    window = initialWindow;
+                }
+            }
+        }
+    }
+
+    // literal header field without indexing, new name, no huffman
+    private static void writeLiteral(ByteArrayOutputStream block, String name, String value) {
+        block.write(0);
+        writeString(block, name);
+        writeString(block, value);
+    }
+
+    private static void writeString(ByteArrayOutputStream block, String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        writeInteger(block, bytes.length, 7, 0);
+        block.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeInteger(ByteArrayOutputStream block, int value, int prefix, int flags) {
+        final int max = (1 << prefix) - 1;
+        if (value < max) {
+            block.write(flags | value);
+            return;
+        }
+        block.write(flags | max);
+        value -= max;
+        while (value >= 0x80) {
+            block.write(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        block.write(value);
+    }
+
+    /**
+     * HPACK decoder with the static table, the dynamic table and the canonical huffman code.
+     */
+    static final class HpackDecoder {
+        private static final String[][] STATIC_TABLE = {
+                {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"},
+                {":path", "/index.html"}, {":scheme", "http"}, {":scheme", "https"}, {":status", "200"},
+                {":status", "204"}, {":status", "206"}, {":status", "304"}, {":status", "400"},
+                {":status", "404"}, {":status", "500"}, {"accept-charset", ""}, {"accept-encoding", "gzip, deflate"},
+                {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""}, {"access-control-allow-origin", ""},
+                {"age", ""}, {"allow", ""}, {"authorization", ""}, {"cache-control", ""},
+                {"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""},
+                {"content-length", ""}, {"content-location", ""}, {"content-range", ""}, {"content-type", ""},
+                {"cookie", ""}, {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""}, {"from", ""},
+                {"host", ""}, {"if-match", ""}, {"if-modified-since", ""}, {"if-none-match", ""},
+                {"if-range", ""}, {"if-unmodified-since", ""}, {"last-modified", ""}, {"link", ""},
+                {"location", ""}, {"max-forwards", ""}, {"proxy-authenticate", ""}, {"proxy-authorization", ""},
+                {"range", ""}, {"referer", ""}, {"refresh", ""}, {"retry-after", ""}, {"server", ""},
+                {"set-cookie", ""}, {"strict-transport-security", ""}, {"transfer-encoding", ""},
+                {"user-agent", ""}, {"vary", ""}, {"via", ""}, {"www-authenticate", ""},
+        };
+        // code lengths of the symbols 0-256 of RFC 7541 Appendix B, the code is canonical
+        private static final int[] CODE_LENGTHS = {
+                13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+                6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6, 5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+                13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+                15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5, 6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+                20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23, 24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+                22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23, 21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+                26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25, 19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+                20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23, 26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+                30,
+        };
+        private static final int MAX_CODE_LENGTH = 30;
+        private static final int[] FIRST_CODE = new int[MAX_CODE_LENGTH + 1];
+        private static final int[] COUNT = new int[MAX_CODE_LENGTH + 1];
+        private static final int[] OFFSET = new int[MAX_CODE_LENGTH + 1];
+        private static final int[] SYMBOLS = new int[CODE_LENGTHS.length];// ordered by code
+
+        static {
+            for (int length : CODE_LENGTHS) {
+                COUNT[length]++;
+            }
+            int code = 0, offset = 0;
+            for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+                FIRST_CODE[length] = code;
+                OFFSET[length] = offset;
+                code = (code + COUNT[length]) << 1;
+                offset += COUNT[length];
+            }
+            final int[] next = OFFSET.clone();
+            for (int symbol = 0; symbol < CODE_LENGTHS.length; symbol++) {
+                SYMBOLS[next[CODE_LENGTHS[symbol]]++] = symbol;
+            }
+        }
+
+        private final ArrayDeque<String[]> dynamicTable = new ArrayDeque<>();
+        private int tableSize;
+        private int maxTableSize = 4096;
+
+        List<String[]> decode(byte[] block) {
+            final ByteBuffer buffer = ByteBuffer.wrap(block);
+            final List<String[]> headers = new ArrayList<>();
+            while (buffer.hasRemaining()) {
+                final int first = buffer.get() & 0xFF;
+                if ((first & 0x80) != 0) {
+                    final String[] entry = entry(readInteger(buffer, first, 7));
+                    headers.add(new String[]{entry[0], entry[1]});
+                } else if ((first & 0xC0) == 0x40) {
+                    final String[] header = readLiteral(buffer, first, 6);
+                    headers.add(header);
+                    add(header);
+                } else if ((first & 0xE0) == 0x20) {
+                    maxTableSize = readInteger(buffer, first, 5);
+                    evict();
+                } else {
+                    headers.add(readLiteral(buffer, first, 4));// without indexing or never indexed
+                }
+            }
+            return headers;
+        }
+
+        private String[] entry(int index) {
+            if (index <= STATIC_TABLE.length)
+                return STATIC_TABLE[index - 1];
+            final Iterator<String[]> it = dynamicTable.iterator();
+            for (int i = STATIC_TABLE.length + 1; i < index; i++) {
+                it.next();
+            }
+            return it.next();
+        }
+
+        private void add(String[] header) {
+            dynamicTable.addFirst(header);
+            tableSize += header[0].length() + header[1].length() + 32;
+            evict();
+        }
+
+        private void evict() {
+            while (tableSize > maxTableSize) {
+                final String[] removed = dynamicTable.removeLast();
+                tableSize -= removed[0].length() + removed[1].length() + 32;
+            }
+        }
+
+        private String[] readLiteral(ByteBuffer buffer, int first, int prefix) {
+            final int index = readInteger(buffer, first, prefix);
+            final String name = index == 0 ? readString(buffer) : entry(index)[0];
+            return new String[]{name, readString(buffer)};
+        }
+
+        private static int readInteger(ByteBuffer buffer, int first, int prefix) {
+            final int max = (1 << prefix) - 1;
+            int value = first & max;
+            if (value < max)
+                return value;
+            int shift = 0, b;
+            do {
+                b = buffer.get() & 0xFF;
+                value += (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        private static String readString(ByteBuffer buffer) {
+            final int first = buffer.get() & 0xFF;
+            final byte[] bytes = new byte[readInteger(buffer, first, 7)];
+            buffer.get(bytes);
+            return (first & 0x80) != 0 ? huffmanDecode(bytes) : new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+
+        static String huffmanDecode(byte[] bytes) {
+            final StringBuilder text = new StringBuilder(bytes.length * 8 / 5);
+            int code = 0, length = 0;
+            for (byte b : bytes) {
+                for (int bit = 7; bit >= 0; bit--) {
+                    code = code << 1 | (b >>> bit & 1);
+                    length++;
+                    final int index = code - FIRST_CODE[length];
+                    if (index >= 0 && index < COUNT[length]) {
+                        text.append((char) SYMBOLS[OFFSET[length] + index]);
+                        code = 0;
+                        length = 0;
+                    }
+                }
+            }
+            return text.toString();// the rest is padding of ones
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package io.github.edsuns.net;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HeadersTest {
+
+    private static Map<String, List<String>> fields(String... nameValues) {
+        final Map<String, List<String>> fields = new LinkedHashMap<>();
+        fields.put(null, Collections.singletonList("HTTP/1.1 200 OK"));
+        for (int i = 0; i < nameValues.length; i += 2) {
+            fields.computeIfAbsent(nameValues[i], k -> new ArrayList<>()).add(nameValues[i + 1]);
+        }
+        return fields;
+    }
+
+    @Test
+    public void testLookup() {
+        final Map<String, List<String>> fields = fields(
+                "content-type", "text/html; charset=\"ISO-8859-1\"; Boundary=abc",
+                "Content-Length", " 42 ",
+                "Set-Cookie", "a=1",
+                "Set-cookie", "b=2",
+                "X-Custom", "value");
+        final Headers headers = Headers.of(fields);
+
+        assertEquals(4, headers.size());// Set-cookie merged, the status line skipped
+        assertEquals(Arrays.asList("Content-Type", "Content-Length", "Set-Cookie", "X-Custom"), headers.names());
+        assertSame(headers.names().get(0), Headers.of(fields).names().get(0));// shared constant
+        assertEquals("value", headers.getFirst("x-CUSTOM"));
+        assertNull(headers.get("X-Missing"));
+        assertNull(headers.get(null));
+        assertTrue(headers.contains("X-Custom", "VALUE"));
+        assertFalse(headers.contains("X-Custom", "other"));
+
+        assertEquals(42, headers.getContentLength());
+        assertEquals("text/html", headers.getMediaType());
+        assertEquals("abc", headers.getContentTypeParameter("boundary"));
+        assertEquals(StandardCharsets.ISO_8859_1, headers.getCharset());
+        assertEquals(Arrays.asList("a=1", "b=2"), headers.getSetCookies());
+    }
+
+    @Test
+    public void testMissing() {
+        final Headers headers = Headers.of(fields("Content-Length", "oops", "Content-Type", "text/plain; charset=nope"));
+        assertEquals(-1, headers.getContentLength());
+        assertEquals("text/plain", headers.getMediaType());
+        assertNull(headers.getCharset());
+        assertTrue(headers.getSetCookies().isEmpty());
+
+        final Headers empty = Headers.of(null);
+        assertEquals(0, empty.size());
+        assertNull(empty.getMediaType());
+        assertEquals(-1, empty.getContentLength());
+    }
+
+    @Test
+    public void testManyHeaders() {
+        final String[] nameValues = new String[200];
+        for (int i = 0; i < 100; i++) {
+            nameValues[i * 2] = "X-Header-" + i;
+            nameValues[i * 2 + 1] = String.valueOf(i);
+        }
+        final Headers headers = Headers.of(fields(nameValues));
+        assertEquals(100, headers.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(String.valueOf(i), headers.getFirst("x-header-" + i));
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package io.github.edsuns.net;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HostSchedulerTest {
+    private static final String HOST = "127.0.0.1";
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final AtomicInteger busy = new AtomicInteger();
+    private static final AtomicInteger blocked = new AtomicInteger();
+    private static volatile CountDownLatch release;
+    private static TestServer server;
+
+    @BeforeAll
+    public static void start() throws IOException {
+        server = new TestServer()
+                .handle("/ok", exchange -> TestServer.send(exchange, HTTP_OK,
+                        "text/plain; charset=utf-8", "ok".getBytes(StandardCharsets.UTF_8)))
+                .handle("/busy", exchange -> {
+                    if (busy.getAndDecrement() > 0) {
+                        exchange.getResponseHeaders().set("Retry-After", "3");
+                        TestServer.send(exchange, 429, null, new byte[0]);
+                    } else {
+                        TestServer.send(exchange, HTTP_OK, "text/plain; charset=utf-8",
+                                "ok".getBytes(StandardCharsets.UTF_8));
+                    }
+                })
+                .handle("/block", exchange -> {
+                    blocked.incrementAndGet();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException ignored) {
+                    }
+                    TestServer.send(exchange, HTTP_OK, null, new byte[0]);
+                });
+    }
+
+    @AfterAll
+    public static void stop() {
+        server.close();
+    }
+
+    // records the delays of the wake-ups instead of running them, the test advances the ticker itself
+    private static final class FakeTimer extends ScheduledThreadPoolExecutor {
+        final List<Long> delays = new ArrayList<>();
+
+        FakeTimer() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            delays.add(unit.toNanos(delay));
+            return null;
+        }
+    }
+
+    private static int done(List<CompletableFuture<HttpRequest>> futures) {
+        int done = 0;
+        for (CompletableFuture<HttpRequest> future : futures) {
+            if (future.isDone())
+                done++;
+        }
+        return done;
+    }
+
+    @Test
+    public void testTokenBucket() throws IOException {
+        final AtomicLong now = new AtomicLong();
+        final FakeTimer timer = new FakeTimer();
+        final HostScheduler scheduler = new HostScheduler().rate(HOST, 2, 2)
+                .executor(Runnable::run).timer(timer).ticker(now::get);
+
+        final List<CompletableFuture<HttpRequest>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(scheduler.submit(new HttpRequest(server.url("/ok"))));
+        }
+        assertEquals(2, done(futures));// the burst
+        assertEquals(3, scheduler.getQueued(HOST));
+        assertEquals(SECOND / 2, timer.delays.get(0));
+
+        now.addAndGet(SECOND / 2);
+        scheduler.dispatch();
+        assertEquals(3, done(futures));
+
+        now.addAndGet(SECOND);
+        scheduler.dispatch();
+        assertEquals(5, done(futures));
+        assertEquals(0, scheduler.getQueued(HOST));
+        for (CompletableFuture<HttpRequest> future : futures) {
+            assertEquals("ok", future.join().getBody());
+        }
+    }
+
+    @Test
+    public void testRetryAfter() {
+        final AtomicLong now = new AtomicLong();
+        final FakeTimer timer = new FakeTimer();
+        final HostScheduler scheduler = new HostScheduler().rate(1000, 1000).maxConcurrent(1)
+                .executor(Runnable::run).timer(timer).ticker(now::get);
+        busy.set(1);
+
+        final CompletableFuture<HttpRequest> first = scheduler.submit(new HttpRequest(server.url("/busy")));
+        final CompletableFuture<HttpRequest> second = scheduler.submit(new HttpRequest(server.url("/busy")));
+        assertEquals(429, first.join().getStatus());// returned as is
+        assertFalse(second.isDone());
+        assertEquals(3 * SECOND, scheduler.getPause(HOST));
+        assertEquals(3 * SECOND, timer.delays.get(timer.delays.size() - 1));
+
+        now.addAndGet(2 * SECOND);
+        scheduler.dispatch();
+        assertFalse(second.isDone());
+
+        now.addAndGet(SECOND);
+        scheduler.dispatch();
+        assertEquals(HTTP_OK, second.join().getStatus());
+        assertEquals(0, scheduler.getPause(HOST));
+    }
+
+    @Test
+    public void testMaxConcurrent() throws InterruptedException, TimeoutException, ExecutionException {
+        release = new CountDownLatch(1);
+        blocked.set(0);
+        final HostScheduler scheduler = new HostScheduler().rate(1000, 1000).maxConcurrent(2);
+        final List<CompletableFuture<HttpRequest>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(scheduler.submit(new HttpRequest(server.url("/block"))));
+        }
+        while (blocked.get() < 2) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        assertEquals(2, blocked.get());
+        assertEquals(2, scheduler.getInFlight(HOST));
+        assertEquals(3, scheduler.getQueued(HOST));
+
+        futures.get(4).cancel(false);
+        release.countDown();
+        for (int i = 0; i < 4; i++) {
+            assertEquals(HTTP_OK, futures.get(i).get(10, TimeUnit.SECONDS).getStatus());
+        }
+        assertEquals(4, blocked.get());// the cancelled one never ran
+        assertEquals(0, scheduler.getInFlight(HOST));
+    }
+
+    @Test
+    public void testParseRetryAfter() {
+        final long now = 1_700_000_000_000L;
+        assertEquals(120_000, HostScheduler.parseRetryAfter(" 120 ", now));
+        final String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                ZonedDateTime.ofInstant(Instant.ofEpochMilli(now + 30_000), ZoneOffset.UTC));
+        assertEquals(30_000, HostScheduler.parseRetryAfter(date, now));
+        assertEquals(0, HostScheduler.parseRetryAfter(date, now + 60_000));
+        assertEquals(-1, HostScheduler.parseRetryAfter("-5", now));
+        assertEquals(-1, HostScheduler.parseRetryAfter("soon", now));
+        assertEquals(-1, HostScheduler.parseRetryAfter(null, now));
+    }
+
+    @Test
+    public void testRejectingExecutor() {
+        final AtomicLong now = new AtomicLong();
+        final HostScheduler scheduler = new HostScheduler().rate(1e9, 1_000_000).timer(new FakeTimer())
+                .ticker(now::get).executor(command -> {
+                    throw new RejectedExecutionException("rejected");
+                });
+        scheduler.pause(HOST, SECOND);
+        final List<CompletableFuture<HttpRequest>> futures = new ArrayList<>();
+        for (int i = 0; i < 50000; i++) {
+            futures.add(scheduler.submit(new HttpRequest(server.url("/ok"))));
+        }
+        assertEquals(0, done(futures));
+
+        // every rejection frees a slot for the next request, without recursing
+        now.addAndGet(SECOND);
+        scheduler.dispatch();
+        assertEquals(50000, done(futures));
+        assertEquals(0, scheduler.getInFlight(HOST));
+        final CompletionException e = assertThrows(CompletionException.class, () -> futures.get(0).join());
+        assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+
+    @Test
+    public void testIdleHostsEvicted() {
+        final AtomicLong now = new AtomicLong();
+        final HostScheduler scheduler = new HostScheduler().executor(Runnable::run).timer(new FakeTimer())
+                .ticker(now::get);
+        int max = 0;
+        for (int i = 0; i < 300; i++) {
+            // refused quickly, every loopback address is another host
+            scheduler.submit(new HttpRequest("http://127.0." + (i / 200) + "." + (i % 200 + 1) + ":1/"));
+            max = Math.max(max, scheduler.getHostCount());
+            now.addAndGet(SECOND / 10);// a token is back in the bucket of the previous hosts
+        }
+        assertTrue(max <= 64, "hosts kept: " + max);
+    }
+}
@@ -0,0 +1,143 @@
+package io.github.edsuns.net;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static java.net.HttpURLConnection.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class Http2TransportTest {
+    private static H2cServer server;
+    private static final Set<Integer> streamConnections = ConcurrentHashMap.newKeySet();
+
+    @BeforeAll
+    public static void start() throws IOException {
+        server = new H2cServer()
+                .handle("/hello", exchange -> {
+                    if (exchange.streamId > 0)
+                        streamConnections.add(exchange.connection);
+                    exchange.respond(HTTP_OK, "你好, h2c".getBytes(StandardCharsets.UTF_8),
+                            "Content-Type", "text/plain; charset=utf-8");
+                })
+                .handle("/headers", exchange -> exchange.respond(HTTP_OK,
+                        (exchange.header("x-token") + "|" + exchange.header("cookie")).getBytes(StandardCharsets.UTF_8),
+                        "Content-Type", "text/plain"))
+                .handle("/echo", exchange -> exchange.respond(HTTP_OK,
+                        (exchange.method + " " + new String(exchange.body, StandardCharsets.UTF_8))
+                                .getBytes(StandardCharsets.UTF_8), "Content-Type", "text/plain"))
+                .handle("/login", exchange -> exchange.respond(HTTP_MOVED_TEMP, new byte[0],
+                        "Location", "/headers", "Set-Cookie", "session=h2; Path=/"))
+                .handle("/slow", exchange -> {
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException ignored) {
+                    }
+                    exchange.respond(HTTP_OK, String.valueOf(exchange.connection).getBytes(StandardCharsets.UTF_8),
+                            "Content-Type", "text/plain");
+                })
+                .handle("/missing", exchange -> exchange.respond(HTTP_NOT_FOUND,
+                        "not found".getBytes(StandardCharsets.UTF_8), "Content-Type", "text/plain"));
+    }
+
+    @AfterAll
+    public static void stop() {
+        server.close();
+    }
+
+    @BeforeEach
+    public void requireJava11() {
+        assumeTrue(Http2Transport.isSupported(), "HTTP/2 needs Java 11+");
+    }
+
+    private static HttpRequest request(Http2Transport transport, String path) {
+        return new HttpRequest(server.url(path)).transport(transport);
+    }
+
+    @Test
+    public void testGet() throws IOException {
+        final HttpRequest request = request(new Http2Transport(), "/hello").exec();
+
+        assertEquals(HTTP_OK, request.getStatus());
+        assertEquals("你好, h2c", request.getBody());
+        assertEquals("HTTP/2 200", request.getConnection().getHeaderField(0));
+        assertEquals("text/plain; charset=utf-8", request.getHeader("Content-Type").get(0));
+    }
+
+    @Test
+    public void testHeadersRedirectsAndCookies() throws IOException {
+        final HttpRequest request = request(new Http2Transport(), "/login")
+                .headers(HttpRequest.data("X-Token", "t0k3n"))
+                .followRedirects(true)
+                .exec();
+
+        assertEquals(HTTP_OK, request.getStatus());
+        assertEquals(2, request.getRedirects().size());
+        assertTrue(request.getCookies().containsKey("session"));
+        assertTrue(request.getBody().startsWith("t0k3n|session=h2"));
+    }
+
+    @Test
+    public void testPost() throws IOException {
+        final Http2Transport transport = new Http2Transport();
+        request(transport, "/hello").exec().getBody();// upgrade the connection first
+        final HttpRequest request = request(transport, "/echo")
+                .exec(HttpRequest.Method.POST, HttpRequest.data("k", "v"));
+
+        assertEquals("POST k=v", request.getBody());
+    }
+
+    @Test
+    public void testErrorStatus() throws IOException {
+        final HttpRequest request = request(new Http2Transport(), "/missing").exec();
+
+        assertEquals(HTTP_NOT_FOUND, request.getStatus());
+        assertEquals("not found", request.getBody());
+    }
+
+    @Test
+    public void testMultiplexing() throws Exception {
+        final Http2Transport transport = new Http2Transport();
+        streamConnections.clear();
+        request(transport, "/hello").exec().getBody();// upgrade the connection first
+
+        final ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            final List<CompletableFuture<HttpRequest>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                futures.add(request(transport, "/slow").execAsync(HttpRequest.Method.GET, null, executor));
+            }
+            final Set<String> connections = ConcurrentHashMap.newKeySet();
+            for (CompletableFuture<HttpRequest> future : futures) {
+                connections.add(future.get(10, TimeUnit.SECONDS).getBody());
+            }
+            // all on the upgraded connection, served concurrently
+            assertEquals(1, streamConnections.size());
+            assertEquals(streamConnections, toIntegers(connections));
+            assertTrue(server.maxActiveStreams.get() > 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Set<Integer> toIntegers(Set<String> values) {
+        final Set<Integer> integers = ConcurrentHashMap.newKeySet();
+        for (String value : values) {
+            integers.add(Integer.valueOf(value));
+        }
+        return integers;
+    }
+}
@@ -0,0 +1,103 @@
+package io.github.edsuns.net;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static java.net.HttpURLConnection.HTTP_MOVED_TEMP;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HttpClientTest {
+    private static TestServer server;
+
+    @BeforeAll
+    public static void start() throws IOException {
+        server = new TestServer()
+                .handle("/api/headers", exchange -> {
+                    final String body = exchange.getRequestURI().getPath() + "|"
+                            + exchange.getRequestHeaders().getFirst("User-Agent") + "|"
+                            + exchange.getRequestHeaders().getFirst("X-Token") + "|"
+                            + exchange.getRequestHeaders().getFirst("X-Call") + "|"
+                            + exchange.getRequestHeaders().getFirst("Cookie");
+                    TestServer.send(exchange, HTTP_OK, "text/plain; charset=utf-8", body.getBytes(StandardCharsets.UTF_8));
+                })
+                .handle("/api/login", exchange -> {
+                    exchange.getResponseHeaders().add("Set-Cookie", "session=c1; Path=/");
+                    TestServer.send(exchange, HTTP_OK, "text/plain", "ok".getBytes(StandardCharsets.UTF_8));
+                })
+                .handle("/api/redirect", exchange -> {
+                    exchange.getResponseHeaders().set("Location", "/api/headers");
+                    TestServer.send(exchange, HTTP_MOVED_TEMP, "text/plain", new byte[0]);
+                });
+    }
+
+    @AfterAll
+    public static void stop() {
+        server.close();
+    }
+
+    @Test
+    public void testDefaults() throws IOException {
+        final HttpClient client = HttpClient.builder().baseUrl(server.url("/api/"))
+                .header("User-Agent", "client/1.0").header("X-Token", "t").timeout(3000).build();
+        final HttpRequest request = client.request("headers").headers(HttpRequest.data("X-Call", "c")).exec();
+
+        assertEquals(HTTP_OK, request.getStatus());
+        assertEquals("/api/headers|client/1.0|t|c|null", request.getBody());
+        assertEquals(server.url("/api/headers"), request.getOriginUrl());
+        // the user agent replaced the default one instead of being sent twice
+        assertEquals(2, client.getHeaders().stream().filter(h -> !h[0].startsWith("X-")).count());
+    }
+
+    @Test
+    public void testRedirectPolicy() throws IOException {
+        final HttpClient client = HttpClient.builder().baseUrl(server.url("/")).followRedirects(false).build();
+        assertEquals(HTTP_MOVED_TEMP, client.get("api/redirect").getStatus());
+
+        final HttpClient following = client.newBuilder().followRedirects(true).build();
+        assertEquals(HTTP_OK, following.get("api/redirect").getStatus());
+        assertFalse(client.isFollowRedirects());// unchanged
+    }
+
+    @Test
+    public void testSharedCookieJar() throws IOException {
+        final HttpClient client = HttpClient.builder().baseUrl(server.url("/api/")).cookieJar(new CookieJar()).build();
+        client.get("login");
+        assertTrue(client.get("headers").getBody().endsWith("|session=c1"));
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        final HttpClient client = HttpClient.builder().baseUrl(server.url("/api/")).header("X-Token", "t").build();
+        final ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            final List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                final int call = i;
+                futures.add(executor.submit(() -> client.request("headers")
+                        .headers(HttpRequest.data("X-Call", call)).exec().getBody()));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertTrue(futures.get(i).get(30, TimeUnit.SECONDS).endsWith("|t|" + i + "|null"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        final HttpClient client = HttpClient.builder().executor(Runnable::run).build();
+        assertEquals("ok", client.execAsync(HttpRequest.Method.GET, server.url("/api/login"), null)
+                .get(10, TimeUnit.SECONDS).getBody());
+        assertThrows(ExecutionException.class,
+                () -> client.execAsync(HttpRequest.Method.GET, "no-protocol", null).get());
+    }
+}
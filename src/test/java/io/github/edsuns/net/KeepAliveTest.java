@@ -0,0 +1,143 @@
+package io.github.edsuns.net;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.net.HttpURLConnection.HTTP_MOVED_TEMP;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeepAliveTest {
+    private static TestServer server;
+    private static final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    @BeforeAll
+    public static void start() throws IOException {
+        server = new TestServer()
+                .handle("/port", exchange -> {
+                    clientPorts.add(exchange.getRemoteAddress().getPort());
+                    TestServer.send(exchange, HTTP_OK, "text/plain", "ok".getBytes(StandardCharsets.UTF_8));
+                })
+                .handle("/redirect", exchange -> {
+                    clientPorts.add(exchange.getRemoteAddress().getPort());
+                    exchange.getResponseHeaders().set("Location", "/port");
+                    TestServer.send(exchange, HTTP_MOVED_TEMP, "text/plain", "moved".getBytes(StandardCharsets.UTF_8));
+                });
+    }
+
+    @AfterAll
+    public static void stop() {
+        server.close();
+    }
+
+    private static void fetch(Transport transport, String path, boolean keepAlive) throws IOException {
+        final HttpRequest request = new HttpRequest(server.url(path))
+                .transport(transport).keepAlive(keepAlive).followRedirects(true).exec();
+        assertEquals(HTTP_OK, request.getStatus());
+        assertEquals("ok", request.getBody());
+    }
+
+    @Test
+    public void testJdkKeepAlive() throws IOException {
+        clientPorts.clear();
+        for (int i = 0; i < 5; i++) {
+            fetch(Transport.DEFAULT, "/redirect", true);
+        }
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void testNioPool() throws IOException {
+        clientPorts.clear();
+        try (NioTransport transport = new NioTransport(1)) {
+            for (int i = 0; i < 5; i++) {
+                fetch(transport, "/redirect", true);
+            }
+            final NioTransport.Stats stats = transport.getStats();
+            assertEquals(1, stats.getOpened());
+            assertEquals(9, stats.getReused());
+            assertEquals(1, stats.getIdle());
+            assertEquals(0.9, stats.getReuseRatio(), 1e-9);
+        }
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void testDisconnectClosesPooledSocket() throws IOException {
+        try (NioTransport transport = new NioTransport(1)) {
+            for (int i = 0; i < 3; i++) {
+                fetch(transport, "/port", false);
+            }
+            assertEquals(3, transport.getStats().getOpened());
+            assertEquals(0, transport.getStats().getReused());
+        }
+    }
+
+    @Test
+    public void testPoolingDisabled() throws IOException {
+        try (NioTransport transport = new NioTransport(1).maxIdlePerHost(0)) {
+            for (int i = 0; i < 3; i++) {
+                fetch(transport, "/port", true);
+            }
+            assertEquals(3, transport.getStats().getOpened());
+            assertEquals(0, transport.getStats().getIdle());
+        }
+    }
+
+    @Test
+    public void testIdleTimeout() throws Exception {
+        try (NioTransport transport = new NioTransport(1).idleTimeout(100)) {
+            fetch(transport, "/port", true);
+            assertEquals(1, transport.getStats().getIdle());
+            Thread.sleep(1500);// idle sockets are evicted every second
+            assertEquals(0, transport.getStats().getIdle());
+            fetch(transport, "/port", true);
+            assertEquals(2, transport.getStats().getOpened());
+        }
+    }
+
+    @Test
+    public void testStaleConnectionIsRetried() throws Exception {
+        // answers a single request on every connection, then closes it without saying so
+        try (ServerSocket serverSocket = new ServerSocket(0);
+             NioTransport transport = new NioTransport(1)) {
+            final Thread acceptor = new Thread(() -> {
+                while (!serverSocket.isClosed()) {
+                    try (Socket socket = serverSocket.accept()) {
+                        final InputStream in = socket.getInputStream();
+                        int last = 0, b;
+                        while ((b = in.read()) != -1) {// read up to the end of the head
+                            last = (last << 8 | b) & 0xFFFFFFFF;
+                            if (last == 0x0D0A0D0A)
+                                break;
+                        }
+                        final OutputStream out = socket.getOutputStream();
+                        out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 2\r\n\r\nok")
+                                .getBytes(StandardCharsets.ISO_8859_1));
+                        out.flush();
+                    } catch (IOException ignored) {
+                    }
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+            for (int i = 0; i < 10; i++) {
+                final HttpRequest request = new HttpRequest("http://127.0.0.1:" + serverSocket.getLocalPort() + "/")
+                        .transport(transport).keepAlive(true).exec();
+                assertEquals("ok", request.getBody());
+            }
+            assertEquals(10, transport.getStats().getOpened());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package io.github.edsuns.net;
+
+import com.sun.net.httpserver.Headers;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MultipartTest {
+    private static TestServer server;
+
+    @BeforeAll
+    public static void start() throws IOException {
+        // answers the request headers and the digest of the body
+        server = new TestServer().handle("/upload", exchange -> {
+            final byte[] body = TestServer.readAll(exchange.getRequestBody());
+            final Headers headers = exchange.getRequestHeaders();
+            final String answer = headers.getFirst("Content-Type") + "\n"
+                    + headers.getFirst("Content-Length") + "\n"
+                    + headers.getFirst("Transfer-Encoding") + "\n"
+                    + headers.getFirst("Expect") + "\n"
+                    + body.length + "\n"
+                    + new String(body, 0, Math.min(body.length, 1024), StandardCharsets.ISO_8859_1);
+            TestServer.send(exchange, HTTP_OK, "text/plain; charset=iso-8859-1",
+                    answer.getBytes(StandardCharsets.ISO_8859_1));
+        });
+    }
+
+    @AfterAll
+    public static void stop() {
+        server.close();
+    }
+
+    private static String[] upload(HttpRequest.Data data, boolean expectContinue) throws IOException {
+        final HttpRequest request = new HttpRequest(server.url("/upload")).expectContinue(expectContinue)
+                .exec(HttpRequest.Method.POST, data);
+        assertEquals(HTTP_OK, request.getStatus());
+        return request.getBody().split("\n", 6);
+    }
+
+    @Test
+    public void testFixedLengthFile(@TempDir Path directory) throws IOException {
+        final byte[] content = new byte[3 * 1024 * 1024];
+        new Random(7).nextBytes(content);
+        final Path file = directory.resolve("data.bin");
+        Files.write(file, content);
+
+        final String[] answer = upload(HttpRequest.data("title", "report")
+                .file("attachment", file, null)
+                .file("note", "note.txt", "hello".getBytes(StandardCharsets.UTF_8), "text/plain"), false);
+
+        assertTrue(answer[0].startsWith(HttpRequest.MULTIPART_FORM_DATA + "; boundary="));
+        final String boundary = answer[0].substring(answer[0].indexOf('=') + 1);
+        assertEquals(answer[1], answer[4]);// exact Content-Length
+        assertEquals("null", answer[2]);
+        assertTrue(answer[5].startsWith("--" + boundary + "\r\nContent-Disposition: form-data; name=\"title\"\r\n\r\nreport\r\n"
+                + "--" + boundary + "\r\nContent-Disposition: form-data; name=\"attachment\"; filename=\"data.bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n"));
+        final long overhead = Long.parseLong(answer[4]) - content.length - "hello".length();
+        assertTrue(overhead > 0 && overhead < 1024);
+    }
+
+    @Test
+    public void testChunkedStream() throws IOException {
+        final byte[] content = new byte[100_000];
+        Arrays.fill(content, (byte) 'x');
+        final String[] answer = upload(HttpRequest.data("name", "value")
+                .file("stream", "stream.txt", new ByteArrayInputStream(content), -1, "text/plain"), false);
+
+        assertEquals("null", answer[1]);
+        assertEquals("chunked", answer[2]);
+        assertTrue(Long.parseLong(answer[4]) > content.length);
+    }
+
+    @Test
+    public void testStreamLengthMismatch() {
+        final HttpRequest.Data data = HttpRequest.data("name", "value")
+                .file("stream", "stream.txt", new ByteArrayInputStream(new byte[10]), 20, null);
+        assertThrows(IOException.class, () -> upload(data, false));
+    }
+
+    @Test
+    public void testFormAndExpectContinue() throws IOException {
+        final String[] answer = upload(HttpRequest.data("name", "a b").data("n", 1), true);
+
+        assertTrue(answer[0].startsWith(HttpRequest.FORM_URL_ENCODED));
+        assertEquals("12", answer[1]);
+        assertEquals("100-continue", answer[3]);
+        assertEquals("name=a+b&n=1", answer[5]);
+    }
+
+    @Test
+    public void testNioTransport() throws IOException {
+        final byte[] content = new byte[200_000];
+        new Random(11).nextBytes(content);
+        try (NioTransport transport = new NioTransport(1)) {
+            final HttpRequest request = new HttpRequest(server.url("/upload")).transport(transport)
+                    .exec(HttpRequest.Method.POST, HttpRequest.data("name", "value")
+                            .file("bytes", "bytes.bin", content, null));
+            final String[] answer = request.getBody().split("\n", 6);
+            assertEquals(answer[1], answer[4]);
+            assertTrue(Long.parseLong(answer[4]) > content.length);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package io.github.edsuns.net;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static java.net.HttpURLConnection.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NioTransportTest {
+    private static final String TEXT = "HttpRequest 非阻塞传输 over NIO";
+    private static final byte[] LARGE = new byte[1024 * 1024 + 7];
+
+    private static TestServer server;
+    private static NioTransport transport;
+
+    @BeforeAll
+    public static void start() throws IOException {
+        new Random(3).nextBytes(LARGE);
+        server = new TestServer()
+                .handle("/text", exchange -> TestServer.send(exchange, HTTP_OK, "text/plain; charset=utf-8",
+                        TEXT.getBytes(StandardCharsets.UTF_8)))
+                .handle("/chunked", exchange -> {
+                    exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                    exchange.sendResponseHeaders(HTTP_OK, 0);// chunked
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        for (int i = 0; i < LARGE.length; i += 10000) {
+                            out.write(LARGE, i, Math.min(10000, LARGE.length - i));
+                            out.flush();
+                        }
+                    }
+                })
+                .handle("/gzip", exchange -> {
+                    ByteArrayOutputStream bo = new ByteArrayOutputStream();
+                    try (GZIPOutputStream out = new GZIPOutputStream(bo)) {
+                        out.write(TEXT.getBytes(StandardCharsets.UTF_8));
+                    }
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                    TestServer.send(exchange, HTTP_OK, "text/plain; charset=utf-8", bo.toByteArray());
+                })
+                .handle("/echo", exchange -> {
+                    byte[] received = TestServer.readAll(exchange.getRequestBody());
+                    TestServer.send(exchange, HTTP_OK, "text/plain; charset=utf-8", received);
+                })
+                .handle("/redirect", exchange -> redirect(exchange, "/cookie"))
+                .handle("/cookie", exchange -> {
+                    exchange.getResponseHeaders().add("Set-Cookie", "session=nio; Path=/");
+                    redirect(exchange, "/text");
+                })
+                .handle("/missing", exchange -> TestServer.send(exchange, HTTP_NOT_FOUND, "text/plain",
+                        "not found".getBytes(StandardCharsets.UTF_8)))
+                .handle("/wait", exchange -> {
+                    try {
+                        Thread.sleep(500);
+                    } catch (InterruptedException ignored) {
+                    }
+                    TestServer.send(exchange, HTTP_OK, "text/plain; charset=utf-8",
+                            TEXT.getBytes(StandardCharsets.UTF_8));
+                })
+                .handle("/slow", exchange -> {
+                    try {
+                        Thread.sleep(2000);
+                    } catch (InterruptedException ignored) {
+                    }
+                    TestServer.send(exchange, HTTP_OK, "text/plain", new byte[0]);
+                });
+        transport = new NioTransport(2);
+    }
+
+    private static void redirect(HttpExchange exchange, String location) throws IOException {
+        exchange.getResponseHeaders().set("Location", location);
+        exchange.sendResponseHeaders(HTTP_MOVED_TEMP, -1);
+        exchange.close();
+    }
+
+    @AfterAll
+    public static void stop() {
+        transport.close();
+        server.close();
+    }
+
+    private static HttpRequest request(String path) {
+        return new HttpRequest(server.url(path)).transport(transport);
+    }
+
+    @Test
+    public void testContentLength() throws IOException {
+        final HttpRequest request = request("/text").exec();
+
+        assertEquals(HTTP_OK, request.getStatus());
+        assertEquals(TEXT, request.getBody());
+        assertEquals(StandardCharsets.UTF_8, request.getEncoding());
+        assertTrue(request.getConnection() instanceof NioConnection);
+    }
+
+    @Test
+    public void testChunked() throws IOException {
+        final HttpRequest request = request("/chunked").exec();
+
+        assertEquals(HTTP_OK, request.getStatus());
+        assertArrayEquals(LARGE, request.getBodyBytes());
+    }
+
+    @Test
+    public void testGzip() throws IOException {
+        assertEquals(TEXT, request("/gzip").exec().getBody());
+    }
+
+    @Test
+    public void testPost() throws IOException {
+        final HttpRequest request = request("/echo")
+                .exec(HttpRequest.Method.POST, HttpRequest.data("key", "值").data("n", 1));
+
+        assertEquals("key=%E5%80%BC&n=1", request.getBody());
+    }
+
+    @Test
+    public void testHead() throws IOException {
+        final HttpRequest request = request("/text").exec(HttpRequest.Method.HEAD);
+
+        assertEquals(HTTP_OK, request.getStatus());
+        assertTrue(request.isBodyEmpty());
+    }
+
+    @Test
+    public void testRedirectsAndCookies() throws IOException {
+        final HttpRequest request = request("/redirect").followRedirects(true).exec();
+
+        assertEquals(HTTP_OK, request.getStatus());
+        assertEquals(3, request.getRedirects().size());
+        assertTrue(request.getURL().toString().endsWith("/text"));
+        assertTrue(request.getCookies().containsKey("session"));
+        assertEquals(TEXT, request.getBody());
+    }
+
+    @Test
+    public void testBadStatus() throws IOException {
+        final HttpRequest request = request("/missing").exec();
+
+        assertEquals(HTTP_NOT_FOUND, request.getStatus());
+        assertEquals("not found", request.getBody());
+    }
+
+    @Test
+    public void testReadTimeout() {
+        assertThrows(SocketTimeoutException.class, () -> request("/slow").timeout(300).exec());
+    }
+
+    @Test
+    public void testConnectionRefused() throws IOException {
+        final int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        assertThrows(IOException.class,
+                () -> new HttpRequest("http://127.0.0.1:" + port).transport(transport).exec());
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(32);
+        try {
+            final List<CompletableFuture<HttpRequest>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                futures.add(request("/text").execAsync(HttpRequest.Method.GET, null, executor));
+            }
+            for (CompletableFuture<HttpRequest> future : futures) {
+                assertEquals(TEXT, future.get(10, TimeUnit.SECONDS).getBody());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsyncWithoutWaitingThreads() throws Exception {
+        // 100 responses taking 500ms each, far more than 2 blocked threads could wait for
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final long start = System.nanoTime();
+            final List<CompletableFuture<HttpRequest>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(request("/wait").execAsync(HttpRequest.Method.GET, null, executor));
+            }
+            for (CompletableFuture<HttpRequest> future : futures) {
+                assertEquals(TEXT, future.get(10, TimeUnit.SECONDS).getBody());
+            }
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsyncRedirectsAndPost() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final HttpRequest redirected = request("/redirect").followRedirects(true)
+                    .execAsync(HttpRequest.Method.GET, null, executor).get(10, TimeUnit.SECONDS);
+            assertEquals(3, redirected.getRedirects().size());
+            assertTrue(redirected.getCookies().containsKey("session"));
+            assertEquals(TEXT, redirected.getBody());
+
+            final HttpRequest posted = request("/echo")
+                    .execAsync(HttpRequest.Method.POST, HttpRequest.data("key", "值"), executor)
+                    .get(10, TimeUnit.SECONDS);
+            assertEquals("key=%E5%80%BC", posted.getBody());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsyncReadTimeout() {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final ExecutionException e = assertThrows(ExecutionException.class, () -> request("/slow").timeout(300)
+                    .execAsync(HttpRequest.Method.GET, null, executor).get(10, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package io.github.edsuns.net;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RangeDownloaderTest {
+    private static final byte[] CONTENT = new byte[1000003];
+
+    private static TestServer server;
+    private static final Set<String> failedRanges = ConcurrentHashMap.newKeySet();
+    private static final Map<String, Boolean> requestedRanges = new ConcurrentHashMap<>();
+    private static final List<String> downloadConnections = new CopyOnWriteArrayList<>();
+
+    @BeforeAll
+    public static void startServer() throws IOException {
+        new Random(11).nextBytes(CONTENT);
+        server = new TestServer()
+                .handle("/ranges", exchange -> {
+                    String range = exchange.getRequestHeaders().getFirst("Range");
+                    if (range != null)
+                        requestedRanges.put(range, true);
+                    TestServer.ranges(CONTENT, true).handle(exchange);
+                })
+                .handle("/flaky", exchange -> {
+                    // every range fails once
+                    String range = exchange.getRequestHeaders().getFirst("Range");
+                    if (!range.equals("bytes=0-0") && failedRanges.add(range)) {
+                        TestServer.send(exchange, 503, "text/plain", "try again".getBytes());
+                        return;
+                    }
+                    TestServer.ranges(CONTENT, true).handle(exchange);
+                })
+                .handle("/no-ranges", TestServer.ranges(CONTENT, false))
+                .handle("/unavailable", exchange -> {
+                    if (exchange.getRequestHeaders().getFirst("Range") == null)
+                        downloadConnections.add(exchange.getRemoteAddress().toString());
+                    TestServer.send(exchange, 503, "text/plain", "error".getBytes());
+                });
+    }
+
+    @AfterAll
+    public static void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void testSegments() throws IOException {
+        final Path file = Files.createTempFile("segments", ".bin");
+        try {
+            final AtomicLong progress = new AtomicLong();
+            final long length = new RangeDownloader(server.url("/ranges"))
+                    .segments(4)
+                    .minSegmentSize(1000)
+                    .progress((downloaded, total) -> progress.accumulateAndGet(downloaded, Math::max))
+                    .download(file);
+
+            assertEquals(CONTENT.length, length);
+            assertEquals(CONTENT.length, progress.get());
+            assertArrayEquals(CONTENT, Files.readAllBytes(file));
+            // the probe and 4 segments
+            assertEquals(5, requestedRanges.size());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testRetry() throws IOException {
+        final Path file = Files.createTempFile("segments", ".bin");
+        try {
+            new RangeDownloader(server.url("/flaky")).segments(3).minSegmentSize(1000).retries(1).download(file);
+
+            assertArrayEquals(CONTENT, Files.readAllBytes(file));
+            assertEquals(3, failedRanges.size());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testWithoutRanges() throws IOException {
+        final Path file = Files.createTempFile("segments", ".bin");
+        try {
+            Files.write(file, new byte[10]);
+            final long length = new RangeDownloader(server.url("/no-ranges")).download(file);
+
+            assertEquals(CONTENT.length, length);
+            assertArrayEquals(CONTENT, Files.readAllBytes(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testBadStatusReleased() throws IOException {
+        final Path file = Files.createTempFile("segments", ".bin");
+        try {
+            final IOException e = assertThrows(IOException.class, () ->
+                    new RangeDownloader(server.url("/unavailable")).retries(1).download(file));
+            assertTrue(e.getMessage().contains("503"));
+            // the retry reuses the connection released by the first attempt
+            assertEquals(2, downloadConnections.size());
+            assertEquals(downloadConnections.get(0), downloadConnections.get(1));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package io.github.edsuns.net;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_UNAVAILABLE;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestCoalescerTest {
+    private static final AtomicInteger hits = new AtomicInteger();
+    private static final AtomicInteger hedgedHits = new AtomicInteger();
+    private static TestServer server;
+
+    @BeforeAll
+    public static void start() throws IOException {
+        // a slow gzip body telling how many requests the server got
+        server = new TestServer().handle("/slow", exchange -> {
+            final int hit = hits.incrementAndGet();
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException ignored) {
+            }
+            final ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+            try (GZIPOutputStream out = new GZIPOutputStream(gzip)) {
+                out.write(("hit " + hit).getBytes(StandardCharsets.UTF_8));
+            }
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            TestServer.send(exchange, HTTP_OK, "text/plain; charset=utf-8", gzip.toByteArray());
+        }).handle("/hedged", exchange -> {
+            hedgedHits.incrementAndGet();
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException ignored) {
+            }
+            TestServer.send(exchange, HTTP_OK, "text/plain; charset=utf-8", "ok".getBytes(StandardCharsets.UTF_8));
+        }).handle("/down", exchange -> {
+            hits.incrementAndGet();
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException ignored) {
+            }
+            exchange.getResponseHeaders().add("Set-Cookie", "session=abc; Path=/");
+            TestServer.send(exchange, HTTP_UNAVAILABLE, "text/plain; charset=utf-8",
+                    "down".getBytes(StandardCharsets.UTF_8));
+        });
+    }
+
+    @AfterAll
+    public static void stop() {
+        server.close();
+    }
+
+    // executes the requests at the same time, the results are the bodies or the exceptions
+    private static List<Object> concurrently(List<Callable<HttpRequest>> requests) throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(requests.size());
+        final CountDownLatch ready = new CountDownLatch(requests.size());
+        final List<Future<Object>> futures = new ArrayList<>();
+        for (Callable<HttpRequest> request : requests) {
+            futures.add(executor.submit(() -> {
+                ready.countDown();
+                ready.await();
+                try {
+                    return request.call().getBody();
+                } catch (IOException e) {
+                    return e;
+                }
+            }));
+        }
+        final List<Object> results = new ArrayList<>();
+        for (Future<Object> future : futures) {
+            try {
+                results.add(future.get(10, TimeUnit.SECONDS));
+            } catch (ExecutionException | TimeoutException e) {
+                results.add(e);
+            }
+        }
+        executor.shutdown();
+        return results;
+    }
+
+    @Test
+    public void testCoalesce() throws InterruptedException {
+        hits.set(0);
+        final RequestCoalescer coalescer = new RequestCoalescer();
+        final HttpClient client = HttpClient.builder().coalescer(coalescer).build();
+        final List<Callable<HttpRequest>> requests = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            requests.add(() -> client.get(server.url("/slow")));
+        }
+        for (Object body : concurrently(requests)) {
+            assertEquals("hit 1", body);
+        }
+        assertEquals(1, hits.get());
+        assertEquals(7, coalescer.getCoalescedCount());
+        assertEquals(0, coalescer.getInFlight());
+    }
+
+    @Test
+    public void testHedgeNotCoalesced() throws IOException {
+        final RequestCoalescer coalescer = new RequestCoalescer();
+        final RetryPolicy policy = new RetryPolicy().hedgeAfter(50);
+        final HttpClient client = HttpClient.builder().coalescer(coalescer).retryPolicy(policy).build();
+        assertEquals("ok", client.get(server.url("/hedged")).getBody());
+        assertEquals(1, policy.getHedgeCount());
+        assertTrue(hedgedHits.get() >= 2);// the hedged request reached the server
+        assertEquals(0, coalescer.getCoalescedCount());
+    }
+
+    @Test
+    public void testErrorResponse() throws InterruptedException {
+        hits.set(0);
+        final RequestCoalescer coalescer = new RequestCoalescer();
+        final List<HttpRequest> executed = new CopyOnWriteArrayList<>();
+        final List<Callable<HttpRequest>> requests = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            requests.add(() -> {
+                final HttpRequest request = new HttpRequest(server.url("/down")).coalescer(coalescer).get();
+                executed.add(request);
+                return request;
+            });
+        }
+        for (Object body : concurrently(requests)) {
+            assertEquals("down", body);// the body of the error is kept for every request
+        }
+        assertEquals(1, hits.get());
+        assertEquals(3, coalescer.getCoalescedCount());
+        for (HttpRequest request : executed) {
+            assertEquals(HTTP_UNAVAILABLE, request.getStatus());
+            assertEquals("session=abc; Path=/", request.getCookies().get("session"));// like a plain request
+        }
+    }
+
+    @Test
+    public void testDistinctRequests() throws InterruptedException {
+        hits.set(0);
+        final RequestCoalescer coalescer = new RequestCoalescer();
+        final List<Callable<HttpRequest>> requests = new ArrayList<>();
+        requests.add(() -> new HttpRequest(server.url("/slow")).coalescer(coalescer).get());
+        requests.add(() -> new HttpRequest(server.url("/slow?a=1")).coalescer(coalescer).get());
+        requests.add(() -> new HttpRequest(server.url("/slow")).coalescer(coalescer)
+                .headers(HttpRequest.data("Accept-Language", "en")).get());
+        requests.add(() -> new HttpRequest(server.url("/slow")).coalescer(coalescer)
+                .exec(HttpRequest.Method.POST));// never coalesced
+        concurrently(requests);
+        assertEquals(4, hits.get());
+        assertEquals(0, coalescer.getCoalescedCount());
+    }
+
+    @Test
+    public void testTableFull() throws InterruptedException {
+        hits.set(0);
+        final RequestCoalescer coalescer = new RequestCoalescer(1);
+        final List<Callable<HttpRequest>> requests = new ArrayList<>();
+        requests.add(() -> new HttpRequest(server.url("/slow?a=1")).coalescer(coalescer).get());
+        requests.add(() -> new HttpRequest(server.url("/slow?a=2")).coalescer(coalescer).get());
+        for (Object body : concurrently(requests)) {
+            assertTrue(body instanceof String);
+        }
+        assertEquals(2, hits.get());
+    }
+
+    @Test
+    public void testFailure() throws IOException, InterruptedException {
+        final int port;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+        final RequestCoalescer coalescer = new RequestCoalescer();
+        final List<Callable<HttpRequest>> requests = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            requests.add(() -> new HttpRequest("http://127.0.0.1:" + port + "/").coalescer(coalescer).get());
+        }
+        for (Object result : concurrently(requests)) {
+            assertTrue(result instanceof ConnectException);
+        }
+        assertEquals(0, coalescer.getInFlight());
+    }
+}
@@ -0,0 +1,225 @@
+package io.github.edsuns.net;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResponseCacheTest {
+    private static final String ETAG = "\"v1\"";
+    private static final String LAST_MODIFIED = "Mon, 05 Oct 2026 08:00:00 GMT";
+
+    private static TestServer server;
+    private static final Map<String, AtomicInteger> hits = new ConcurrentHashMap<>();
+
+    @BeforeAll
+    public static void start() throws IOException {
+        server = new TestServer()
+                .handle("/max-age", exchange -> send(exchange, "Cache-Control", "max-age=60"))
+                .handle("/etag", exchange -> {
+                    if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+                        notModified(exchange);
+                    else
+                        send(exchange, "Cache-Control", "no-cache", "ETag", ETAG);
+                })
+                .handle("/last-modified", exchange -> {
+                    if (LAST_MODIFIED.equals(exchange.getRequestHeaders().getFirst("If-Modified-Since")))
+                        notModified(exchange);
+                    else
+                        send(exchange, "Cache-Control", "max-age=0", "Last-Modified", LAST_MODIFIED);
+                })
+                .handle("/no-store", exchange -> send(exchange, "Cache-Control", "no-store, max-age=60"))
+                .handle("/vary", exchange -> send(exchange, "Cache-Control", "max-age=60", "Vary", "Accept-Language"))
+                .handle("/gzip", exchange -> {
+                    count(exchange);
+                    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+                        out.write(exchange.getRequestURI().toString().getBytes(StandardCharsets.UTF_8));
+                    }
+                    exchange.getResponseHeaders().set("Cache-Control", "max-age=60");
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                    TestServer.send(exchange, HTTP_OK, "text/plain", bytes.toByteArray());
+                })
+                .handle("/large/", exchange -> {
+                    count(exchange);
+                    exchange.getResponseHeaders().set("Cache-Control", "max-age=60");
+                    TestServer.send(exchange, HTTP_OK, "application/octet-stream", new byte[2000]);
+                });
+    }
+
+    @AfterAll
+    public static void stop() {
+        server.close();
+    }
+
+    private static int count(HttpExchange exchange) {
+        return hits.computeIfAbsent(exchange.getRequestURI().toString(), k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private static int hits(String path) {
+        final AtomicInteger count = hits.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    private static void send(HttpExchange exchange, String... headers) throws IOException {
+        final int count = count(exchange);
+        for (int i = 0; i < headers.length; i += 2) {
+            exchange.getResponseHeaders().set(headers[i], headers[i + 1]);
+        }
+        TestServer.send(exchange, HTTP_OK, "text/plain; charset=utf-8",
+                (exchange.getRequestURI() + " #" + count).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void notModified(HttpExchange exchange) throws IOException {
+        count(exchange);
+        exchange.sendResponseHeaders(HTTP_NOT_MODIFIED, -1);
+        exchange.close();
+    }
+
+    private static HttpRequest get(ResponseCache cache, String path) throws IOException {
+        return new HttpRequest(server.url(path)).cache(cache).exec();
+    }
+
+    @Test
+    public void testFreshHit() throws IOException {
+        final ResponseCache cache = new ResponseCache(1024 * 1024);
+        assertEquals("/max-age #1", get(cache, "/max-age").getBody());
+        final HttpRequest hit = get(cache, "/max-age");
+
+        assertEquals(HTTP_OK, hit.getStatus());
+        assertEquals("/max-age #1", hit.getBody());
+        assertTrue(hit.getConnection() instanceof CachedConnection);
+        assertEquals(1, hits("/max-age"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testRevalidateWithETag() throws IOException {
+        final ResponseCache cache = new ResponseCache(1024 * 1024);
+        assertEquals("/etag #1", get(cache, "/etag").getBody());
+        final HttpRequest revalidated = get(cache, "/etag");
+
+        assertEquals(HTTP_OK, revalidated.getStatus());
+        assertEquals("/etag #1", revalidated.getBody());
+        assertEquals(2, hits("/etag"));
+        assertEquals(1, cache.getConditionalHitCount());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void testRevalidateWithLastModified() throws IOException {
+        final ResponseCache cache = new ResponseCache(1024 * 1024);
+        get(cache, "/last-modified").getBody();
+        assertEquals("/last-modified #1", get(cache, "/last-modified").getBody());
+        assertEquals(1, cache.getConditionalHitCount());
+    }
+
+    @Test
+    public void testNoStore() throws IOException {
+        final ResponseCache cache = new ResponseCache(1024 * 1024);
+        get(cache, "/no-store").getBody();
+        assertEquals("/no-store #2", get(cache, "/no-store").getBody());
+        assertEquals(0, cache.getMemorySize());
+    }
+
+    @Test
+    public void testNoCacheRequest() throws IOException {
+        final ResponseCache cache = new ResponseCache(1024 * 1024);
+        get(cache, "/max-age?no-cache").getBody();
+        final HttpRequest request = new HttpRequest(server.url("/max-age?no-cache")).cache(cache)
+                .headers(HttpRequest.data("Cache-Control", "no-cache")).exec();
+        assertEquals("/max-age?no-cache #2", request.getBody());
+    }
+
+    @Test
+    public void testVary() throws IOException {
+        final ResponseCache cache = new ResponseCache(1024 * 1024);
+        final String url = server.url("/vary");
+        new HttpRequest(url).cache(cache).headers(HttpRequest.data("Accept-Language", "en")).exec().getBody();
+
+        assertEquals("/vary #1", new HttpRequest(url).cache(cache)
+                .headers(HttpRequest.data("Accept-Language", "en")).exec().getBody());
+        assertEquals("/vary #2", new HttpRequest(url).cache(cache)
+                .headers(HttpRequest.data("Accept-Language", "zh")).exec().getBody());
+    }
+
+    @Test
+    public void testEncodedBody() throws IOException {
+        final ResponseCache cache = new ResponseCache(1024 * 1024);
+        assertEquals("/gzip", get(cache, "/gzip").getBody());
+        assertEquals("/gzip", get(cache, "/gzip").getBody());
+        assertEquals(1, hits("/gzip"));
+    }
+
+    @Test
+    public void testMemoryEviction() throws IOException {
+        final ResponseCache cache = new ResponseCache(5000);
+        for (int i = 0; i < 3; i++) {
+            get(cache, "/large/" + i).getBodyBytes();
+        }
+        assertTrue(cache.getMemorySize() <= 5000);
+        get(cache, "/large/2").getBodyBytes();
+        get(cache, "/large/0").getBodyBytes();
+
+        assertEquals(1, hits("/large/2"));
+        assertEquals(2, hits("/large/0"));// evicted
+    }
+
+    @Test
+    public void testDiskTier(@TempDir Path directory) throws IOException {
+        final ResponseCache cache = new ResponseCache(1024 * 1024).disk(directory, 1024 * 1024);
+        assertEquals("/max-age?disk #1", get(cache, "/max-age?disk").getBody());
+        assertTrue(cache.getDiskSize() > 0);
+
+        // like a new process
+        final ResponseCache reopened = new ResponseCache(1024 * 1024).disk(directory, 1024 * 1024);
+        assertEquals("/max-age?disk #1", get(reopened, "/max-age?disk").getBody());
+        assertEquals(1, reopened.getHitCount());
+        assertEquals(1, hits("/max-age?disk"));
+
+        reopened.clear();
+        assertEquals(0, reopened.getDiskSize());
+    }
+
+    @Test
+    public void testMemoryHitDuringDiskWrite(@TempDir Path directory) throws Exception {
+        final ResponseCache cache = new ResponseCache(1024 * 1024).disk(directory, 1024 * 1024);
+        assertEquals("/max-age?memory #1", get(cache, "/max-age?memory").getBody());
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<String> written;
+            synchronized (cache.diskLock) {// like a slow disk
+                final CompletableFuture<Thread> writer = new CompletableFuture<>();
+                written = executor.submit(() -> {
+                    writer.complete(Thread.currentThread());
+                    return get(cache, "/max-age?written").getBody();
+                });
+                while (writer.get().getState() != Thread.State.BLOCKED) {
+                    Thread.sleep(10);
+                }
+                assertEquals("/max-age?memory #1",
+                        executor.submit(() -> get(cache, "/max-age?memory").getBody()).get(5, SECONDS));
+                assertFalse(written.isDone());
+            }
+            assertEquals("/max-age?written #1", written.get(5, SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
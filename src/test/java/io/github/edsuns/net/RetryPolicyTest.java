@@ -0,0 +1,220 @@
+package io.github.edsuns.net;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_UNAVAILABLE;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RetryPolicyTest {
+    private static final AtomicInteger failures = new AtomicInteger();
+    private static final AtomicInteger hits = new AtomicInteger();
+    private static final AtomicInteger slowHits = new AtomicInteger();
+    private static TestServer server;
+
+    @BeforeAll
+    public static void start() throws IOException {
+        server = new TestServer()
+                .handle("/flaky", exchange -> {
+                    hits.incrementAndGet();
+                    if (failures.getAndDecrement() > 0) {
+                        final String retryAfter = exchange.getRequestURI().getQuery();
+                        if (retryAfter != null)
+                            exchange.getResponseHeaders().set("Retry-After", retryAfter);
+                        TestServer.send(exchange, HTTP_UNAVAILABLE, null, new byte[0]);
+                    } else {
+                        TestServer.send(exchange, HTTP_OK, "text/plain; charset=utf-8",
+                                "ok".getBytes(StandardCharsets.UTF_8));
+                    }
+                })
+                .handle("/slow", exchange -> {
+                    // only the first request is slow
+                    final int hit = slowHits.incrementAndGet();
+                    if (hit == 1) {
+                        try {
+                            Thread.sleep(3000);
+                        } catch (InterruptedException ignored) {
+                        }
+                    }
+                    TestServer.send(exchange, HTTP_OK, "text/plain; charset=utf-8",
+                            String.valueOf(hit).getBytes(StandardCharsets.UTF_8));
+                })
+                .handle("/sleep", exchange -> {
+                    try {
+                        Thread.sleep(300);
+                    } catch (InterruptedException ignored) {
+                    }
+                    TestServer.send(exchange, HTTP_OK, "text/plain; charset=utf-8",
+                            "ok".getBytes(StandardCharsets.UTF_8));
+                });
+    }
+
+    @AfterAll
+    public static void stop() {
+        server.close();
+    }
+
+    private static void reset(int failing) {
+        failures.set(failing);
+        hits.set(0);
+    }
+
+    @Test
+    public void testRetryStatus() throws IOException {
+        reset(2);
+        final RetryPolicy policy = new RetryPolicy().maxRetries(3).backoff(1, 5);
+        final HttpRequest request = new HttpRequest(server.url("/flaky")).retryPolicy(policy).get();
+        assertEquals(HTTP_OK, request.getStatus());
+        assertEquals("ok", request.getBody());
+        assertEquals(3, hits.get());
+        assertEquals(2, policy.getRetryCount());
+        assertEquals(1, policy.getLatencies().getCount());
+    }
+
+    @Test
+    public void testOutOfRetries() throws IOException {
+        reset(5);
+        final RetryPolicy policy = new RetryPolicy().maxRetries(2).backoff(1, 5);
+        assertEquals(HTTP_UNAVAILABLE, new HttpRequest(server.url("/flaky")).retryPolicy(policy).get().getStatus());
+        assertEquals(3, hits.get());
+
+        reset(5);// a Retry-After longer than the max delay isn't waited for
+        assertEquals(HTTP_UNAVAILABLE, new HttpRequest(server.url("/flaky?100")).retryPolicy(policy).get().getStatus());
+        assertEquals(1, hits.get());
+
+        reset(5);// not idempotent
+        assertEquals(HTTP_UNAVAILABLE, new HttpRequest(server.url("/flaky")).retryPolicy(policy)
+                .exec(HttpRequest.Method.POST, HttpRequest.data("a", "1")).getStatus());
+        assertEquals(1, hits.get());
+    }
+
+    @Test
+    public void testRetryAfter() throws IOException {
+        reset(1);
+        final RetryPolicy policy = new RetryPolicy().backoff(0, 5000);
+        final long start = System.nanoTime();
+        assertEquals(HTTP_OK, new HttpRequest(server.url("/flaky?1")).retryPolicy(policy).get().getStatus());
+        assertTrue(System.nanoTime() - start >= TimeUnit.SECONDS.toNanos(1));
+        assertEquals(2, hits.get());
+    }
+
+    @Test
+    public void testBudget() throws IOException {
+        final RetryPolicy policy = new RetryPolicy().maxRetries(3).backoff(1, 5).budget(0, 1);
+        reset(10);
+        new HttpRequest(server.url("/flaky")).retryPolicy(policy).get();
+        assertEquals(2, hits.get());// the only retry of the budget
+        reset(10);
+        new HttpRequest(server.url("/flaky")).retryPolicy(policy).get();
+        assertEquals(1, hits.get());
+        assertEquals(1, policy.getRetryCount());
+    }
+
+    @Test
+    public void testConnectFailure() throws IOException {
+        final int port;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+        final RetryPolicy policy = new RetryPolicy().maxRetries(2).backoff(1, 5);
+        final HttpRequest request = new HttpRequest("http://127.0.0.1:" + port + "/").retryPolicy(policy);
+        assertThrows(ConnectException.class, request::get);
+        assertEquals(2, policy.getRetryCount());
+    }
+
+    @Test
+    public void testHedge() throws IOException {
+        slowHits.set(0);
+        final RetryPolicy policy = new RetryPolicy().hedgeAfter(100);
+        final HttpClient client = HttpClient.builder().retryPolicy(policy).build();
+        final long start = System.nanoTime();
+        final HttpRequest request = client.get(server.url("/slow"));
+        assertEquals("2", request.getBody());// the hedged request wins
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertEquals(1, policy.getHedgeCount());
+    }
+
+    @Test
+    public void testHedgeDepositsOnce() throws IOException {
+        // the first call fills the budget and spends it on its hedge, the second can't hedge
+        final RetryPolicy policy = new RetryPolicy().hedgeAfter(50).budget(0.6, 1);
+        final HttpClient client = HttpClient.builder().retryPolicy(policy).build();
+        assertEquals("ok", client.get(server.url("/sleep")).getBody());
+        assertEquals("ok", client.get(server.url("/sleep")).getBody());
+        assertEquals(1, policy.getHedgeCount());
+    }
+
+    // read the head of a request
+    private static void readHead(InputStream in) throws IOException {
+        int matched = 0;
+        while (matched < 4) {
+            final int b = in.read();
+            if (b == -1)
+                throw new IOException("Closed before the end of the head");
+            matched = b == "\r\n\r\n".charAt(matched) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+    }
+
+    @Test
+    public void testHedgeLoserDisconnected() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 2, InetAddress.getLoopbackAddress())) {
+            // the first request never gets a response, the hedged one does
+            final CompletableFuture<Boolean> loserClosed = CompletableFuture.supplyAsync(() -> {
+                try (Socket loser = server.accept()) {
+                    readHead(loser.getInputStream());
+                    try (Socket hedged = server.accept()) {
+                        readHead(hedged.getInputStream());
+                        final OutputStream out = hedged.getOutputStream();
+                        out.write("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 2\r\n\r\nok"
+                                .getBytes(StandardCharsets.US_ASCII));
+                        out.flush();
+                        loser.setSoTimeout(5000);
+                        try {
+                            return loser.getInputStream().read() == -1;
+                        } catch (SocketTimeoutException e) {
+                            return false;// still open
+                        } catch (IOException e) {
+                            return true;// reset
+                        }
+                    }
+                } catch (IOException e) {
+                    return false;
+                }
+            });
+            final RetryPolicy policy = new RetryPolicy().hedgeAfter(100);
+            final HttpClient client = HttpClient.builder().retryPolicy(policy).timeout(30000).build();
+            assertEquals("ok", client.get("http://127.0.0.1:" + server.getLocalPort() + "/").getBody());
+            assertTrue(loserClosed.get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testHedgeAtPercentile() {
+        final RetryPolicy policy = new RetryPolicy().hedgeAtPercentile(0.95);
+        assertTrue(policy.isHedging());
+        assertEquals(-1, policy.hedgeDelayNanos());// not enough samples
+        for (int i = 1; i <= 100; i++) {
+            policy.recordLatency(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        final long delay = policy.hedgeDelayNanos();
+        assertTrue(delay >= TimeUnit.MILLISECONDS.toNanos(90) && delay <= TimeUnit.MILLISECONDS.toNanos(100));
+        // interpolated within the bucket of 32.8 to 65.5 ms
+        final long median = policy.getLatencies().getPercentile(0.5);
+        assertTrue(median >= 45000 && median <= 55000, "median " + median);
+    }
+}
@@ -0,0 +1,115 @@
+package io.github.edsuns.net;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamingTextTest {
+    private static final int LINES = 100000;
+    private static final String CHINESE = "中文测试";
+    private static String gbkText;
+    private static TestServer server;
+
+    @BeforeAll
+    public static void start() throws IOException {
+        // GBK text without charset, longer than the prefix used to guess it
+        final StringBuilder gbk = new StringBuilder(CHINESE);
+        while (gbk.length() < 20000) {
+            gbk.append(" abc ").append(CHINESE);
+        }
+        gbkText = gbk.toString();
+        final byte[] gbkBytes = gbkText.getBytes(CharsetDetector.GBK);
+        server = new TestServer().handle("/gbk", exchange -> {
+            final ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+            try (GZIPOutputStream out = new GZIPOutputStream(gzip)) {
+                out.write(gbkBytes);
+            }
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            TestServer.send(exchange, HTTP_OK, "text/plain", gzip.toByteArray());
+        }).handle("/lines", exchange -> {
+            // chunked, the length isn't known
+            TestServer.readAll(exchange.getRequestBody());
+            exchange.getResponseHeaders().set("Content-Type", "text/csv; charset=utf-8");
+            exchange.sendResponseHeaders(HTTP_OK, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int i = 0; i < LINES; i++) {
+                    out.write((i + "," + CHINESE + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }).handle("/text", exchange -> TestServer.send(exchange, HTTP_OK, "text/plain; charset=utf-8",
+                CHINESE.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @AfterAll
+    public static void stop() {
+        server.close();
+    }
+
+    @Test
+    public void testLazyBody() throws IOException {
+        final HttpRequest request = new HttpRequest(server.url("/text")).get();
+        assertArrayEquals(CHINESE.getBytes(StandardCharsets.UTF_8), request.getBodyBytes());
+        assertTrue(request.hasTextBody());
+        assertEquals(StandardCharsets.UTF_8, request.getEncoding());
+        final String body = request.getBody();
+        assertEquals(CHINESE, body);
+        assertSame(body, request.getBody());// decoded once
+
+        // the stored bytes aren't text
+        final HttpRequest bytes = new HttpRequest(server.url("/text"))
+                .bodyHandler(BodyHandlers.ofByteArray()).get();
+        assertFalse(bytes.hasTextBody());
+        assertEquals("", bytes.getBody());
+    }
+
+    @Test
+    public void testReaderGuessesCharset() throws IOException {
+        final HttpRequest request = new HttpRequest(server.url("/gbk")).get();
+        final StringBuilder text = new StringBuilder();
+        try (BufferedReader reader = request.getReader()) {
+            final char[] buffer = new char[1000];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                text.append(buffer, 0, count);
+            }
+        }
+        assertEquals(CharsetDetector.GBK, request.getEncoding());
+        assertEquals(gbkText, text.toString());
+    }
+
+    @Test
+    public void testLines() throws IOException {
+        final HttpRequest request = new HttpRequest(server.url("/lines")).get();
+        long count = 0;
+        try (Stream<String> lines = request.lines()) {
+            final Iterator<String> iterator = lines.iterator();
+            while (iterator.hasNext()) {
+                assertEquals(count + "," + CHINESE, iterator.next());
+                count++;
+            }
+        }
+        assertEquals(LINES, count);
+    }
+
+    @Test
+    public void testReaderAfterLoad() throws IOException {
+        final HttpRequest request = new HttpRequest(server.url("/text")).get();
+        request.loadResponse();
+        try (BufferedReader reader = request.getReader()) {
+            assertEquals(CHINESE, reader.readLine());
+            assertNull(reader.readLine());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package io.github.edsuns.net;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A loopback http server for tests that must not depend on the internet.
+ */
+class TestServer implements AutoCloseable {
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    TestServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 64);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    TestServer handle(String path, HttpHandler handler) {
+        server.createContext(path, handler);
+        return this;
+    }
+
+    String url(String path) {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getHostString() + ":" + address.getPort() + path;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        readAll(exchange.getRequestBody());
+        if (contentType != null)
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Serve the content with support for single range requests like {@code bytes=500-} and {@code bytes=500-999}.
+     */
+    static HttpHandler ranges(byte[] content, boolean acceptRanges) {
+        return exchange -> {
+            readAll(exchange.getRequestBody());
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            if (!acceptRanges || range == null || !range.startsWith("bytes=")) {
+                if (acceptRanges)
+                    exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+                sendBody(exchange, 200, content, 0, content.length);
+                return;
+            }
+            String[] spec = range.substring("bytes=".length()).split("-", -1);
+            long first = Long.parseLong(spec[0]);
+            long last = spec[1].isEmpty() ? content.length - 1 : Math.min(Long.parseLong(spec[1]), content.length - 1);
+            if (first >= content.length) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + content.length);
+                exchange.sendResponseHeaders(416, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + first + "-" + last + "/" + content.length);
+            sendBody(exchange, 206, content, (int) first, (int) (last - first + 1));
+        };
+    }
+
+    private static void sendBody(HttpExchange exchange, int status, byte[] content, int offset, int length)
+            throws IOException {
+        exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(content, offset, length);
+        }
+    }
+
+    static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            bo.write(buffer, 0, count);
+        }
+        return bo.toByteArray();
+    }
+}